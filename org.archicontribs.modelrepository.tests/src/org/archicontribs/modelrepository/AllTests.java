@@ -6,7 +6,16 @@
 package org.archicontribs.modelrepository;
 
 
+import org.archicontribs.modelrepository.grafico.GraficoChangeRecorderTests;
+import org.archicontribs.modelrepository.grafico.GraficoFetchJobTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelExporterTests;
+import org.archicontribs.modelrepository.grafico.GraficoMaintenanceJobTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelImporterTests;
+import org.archicontribs.modelrepository.grafico.GraficoRepositoryRegistryTests;
+import org.archicontribs.modelrepository.grafico.GraficoSyncJobTests;
 import org.archicontribs.modelrepository.grafico.GraficoUtilsTests;
+import org.archicontribs.modelrepository.grafico.GraficoXMLReaderTests;
+import org.archicontribs.modelrepository.grafico.GraficoXMLWriterTests;
 
 import junit.framework.TestSuite;
 
@@ -17,6 +26,15 @@ public class AllTests {
 		TestSuite suite = new TestSuite("org.archicontribs.modelrepository");
 
 		suite.addTest(GraficoUtilsTests.suite());
+		suite.addTest(GraficoModelExporterTests.suite());
+		suite.addTest(GraficoXMLWriterTests.suite());
+		suite.addTest(GraficoChangeRecorderTests.suite());
+		suite.addTest(GraficoModelImporterTests.suite());
+		suite.addTest(GraficoXMLReaderTests.suite());
+		suite.addTest(GraficoRepositoryRegistryTests.suite());
+		suite.addTest(GraficoMaintenanceJobTests.suite());
+		suite.addTest(GraficoSyncJobTests.suite());
+		suite.addTest(GraficoFetchJobTests.suite());
 		
         return suite;
 	}
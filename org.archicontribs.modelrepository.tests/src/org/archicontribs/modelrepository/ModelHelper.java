@@ -0,0 +1,61 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+
+@SuppressWarnings("nls")
+public class ModelHelper {
+
+    public static IArchimateModel createModel() {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model1");
+        model.setName("Test Model");
+        return model;
+    }
+
+    public static IArchimateElement addBusinessActor(IArchimateModel model, String id) {
+        IArchimateElement actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setId(id);
+        actor.setName("Actor");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor);
+        return actor;
+    }
+
+    /**
+     * Assert that two folders have the same files with the same bytes
+     */
+    public static void assertSameContents(File expected, File actual) throws IOException {
+        String[] expectedNames = expected.list();
+        String[] actualNames = actual.list();
+        Arrays.sort(expectedNames);
+        Arrays.sort(actualNames);
+        assertArrayEquals(expectedNames, actualNames);
+
+        for(String name : expectedNames) {
+            File expectedFile = new File(expected, name);
+            File actualFile = new File(actual, name);
+            if(expectedFile.isDirectory()) {
+                assertSameContents(expectedFile, actualFile);
+            }
+            else {
+                assertArrayEquals(Files.readAllBytes(expectedFile.toPath()), Files.readAllBytes(actualFile.toPath()));
+            }
+        }
+    }
+
+}
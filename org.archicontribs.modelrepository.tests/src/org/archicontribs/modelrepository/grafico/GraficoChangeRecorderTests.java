@@ -0,0 +1,205 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.archicontribs.modelrepository.ModelHelper.addBusinessActor;
+import static org.archicontribs.modelrepository.ModelHelper.assertSameContents;
+import static org.archicontribs.modelrepository.ModelHelper.createModel;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.eclipse.gef.commands.Command;
+import org.eclipse.gef.commands.CommandStack;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IFolder;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoChangeRecorderTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoChangeRecorderTests.class);
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(getTempTestsFolder());
+    }
+
+    @Test
+    public void recordsAddedModifiedMovedAndDeletedIds() {
+        IArchimateModel model = createModel();
+        IArchimateElement actor1 = addBusinessActor(model, "actor1");
+        IArchimateElement actor2 = addBusinessActor(model, "actor2");
+        IArchimateElement actor3 = addBusinessActor(model, "actor3");
+        IFolder folder = addUserFolder(model, "folder1");
+
+        GraficoChangeRecorder recorder = GraficoChangeRecorder.attach(model);
+        assertFalse(recorder.hasChanges());
+
+        actor1.setName("Changed");
+        folder.getElements().add(actor2);
+        model.getFolder(FolderType.BUSINESS).getElements().remove(actor3);
+        IArchimateElement actor4 = addBusinessActor(model, "actor4");
+
+        assertEquals(Collections.singleton("actor1"), recorder.getModifiedIds());
+        assertEquals(Collections.singleton("actor2"), recorder.getMovedIds());
+        assertEquals(Collections.singleton("actor3"), recorder.getDeletedIds());
+        assertEquals(Collections.singleton("actor4"), recorder.getAddedIds());
+
+        assertTrue(recorder.getDirtyObjects().containsAll(Arrays.asList(actor1, actor2, actor4)));
+        assertTrue(recorder.getRemovedPaths().contains("model/business/" + GraficoResource.getElementFileName(actor2)));
+        assertTrue(recorder.getRemovedPaths().contains("model/business/" + GraficoResource.getElementFileName(actor3)));
+
+        // Added and deleted again before a commit
+        model.getFolder(FolderType.BUSINESS).getElements().remove(actor4);
+        assertTrue(recorder.getAddedIds().isEmpty());
+        assertEquals(Collections.singleton("actor3"), recorder.getDeletedIds());
+
+        recorder.reset();
+        assertFalse(recorder.hasChanges());
+    }
+
+    @Test
+    public void changingIdRequiresFullExport() {
+        IArchimateModel model = createModel();
+        IArchimateElement actor = addBusinessActor(model, "actor1");
+
+        GraficoChangeRecorder recorder = GraficoChangeRecorder.attach(model);
+        actor.setId("actor2");
+        assertTrue(recorder.isFullExportRequired());
+    }
+
+    @Test
+    public void exportChanges_SameAsFullExport() throws Exception {
+        IArchimateModel model = createModel();
+        IArchimateElement actor1 = addBusinessActor(model, "actor1");
+        IArchimateElement actor2 = addBusinessActor(model, "actor2");
+        IArchimateElement actor3 = addBusinessActor(model, "actor3");
+        IFolder folder1 = addUserFolder(model, "folder1");
+        IFolder folder2 = addUserFolder(model, "folder2");
+        folder2.getElements().add(actor3);
+
+        File changesFolder = new File(getTempTestsFolder(), "changes");
+        GraficoModelExporter exporter = new GraficoModelExporter();
+        exporter.exportModelToLocalGitRepository(model, changesFolder);
+
+        GraficoChangeRecorder recorder = GraficoChangeRecorder.attach(model);
+
+        actor1.setName("Changed");
+        folder1.getElements().add(actor2);
+        model.getFolder(FolderType.BUSINESS).getFolders().remove(folder2);
+        addBusinessActor(model, "actor4");
+
+        Set<String> paths = exporter.exportChangesToLocalGitRepository(model, changesFolder, recorder);
+        assertTrue(paths.contains("model/business/" + GraficoResource.getElementFileName(actor1)));
+        assertTrue(paths.contains("model/business/folder2"));
+
+        File fullFolder = new File(getTempTestsFolder(), "full");
+        exporter.exportModelToLocalGitRepository(model, fullFolder);
+
+        assertSameContents(new File(fullFolder, "model"), new File(changesFolder, "model"));
+    }
+
+    @Test
+    public void recordsCommandsUndoneAndRedone() throws Exception {
+        final IArchimateModel model = createModel();
+        final IArchimateElement actor1 = addBusinessActor(model, "actor1");
+        final IArchimateElement actor2 = addBusinessActor(model, "actor2");
+        final IFolder folder = addUserFolder(model, "folder1");
+        final IArchimateElement actor3 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor3.setId("actor3");
+
+        File changesFolder = new File(getTempTestsFolder(), "changes");
+        File fullFolder = new File(getTempTestsFolder(), "full");
+        GraficoModelExporter exporter = new GraficoModelExporter();
+        exporter.exportModelToLocalGitRepository(model, changesFolder);
+
+        GraficoChangeRecorder recorder = GraficoChangeRecorder.attach(model);
+
+        // Rename actor1, move actor2 to folder1 and add actor3
+        Command command = new Command() {
+            @Override
+            public void execute() {
+                actor1.setName("Changed");
+                folder.getElements().add(actor2);
+                model.getFolder(FolderType.BUSINESS).getElements().add(actor3);
+            }
+
+            @Override
+            public void undo() {
+                actor1.setName("Actor");
+                model.getFolder(FolderType.BUSINESS).getElements().add(actor2);
+                model.getFolder(FolderType.BUSINESS).getElements().remove(actor3);
+            }
+        };
+
+        CommandStack commandStack = new CommandStack();
+        commandStack.execute(command);
+        assertEquals(Collections.singleton("actor1"), recorder.getModifiedIds());
+        assertEquals(Collections.singleton("actor2"), recorder.getMovedIds());
+        assertEquals(Collections.singleton("actor3"), recorder.getAddedIds());
+
+        exporter.exportChangesToLocalGitRepository(model, changesFolder, recorder);
+        exporter.exportModelToLocalGitRepository(model, fullFolder);
+        assertSameContents(new File(fullFolder, "model"), new File(changesFolder, "model"));
+        recorder.reset();
+
+        // Undo after a commit is a change like any other
+        commandStack.undo();
+        assertTrue(recorder.hasChanges());
+        assertEquals(Collections.singleton("actor3"), recorder.getDeletedIds());
+
+        exporter.exportChangesToLocalGitRepository(model, changesFolder, recorder);
+        FileUtils.deleteFolder(fullFolder);
+        exporter.exportModelToLocalGitRepository(model, fullFolder);
+        assertSameContents(new File(fullFolder, "model"), new File(changesFolder, "model"));
+        recorder.reset();
+
+        commandStack.redo();
+        assertEquals(Collections.singleton("actor3"), recorder.getAddedIds());
+
+        exporter.exportChangesToLocalGitRepository(model, changesFolder, recorder);
+        FileUtils.deleteFolder(fullFolder);
+        exporter.exportModelToLocalGitRepository(model, fullFolder);
+        assertSameContents(new File(fullFolder, "model"), new File(changesFolder, "model"));
+    }
+
+    // Support
+
+    private IFolder addUserFolder(IArchimateModel model, String id) {
+        IFolder folder = IArchimateFactory.eINSTANCE.createFolder();
+        folder.setId(id);
+        folder.setName("Folder");
+        folder.setType(FolderType.USER);
+        model.getFolder(FolderType.BUSINESS).getFolders().add(folder);
+        return folder;
+    }
+
+    private File getTempTestsFolder() {
+        File file = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.tests.tmp");
+        file.deleteOnExit();
+        file.mkdirs();
+        return file;
+    }
+
+}
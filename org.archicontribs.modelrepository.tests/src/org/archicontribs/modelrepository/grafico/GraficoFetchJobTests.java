@@ -0,0 +1,49 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.archicontribs.modelrepository.grafico.GraficoFetchJob.TrackingStatus;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+public class GraficoFetchJobTests {
+
+    private static final long INTERVAL = 5 * 60000;
+    private static final long NOW = 1000000000;
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoFetchJobTests.class);
+    }
+
+    @Test
+    public void isFetched_NotFetchedInBackground() {
+        assertFalse(GraficoFetchJob.isFetched(null, INTERVAL, NOW));
+    }
+
+    @Test
+    public void isFetched_FetchingIsOff() {
+        TrackingStatus status = new TrackingStatus(0, 0, NOW - 1000);
+        assertFalse(GraficoFetchJob.isFetched(status, 0, NOW));
+    }
+
+    @Test
+    public void isFetched_WithinTwoIntervals() {
+        assertTrue(GraficoFetchJob.isFetched(new TrackingStatus(0, 1, NOW), INTERVAL, NOW));
+        assertTrue(GraficoFetchJob.isFetched(new TrackingStatus(0, 1, NOW - INTERVAL * 2 + 1), INTERVAL, NOW));
+    }
+
+    @Test
+    public void isFetched_StaleFetch() {
+        assertFalse(GraficoFetchJob.isFetched(new TrackingStatus(0, 1, NOW - INTERVAL * 2), INTERVAL, NOW));
+        assertFalse(GraficoFetchJob.isFetched(new TrackingStatus(0, 1, NOW - INTERVAL * 10), INTERVAL, NOW));
+    }
+
+}
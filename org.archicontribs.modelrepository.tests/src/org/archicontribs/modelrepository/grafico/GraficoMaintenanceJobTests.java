@@ -0,0 +1,119 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoMaintenanceJobTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoMaintenanceJobTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        GraficoRepositoryRegistry.closeAll();
+        FileUtils.deleteFolder(getTempTestsFolder());
+    }
+    
+    @Test
+    public void gcIfNeeded_PacksLooseObjects() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        
+        try(Repository repository = GitHelper.createNewRepository(localGitFolder)) {
+            Git git = Git.wrap(repository);
+            
+            for(int i = 0; i < 5; i++) {
+                try(FileWriter fw = new FileWriter(new File(localGitFolder, "file" + i + ".txt"))) {
+                    fw.write("Contents " + i);
+                }
+                git.add().addFilepattern(".").call();
+                git.commit().setAuthor("Test", "Test").setMessage("Message " + i).call();
+            }
+            
+            long looseObjects = getStatistic(localGitFolder, "numberOfLooseObjects");
+            assertTrue(looseObjects > 10);
+            
+            // Under the thresholds, or thresholds not set
+            assertFalse(GraficoMaintenanceJob.gcIfNeeded(localGitFolder, looseObjects, 0, NullProgressMonitor.INSTANCE));
+            assertFalse(GraficoMaintenanceJob.gcIfNeeded(localGitFolder, 0, 0, NullProgressMonitor.INSTANCE));
+            assertEquals(looseObjects, getStatistic(localGitFolder, "numberOfLooseObjects"));
+            
+            assertTrue(GraficoMaintenanceJob.gcIfNeeded(localGitFolder, 10, 0, NullProgressMonitor.INSTANCE));
+            assertEquals(0, getStatistic(localGitFolder, "numberOfLooseObjects"));
+            assertEquals(1, getStatistic(localGitFolder, "numberOfPackFiles"));
+            
+            // Nothing to do now
+            assertFalse(GraficoMaintenanceJob.gcIfNeeded(localGitFolder, 10, 1, NullProgressMonitor.INSTANCE));
+            
+            // Everything is still there
+            assertEquals("Message 4", git.log().call().iterator().next().getFullMessage());
+            assertTrue(git.status().call().isClean());
+        }
+    }
+    
+    @Test
+    public void isIdle_NoRecentCommitsOrModelChanges() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        
+        try(Repository repository = GitHelper.createNewRepository(localGitFolder)) {
+            // Nothing committed yet
+            long now = System.currentTimeMillis();
+            assertTrue(GraficoMaintenanceJob.isIdle(localGitFolder, 0, now));
+            
+            // The model was changed lately
+            assertFalse(GraficoMaintenanceJob.isIdle(localGitFolder, now - 1000, now));
+            assertTrue(GraficoMaintenanceJob.isIdle(localGitFolder, now - GraficoMaintenanceJob.IDLE_TIME, now));
+            
+            Git git = Git.wrap(repository);
+            try(FileWriter fw = new FileWriter(new File(localGitFolder, "file.txt"))) {
+                fw.write("Contents");
+            }
+            git.add().addFilepattern(".").call();
+            git.commit().setAuthor("Test", "Test").setMessage("Message").call();
+            
+            // Committed lately
+            now = System.currentTimeMillis();
+            assertFalse(GraficoMaintenanceJob.isIdle(localGitFolder, 0, now));
+            assertTrue(GraficoMaintenanceJob.isIdle(localGitFolder, 0, now + GraficoMaintenanceJob.IDLE_TIME));
+        }
+    }
+    
+    // A Repository opened again, as an open one does not see new pack files at once
+    private long getStatistic(File localGitFolder, String key) throws Exception {
+        try(Git git = Git.open(localGitFolder)) {
+            Properties statistics = git.gc().getStatistics();
+            return ((Number)statistics.get(key)).longValue();
+        }
+    }
+    
+    private File getTempTestsFolder() {
+        File file = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.tests.tmp");
+        file.deleteOnExit();
+        file.mkdirs();
+        return file;
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.archicontribs.modelrepository.ModelHelper.addBusinessActor;
+import static org.archicontribs.modelrepository.ModelHelper.assertSameContents;
+import static org.archicontribs.modelrepository.ModelHelper.createModel;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.model.IArchiveManager;
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModel;
+import com.archimatetool.model.IDiagramModelImage;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelExporterTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelExporterTests.class);
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(getTempTestsFolder());
+    }
+
+    @Test
+    public void exportModel_DoesNotRewriteUnchangedFiles() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        IArchimateModel model = createModel();
+        IArchimateElement actor = addBusinessActor(model, "actor1");
+
+        GraficoModelExporter exporter = new GraficoModelExporter();
+        exporter.exportModelToLocalGitRepository(model, localGitFolder);
+
+        File actorFile = getElementFile(localGitFolder, actor);
+        assertTrue(actorFile.exists());
+
+        long timeStamp = actorFile.lastModified() - 10000;
+        actorFile.setLastModified(timeStamp);
+
+        exporter.exportModelToLocalGitRepository(model, localGitFolder);
+        assertEquals(timeStamp, actorFile.lastModified());
+
+        actor.setName("Changed");
+        exporter.exportModelToLocalGitRepository(model, localGitFolder);
+        assertTrue(actorFile.lastModified() != timeStamp);
+    }
+
+    @Test
+    public void exportModel_DeletesFilesOfRemovedElements() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        IArchimateModel model = createModel();
+        IArchimateElement actor = addBusinessActor(model, "actor1");
+
+        GraficoModelExporter exporter = new GraficoModelExporter();
+        exporter.exportModelToLocalGitRepository(model, localGitFolder);
+
+        File actorFile = getElementFile(localGitFolder, actor);
+        assertTrue(actorFile.exists());
+
+        model.getFolder(FolderType.BUSINESS).getElements().remove(actor);
+        exporter.exportModelToLocalGitRepository(model, localGitFolder);
+
+        assertFalse(actorFile.exists());
+        assertTrue(new File(localGitFolder, "model/business/folder.xml").exists());
+    }
+
+    @Test
+    public void exportModel_SavesFromLiveModel() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        IArchimateModel model = createModel();
+        IArchimateElement actor1 = addBusinessActor(model, "actor1");
+        IArchimateElement actor2 = addBusinessActor(model, "actor2");
+
+        IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+        relation.setId("relation1");
+        relation.setSource(actor1);
+        relation.setTarget(actor2);
+        model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+
+        GraficoModelExporter exporter = new GraficoModelExporter();
+        exporter.exportModelToLocalGitRepository(model, localGitFolder);
+
+        // Model is left untouched
+        assertEquals(2, model.getFolder(FolderType.BUSINESS).getElements().size());
+        assertEquals(model.getFolder(FolderType.RELATIONS), relation.eContainer());
+
+        // References to other files are saved as hrefs
+        File relationFile = new File(localGitFolder, "model/relations/" + relation.getClass().getSimpleName() + "_relation1.xml");
+        String contents = new String(Files.readAllBytes(relationFile.toPath()), "UTF-8");
+        assertTrue(contents.contains("href=\"" + actor1.getClass().getSimpleName() + "_actor1.xml#actor1\""));
+        assertTrue(contents.contains("href=\"" + actor2.getClass().getSimpleName() + "_actor2.xml#actor2\""));
+
+        // Folder files do not contain their elements
+        String folderContents = new String(Files.readAllBytes(new File(localGitFolder, "model/business/folder.xml").toPath()), "UTF-8");
+        assertFalse(folderContents.contains("actor1"));
+    }
+
+    @Test
+    public void exportModel_ParallelOutputIsSameAsSequential() throws Exception {
+        IArchimateModel model = createModel();
+        for(int i = 0; i < 50; i++) {
+            addBusinessActor(model, "actor" + i);
+        }
+
+        File sequentialFolder = new File(getTempTestsFolder(), "sequential");
+        GraficoModelExporter exporter = new GraficoModelExporter();
+        exporter.setThreadCount(1);
+        exporter.exportModelToLocalGitRepository(model, sequentialFolder);
+
+        File parallelFolder = new File(getTempTestsFolder(), "parallel");
+        exporter = new GraficoModelExporter();
+        exporter.setThreadCount(4);
+        exporter.exportModelToLocalGitRepository(model, parallelFolder);
+
+        assertSameContents(new File(sequentialFolder, "model"), new File(parallelFolder, "model"));
+    }
+
+    @Test
+    public void exportModel_RecordsPhaseMetrics() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        IArchimateModel model = createModel();
+        addBusinessActor(model, "actor1");
+        addImage(model, "image1", new byte[] { 1, 2, 3 });
+
+        GraficoModelExporter exporter = new GraficoModelExporter();
+        exporter.setThreadCount(2);
+        exporter.exportModelToLocalGitRepository(model, localGitFolder);
+
+        GraficoMetrics metrics = exporter.getMetrics();
+        assertNotNull(metrics.getPhase("addFilesForFolder"));
+        assertNotNull(metrics.getPhase("swapStagedFolders"));
+
+        GraficoMetrics.Phase saveImages = metrics.getPhase("saveImages");
+        assertEquals(1, saveImages.getFileCount());
+        assertEquals(3, saveImages.getBytes());
+
+        GraficoMetrics.Phase saveFiles = metrics.getPhase("saveFiles");
+        assertEquals(countFiles(new File(localGitFolder, "model")), saveFiles.getFileCount());
+        assertTrue(saveFiles.getBytes() > 0);
+        assertTrue(saveFiles.getTime() >= 0);
+    }
+
+    @Test
+    public void exportModel_DoesNotRewriteUnchangedImages() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        IArchimateModel model = createModel();
+        IDiagramModelImage image1 = addImage(model, "image1", new byte[] { 1, 2, 3 });
+        IDiagramModelImage image2 = addImage(model, "image2", new byte[] { 4, 5, 6 });
+
+        GraficoModelExporter exporter = new GraficoModelExporter();
+        exporter.exportModelToLocalGitRepository(model, localGitFolder);
+
+        File imageFile1 = new File(localGitFolder, image1.getImagePath());
+        File imageFile2 = new File(localGitFolder, image2.getImagePath());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(imageFile1.toPath()));
+        assertTrue(imageFile2.exists());
+
+        long timeStamp = imageFile1.lastModified() - 10000;
+        imageFile1.setLastModified(timeStamp);
+
+        // Image 2 is not used any more
+        ((IDiagramModel)image2.eContainer()).getChildren().remove(image2);
+        exporter.exportModelToLocalGitRepository(model, localGitFolder);
+
+        assertEquals(timeStamp, imageFile1.lastModified());
+        assertFalse(imageFile2.exists());
+    }
+
+    @Test
+    public void exportModel_FailedExportLeavesFilesUntouched() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        IArchimateModel model = createModel();
+        IArchimateElement actor1 = addBusinessActor(model, "actor1");
+        IArchimateElement actor2 = addBusinessActor(model, "actor2");
+        
+        GraficoModelExporter exporter = new GraficoModelExporter();
+        exporter.exportModelToLocalGitRepository(model, localGitFolder);
+        
+        File actorFile1 = getElementFile(localGitFolder, actor1);
+        File actorFile2 = getElementFile(localGitFolder, actor2);
+        byte[] contents = Files.readAllBytes(actorFile1.toPath());
+        
+        // Remove an element and add one that can't be saved
+        model.getFolder(FolderType.BUSINESS).getElements().remove(actor2);
+        actor1.setName("Changed");
+        addBusinessActor(model, "bad\u0000id");
+        
+        try {
+            exporter.exportModelToLocalGitRepository(model, localGitFolder);
+            fail("Export should fail");
+        }
+        catch(Exception ex) {
+        }
+        
+        assertArrayEquals(contents, Files.readAllBytes(actorFile1.toPath()));
+        assertTrue(actorFile2.exists());
+        
+        // Nothing is left behind
+        assertArrayEquals(new String[] { "images", "model" }, sortedList(localGitFolder));
+    }
+    
+    @Test
+    public void exportChanges_FailedExportDeletesNothing() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        IArchimateModel model = createModel();
+        IArchimateElement actor1 = addBusinessActor(model, "actor1");
+        IArchimateElement actor2 = addBusinessActor(model, "actor2");
+        
+        GraficoModelExporter exporter = new GraficoModelExporter();
+        exporter.exportModelToLocalGitRepository(model, localGitFolder);
+        GraficoChangeRecorder recorder = GraficoChangeRecorder.attach(model);
+        
+        File actorFile2 = getElementFile(localGitFolder, actor2);
+        
+        // Remove an element and add one that can't be saved
+        model.getFolder(FolderType.BUSINESS).getElements().remove(actor2);
+        actor1.setName("Changed");
+        addBusinessActor(model, "bad\u0000id");
+        
+        try {
+            exporter.exportChangesToLocalGitRepository(model, localGitFolder, recorder);
+            fail("Export should fail");
+        }
+        catch(Exception ex) {
+        }
+        
+        // The removed element's file is still there, and the recorder still has the changes
+        assertTrue(actorFile2.exists());
+        assertTrue(recorder.getRemovedPaths().contains("model/business/" + actorFile2.getName()));
+    }
+    
+    // Support
+    
+    private String[] sortedList(File folder) {
+        String[] names = folder.list();
+        Arrays.sort(names);
+        return names;
+    }
+
+    private IDiagramModelImage addImage(IArchimateModel model, String id, byte[] bytes) throws IOException {
+        String imagePath = "images/" + id + ".png";
+        IArchiveManager.FACTORY.createArchiveManager(model).addByteContentEntry(imagePath, bytes);
+
+        IDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm.setId("dm_" + id);
+        model.getFolder(FolderType.DIAGRAMS).getElements().add(dm);
+
+        IDiagramModelImage image = IArchimateFactory.eINSTANCE.createDiagramModelImage();
+        image.setId(id);
+        image.setImagePath(imagePath);
+        dm.getChildren().add(image);
+        return image;
+    }
+
+    private int countFiles(File folder) {
+        int count = 0;
+        for(File file : folder.listFiles()) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+        return count;
+    }
+
+    private File getElementFile(File localGitFolder, IArchimateElement element) {
+        return new File(localGitFolder, "model/business/" + element.getClass().getSimpleName() + "_" + element.getId() + ".xml");
+    }
+
+    private File getTempTestsFolder() {
+        File file = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.tests.tmp");
+        file.deleteOnExit();
+        file.mkdirs();
+        return file;
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IFolder;
+
+
+/**
+ * Times the import of a synthetic model of about 50,000 Grafico files in nested folders.
+ * Not part of the test suite, run as a Java application and compare the times before and after a change.
+ */
+@SuppressWarnings("nls")
+public class GraficoModelImporterBenchmark {
+
+    private static final int ELEMENTS = 25000;
+    private static final int ELEMENTS_PER_FOLDER = 100;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        File localGitFolder = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.benchmark.tmp");
+        FileUtils.deleteFolder(localGitFolder);
+
+        try {
+            new GraficoModelExporter().exportModelToLocalGitRepository(createModel(), localGitFolder);
+
+            for(int threads : new int[] { 1, Runtime.getRuntime().availableProcessors() }) {
+                // First run warms up the JVM and the file system cache
+                for(int run = 0; run <= RUNS; run++) {
+                    GraficoModelImporter importer = new GraficoModelImporter();
+                    importer.setThreadCount(threads);
+
+                    long start = System.nanoTime();
+                    importer.importLocalGitRepositoryAsModel(localGitFolder);
+                    long time = (System.nanoTime() - start) / 1000000;
+
+                    if(run > 0) {
+                        System.out.println("Threads: " + threads + ", run " + run + ": " + time + " ms");
+                    }
+                }
+            }
+        }
+        finally {
+            FileUtils.deleteFolder(localGitFolder);
+        }
+    }
+
+    private static IArchimateModel createModel() {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setName("Benchmark Model");
+
+        IFolder elementsFolder = null;
+        IFolder relationsFolder = null;
+        IArchimateElement previous = null;
+
+        for(int i = 0; i < ELEMENTS; i++) {
+            if(i % ELEMENTS_PER_FOLDER == 0) {
+                elementsFolder = createFolder(model.getFolder(FolderType.BUSINESS), i);
+                relationsFolder = createFolder(model.getFolder(FolderType.RELATIONS), i);
+            }
+
+            IArchimateElement actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+            actor.setName("Actor " + i);
+            elementsFolder.getElements().add(actor);
+
+            if(previous != null) {
+                IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+                relation.setSource(previous);
+                relation.setTarget(actor);
+                relationsFolder.getElements().add(relation);
+            }
+            previous = actor;
+        }
+
+        return model;
+    }
+
+    private static IFolder createFolder(IFolder parent, int index) {
+        IFolder folder = IArchimateFactory.eINSTANCE.createFolder();
+        folder.setName("Folder " + index);
+        folder.setType(FolderType.USER);
+        parent.getFolders().add(folder);
+        return folder;
+    }
+
+}
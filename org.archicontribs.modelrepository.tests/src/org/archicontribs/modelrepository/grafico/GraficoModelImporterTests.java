@@ -0,0 +1,341 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.archicontribs.modelrepository.ModelHelper.addBusinessActor;
+import static org.archicontribs.modelrepository.ModelHelper.assertSameContents;
+import static org.archicontribs.modelrepository.ModelHelper.createModel;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.model.IArchiveManager;
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModel;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelImage;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IProperty;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelImporterTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelImporterTests.class);
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        GraficoRepositoryRegistry.closeAll();
+        FileUtils.deleteFolder(getTempTestsFolder());
+    }
+
+    @Test
+    public void importModel_ParallelImportIsSameAsSequential() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        new GraficoModelExporter().exportModelToLocalGitRepository(createTestModel(), localGitFolder);
+
+        GraficoModelImporter importer = new GraficoModelImporter();
+        importer.setThreadCount(1);
+        IArchimateModel sequentialModel = importer.importLocalGitRepositoryAsModel(localGitFolder);
+        assertNull(importer.getResolveStatus());
+
+        importer = new GraficoModelImporter();
+        importer.setThreadCount(4);
+        IArchimateModel parallelModel = importer.importLocalGitRepositoryAsModel(localGitFolder);
+        assertNull(importer.getResolveStatus());
+
+        assertEquals(50, parallelModel.getFolder(FolderType.BUSINESS).getElements().size());
+        assertEquals(1, parallelModel.getFolder(FolderType.BUSINESS).getFolders().size());
+
+        IDiagramModel dm = (IDiagramModel)parallelModel.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+        IDiagramModelArchimateObject dmo = (IDiagramModelArchimateObject)dm.getChildren().get(0);
+        assertEquals("actor0", dmo.getArchimateElement().getId());
+        assertEquals(parallelModel.getFolder(FolderType.BUSINESS), dmo.getArchimateElement().eContainer());
+
+        // Saving both models again gives the same files
+        File sequentialFolder = new File(getTempTestsFolder(), "sequential");
+        new GraficoModelExporter().exportModelToLocalGitRepository(sequentialModel, sequentialFolder);
+        File parallelFolder = new File(getTempTestsFolder(), "parallel");
+        new GraficoModelExporter().exportModelToLocalGitRepository(parallelModel, parallelFolder);
+
+        assertSameContents(new File(localGitFolder, "model"), new File(sequentialFolder, "model"));
+        assertSameContents(new File(localGitFolder, "model"), new File(parallelFolder, "model"));
+    }
+
+    @Test
+    public void importModel_RecordsPhaseMetrics() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        new GraficoModelExporter().exportModelToLocalGitRepository(createTestModel(), localGitFolder);
+
+        GraficoModelImporter importer = new GraficoModelImporter();
+        importer.setThreadCount(2);
+        importer.importLocalGitRepositoryAsModel(localGitFolder);
+
+        GraficoMetrics metrics = importer.getMetrics();
+        assertNotNull(metrics.getPhase("collectFiles"));
+        assertNotNull(metrics.getPhase("resolveProxies"));
+
+        // Model, folders, 50 actors, 49 relations and the diagram model
+        GraficoMetrics.Phase load = metrics.getPhase("load");
+        assertTrue(load.getFileCount() > 100);
+        assertTrue(load.getBytes() > 0);
+        assertTrue(load.getTime() >= 0);
+    }
+
+    @Test
+    public void importModel_UsesSnapshotForSameKey() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        GitHelper.createNewRepository(localGitFolder).close();
+        new GraficoModelExporter().exportModelToLocalGitRepository(createTestModel(), localGitFolder);
+
+        GraficoModelImporter importer = new GraficoModelImporter();
+        IArchimateModel model = importer.importLocalGitRepositoryAsModel(localGitFolder, "tree1");
+        assertEquals(50, model.getFolder(FolderType.BUSINESS).getElements().size());
+
+        // Files changed without changing the key are not read again
+        File actorFile = new File(localGitFolder, "model/business/" + GraficoResource.getElementFileName(model.getFolder(FolderType.BUSINESS).getElements().get(0)));
+        assertTrue(actorFile.delete());
+
+        importer = new GraficoModelImporter();
+        model = importer.importLocalGitRepositoryAsModel(localGitFolder, "tree1");
+        assertNull(importer.getResolveStatus());
+        assertEquals(50, model.getFolder(FolderType.BUSINESS).getElements().size());
+        assertNull(model.eResource());
+
+        // References are kept
+        IDiagramModel dm = (IDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+        IDiagramModelArchimateObject dmo = (IDiagramModelArchimateObject)dm.getChildren().get(0);
+        assertEquals(model.getFolder(FolderType.BUSINESS), dmo.getArchimateElement().eContainer());
+
+        // Another key reads the files
+        importer = new GraficoModelImporter();
+        model = importer.importLocalGitRepositoryAsModel(localGitFolder, "tree2");
+        assertEquals(49, model.getFolder(FolderType.BUSINESS).getElements().size());
+    }
+
+    @Test
+    public void importModelFromCommit_ReadsModelAsCommitted() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        PersonIdent personIdent = new PersonIdent("Test", "Test");
+        IArchimateModel model = createTestModel();
+        
+        try(Repository repo = GitHelper.createNewRepository(localGitFolder)) {
+            RevCommit commit1 = GraficoUtils.commitModelToObjectDatabase(model, localGitFolder, personIdent, "Message");
+            
+            ((IArchimateElement)model.getFolder(FolderType.BUSINESS).getElements().get(0)).setName("Changed");
+            model.getFolder(FolderType.BUSINESS).getFolders().clear();
+            GraficoUtils.commitModelToObjectDatabase(model, localGitFolder, personIdent, "Message");
+            
+            // Working tree files are not used
+            FileUtils.deleteFolder(new File(localGitFolder, "model"));
+            
+            GraficoModelImporter importer = new GraficoModelImporter();
+            IArchimateModel oldModel = importer.importModelFromCommit(repo, commit1);
+            assertNull(importer.getResolveStatus());
+            assertNull(oldModel.eResource());
+            assertEquals(50, oldModel.getFolder(FolderType.BUSINESS).getElements().size());
+            assertEquals(1, oldModel.getFolder(FolderType.BUSINESS).getFolders().size());
+            
+            IDiagramModel dm = (IDiagramModel)oldModel.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+            IDiagramModelArchimateObject dmo = (IDiagramModelArchimateObject)dm.getChildren().get(0);
+            assertEquals("Actor 0", dmo.getArchimateElement().getName());
+            assertEquals(oldModel.getFolder(FolderType.BUSINESS), dmo.getArchimateElement().eContainer());
+            
+            IArchimateModel newModel = importer.importModelFromCommit(localGitFolder, "HEAD");
+            assertEquals(0, newModel.getFolder(FolderType.BUSINESS).getFolders().size());
+            dm = (IDiagramModel)newModel.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+            dmo = (IDiagramModelArchimateObject)dm.getChildren().get(0);
+            assertEquals("Changed", dmo.getArchimateElement().getName());
+        }
+    }
+    
+    @Test
+    public void importModel_LazyDiagramsAreLoadedWhenNeeded() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        new GraficoModelExporter().exportModelToLocalGitRepository(createTestModel(), localGitFolder);
+
+        GraficoModelImporter importer = new GraficoModelImporter();
+        importer.setLazyDiagramLoading(true);
+        IArchimateModel model = importer.importLocalGitRepositoryAsModel(localGitFolder);
+        assertNull(importer.getResolveStatus());
+        GraficoChangeRecorder recorder = GraficoChangeRecorder.attach(model);
+
+        IDiagramModel dm = (IDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+        IArchimateElement actor = (IArchimateElement)model.getFolder(FolderType.BUSINESS).getElements().get(0);
+        assertEquals("dm1", dm.getId());
+        assertFalse(GraficoLazyDiagram.isLoaded(dm));
+        assertTrue(dm.getChildren().isEmpty());
+        assertTrue(actor.getReferencingDiagramObjects().isEmpty());
+
+        GraficoLazyDiagram.load(dm);
+        assertTrue(GraficoLazyDiagram.isLoaded(dm));
+        assertFalse(recorder.hasChanges());
+
+        IDiagramModelArchimateObject dmo = (IDiagramModelArchimateObject)dm.getChildren().get(0);
+        assertEquals(actor, dmo.getArchimateElement());
+        assertTrue(actor.getReferencingDiagramObjects().contains(dmo));
+
+        // Diagram models that are not loaded are loaded to be saved
+        importer = new GraficoModelImporter();
+        importer.setLazyDiagramLoading(true);
+        model = importer.importLocalGitRepositoryAsModel(localGitFolder);
+        assertEquals(1, GraficoLazyDiagram.getUnloadedDiagramModels(model).size());
+
+        File lazyFolder = new File(getTempTestsFolder(), "lazy");
+        new GraficoModelExporter().exportModelToLocalGitRepository(model, lazyFolder);
+        assertTrue(GraficoLazyDiagram.getUnloadedDiagramModels(model).isEmpty());
+        assertSameContents(new File(localGitFolder, "model"), new File(lazyFolder, "model"));
+    }
+
+    @Test
+    public void importModel_LazyDiagramsKeepChangesMadeBeforeLoading() throws Exception {
+        IArchimateModel exportedModel = createTestModel();
+        IDiagramModel exportedDm = (IDiagramModel)exportedModel.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+        exportedDm.setName("View");
+        IProperty property = IArchimateFactory.eINSTANCE.createProperty();
+        property.setKey("Saved");
+        exportedDm.getProperties().add(property);
+
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        new GraficoModelExporter().exportModelToLocalGitRepository(exportedModel, localGitFolder);
+
+        GraficoModelImporter importer = new GraficoModelImporter();
+        importer.setLazyDiagramLoading(true);
+        IArchimateModel model = importer.importLocalGitRepositoryAsModel(localGitFolder);
+
+        // Changed while it is not loaded
+        IDiagramModel dm = (IDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+        assertEquals("View", dm.getName());
+        dm.setName("Renamed");
+        property = IArchimateFactory.eINSTANCE.createProperty();
+        property.setKey("Added");
+        dm.getProperties().add(property);
+
+        GraficoLazyDiagram.load(dm);
+        assertEquals("Renamed", dm.getName());
+        assertEquals(2, dm.getProperties().size());
+        assertEquals("Saved", dm.getProperties().get(0).getKey());
+        assertEquals("Added", dm.getProperties().get(1).getKey());
+        assertEquals(1, dm.getChildren().size());
+    }
+
+    @Test
+    public void importModel_LazyDiagramObjectsOfDeletedConceptsAreDeleted() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        new GraficoModelExporter().exportModelToLocalGitRepository(createTestModel(), localGitFolder);
+
+        GraficoModelImporter importer = new GraficoModelImporter();
+        importer.setLazyDiagramLoading(true);
+        IArchimateModel model = importer.importLocalGitRepositoryAsModel(localGitFolder);
+        GraficoChangeRecorder recorder = GraficoChangeRecorder.attach(model);
+
+        // Deleted while its diagram model is not loaded
+        model.getFolder(FolderType.BUSINESS).getElements().remove(0);
+        recorder.reset();
+
+        IDiagramModel dm = (IDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+        GraficoLazyDiagram.load(dm);
+        assertTrue(dm.getChildren().isEmpty());
+        assertTrue(recorder.getDirtyObjects().contains(dm));
+    }
+
+    @Test
+    public void importModel_LazyImagesAreReadFromTheirFiles() throws Exception {
+        IArchimateModel model = createTestModel();
+        byte[] bytes = { 1, 2, 3, 4 };
+        String imagePath = IArchiveManager.FACTORY.createArchiveManager(model).addByteContentEntry("images/lazy.png", bytes);
+
+        IDiagramModelImage image = IArchimateFactory.eINSTANCE.createDiagramModelImage();
+        image.setId("image1");
+        image.setImagePath(imagePath);
+        ((IDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0)).getChildren().add(image);
+
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        new GraficoModelExporter().exportModelToLocalGitRepository(model, localGitFolder);
+
+        GraficoModelImporter importer = new GraficoModelImporter();
+        importer.setLazyImageLoading(true);
+        model = importer.importLocalGitRepositoryAsModel(localGitFolder);
+        assertArrayEquals(bytes, GraficoLazyImages.getBytes(model, imagePath));
+
+        // Images that are not loaded are saved from their files
+        File lazyFolder = new File(getTempTestsFolder(), "lazy");
+        new GraficoModelExporter().exportModelToLocalGitRepository(model, lazyFolder);
+        assertSameContents(new File(localGitFolder, "images"), new File(lazyFolder, "images"));
+
+        GraficoLazyImages.load((IDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0));
+        assertArrayEquals(bytes, IArchiveManager.FACTORY.createArchiveManager(model).getBytesFromEntry(imagePath));
+    }
+
+    // Support
+
+    private IArchimateModel createTestModel() {
+        IArchimateModel model = createModel();
+
+        IArchimateElement previous = null;
+        for(int i = 0; i < 50; i++) {
+            IArchimateElement actor = addBusinessActor(model, "actor" + i);
+            actor.setName("Actor " + i);
+
+            if(previous != null) {
+                IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+                relation.setId("relation" + i);
+                relation.setSource(previous);
+                relation.setTarget(actor);
+                model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+            }
+            previous = actor;
+        }
+
+        IFolder folder = IArchimateFactory.eINSTANCE.createFolder();
+        folder.setId("folder1");
+        folder.setName("Folder");
+        folder.setType(FolderType.USER);
+        model.getFolder(FolderType.BUSINESS).getFolders().add(folder);
+
+        IDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm.setId("dm1");
+        model.getFolder(FolderType.DIAGRAMS).getElements().add(dm);
+
+        IDiagramModelArchimateObject dmo = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo.setId("dmo1");
+        dmo.setArchimateElement((IArchimateElement)model.getFolder(FolderType.BUSINESS).getElements().get(0));
+        dmo.setBounds(10, 10, 120, 55);
+        dm.getChildren().add(dmo);
+
+        return model;
+    }
+
+    private File getTempTestsFolder() {
+        File file = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.tests.tmp");
+        file.deleteOnExit();
+        file.mkdirs();
+        return file;
+    }
+
+}
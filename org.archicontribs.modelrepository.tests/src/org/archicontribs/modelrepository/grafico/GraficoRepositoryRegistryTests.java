@@ -0,0 +1,147 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoRepositoryRegistryTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoRepositoryRegistryTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        GraficoRepositoryRegistry.closeAll();
+        FileUtils.deleteFolder(getTempTestsFolder());
+    }
+    
+    @Test
+    public void open_SharesRepository() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        GitHelper.createNewRepository(localGitFolder).close();
+        
+        try(Git git1 = GraficoRepositoryRegistry.open(localGitFolder); Git git2 = GraficoRepositoryRegistry.open(new File(localGitFolder, "../testRepo"))) {
+            assertSame(git1.getRepository(), git2.getRepository());
+        }
+        
+        // Still open when not used
+        GraficoRepositoryRegistry.open(localGitFolder).close();
+        assertEquals(1, GraficoRepositoryRegistry.getOpenCount());
+    }
+    
+    @Test
+    public void closeAll_ClosesUnusedRepositories() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        GitHelper.createNewRepository(localGitFolder).close();
+        
+        Repository repository;
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            repository = git.getRepository();
+        }
+        
+        GraficoRepositoryRegistry.closeAll();
+        assertEquals(0, GraficoRepositoryRegistry.getOpenCount());
+        
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            assertNotSame(repository, git.getRepository());
+        }
+    }
+    
+    @Test
+    public void closeAll_KeepsUsedRepositories() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        GitHelper.createNewRepository(localGitFolder).close();
+        
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            GraficoRepositoryRegistry.closeAll();
+            assertEquals(1, GraficoRepositoryRegistry.getOpenCount());
+            
+            // The Repository is still usable
+            git.getRepository().resolve("HEAD");
+        }
+    }
+    
+    @Test
+    public void closeIdle_KeepsRecentlyUsedRepositories() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        GitHelper.createNewRepository(localGitFolder).close();
+        
+        GraficoRepositoryRegistry.open(localGitFolder).close();
+        
+        GraficoRepositoryRegistry.closeIdle(GraficoRepositoryRegistry.IDLE_TIME);
+        assertEquals(1, GraficoRepositoryRegistry.getOpenCount());
+    }
+    
+    @Test
+    public void openUnshared_OpenDoesNotWaitForIt() throws Exception {
+        final File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        GitHelper.createNewRepository(localGitFolder).close();
+        
+        // Not while it is used
+        Git git = GraficoRepositoryRegistry.open(localGitFolder);
+        assertNull(GraficoRepositoryRegistry.openUnshared(localGitFolder));
+        git.close();
+        
+        try(Git unsharedGit = GraficoRepositoryRegistry.openUnshared(localGitFolder)) {
+            assertNotNull(unsharedGit);
+            
+            final Repository[] repository = new Repository[1];
+            
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try(Git sharedGit = GraficoRepositoryRegistry.open(localGitFolder)) {
+                        repository[0] = sharedGit.getRepository();
+                    }
+                    catch(IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            };
+            thread.start();
+            
+            // Opened while the unshared Repository is still used
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+            assertNotNull(repository[0]);
+            assertNotSame(unsharedGit.getRepository(), repository[0]);
+        }
+    }
+    
+    @Test(expected=IOException.class)
+    public void open_NotARepository() throws Exception {
+        GraficoRepositoryRegistry.open(getTempTestsFolder()).close();
+    }
+    
+    private File getTempTestsFolder() {
+        File file = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.tests.tmp");
+        file.deleteOnExit();
+        file.mkdirs();
+        return file;
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.authentication.SimpleCredentialsStorage;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RepositoryState;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoSyncJobTests {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoSyncJobTests.class);
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        GraficoRepositoryRegistry.closeAll();
+        FileUtils.deleteFolder(getTempTestsFolder());
+    }
+
+    @Test
+    public void refresh_SkippedWithoutCredentials() throws Exception {
+        File remoteGitFolder = new File(getTempTestsFolder(), "remoteRepo");
+        File localGitFolder = new File(getTempTestsFolder(), "localRepo");
+
+        try(Git remoteGit = Git.init().setDirectory(remoteGitFolder).call()) {
+            commitFile(remoteGitFolder, remoteGit, "Remote 1");
+            GraficoUtils.cloneModel(localGitFolder, remoteGitFolder.toURI().toString(), "", "", org.eclipse.jgit.lib.NullProgressMonitor.INSTANCE);
+            ObjectId headId = GraficoUtils.getHeadCommitId(localGitFolder);
+
+            commitFile(remoteGitFolder, remoteGit, "Remote 2");
+
+            IStatus status = runJob(localGitFolder, false);
+            assertEquals(IStatus.WARNING, status.getSeverity());
+            assertEquals(headId, GraficoUtils.getHeadCommitId(localGitFolder));
+        }
+    }
+
+    @Test
+    public void refresh_FastForward() throws Exception {
+        File remoteGitFolder = new File(getTempTestsFolder(), "remoteRepo");
+        File localGitFolder = new File(getTempTestsFolder(), "localRepo");
+
+        try(Git remoteGit = Git.init().setDirectory(remoteGitFolder).call()) {
+            commitFile(remoteGitFolder, remoteGit, "Remote 1");
+            GraficoUtils.cloneModel(localGitFolder, remoteGitFolder.toURI().toString(), "", "", org.eclipse.jgit.lib.NullProgressMonitor.INSTANCE);
+            new SimpleCredentialsStorage(localGitFolder).store("user", "password");
+
+            RevCommit remoteCommit = commitFile(remoteGitFolder, remoteGit, "Remote 2");
+
+            IStatus status = runJob(localGitFolder, false);
+            assertTrue(status.isOK());
+            assertEquals(remoteCommit.getId(), GraficoUtils.getHeadCommitId(localGitFolder));
+            assertEquals("Remote 2", GraficoUtils.getWorkingTreeFileContents(localGitFolder, "test.txt").trim());
+        }
+    }
+
+    @Test
+    public void refresh_ConflictIsReset() throws Exception {
+        File remoteGitFolder = new File(getTempTestsFolder(), "remoteRepo");
+        File localGitFolder = new File(getTempTestsFolder(), "localRepo");
+
+        try(Git remoteGit = Git.init().setDirectory(remoteGitFolder).call()) {
+            commitFile(remoteGitFolder, remoteGit, "Remote 1");
+            GraficoUtils.cloneModel(localGitFolder, remoteGitFolder.toURI().toString(), "", "", org.eclipse.jgit.lib.NullProgressMonitor.INSTANCE);
+            new SimpleCredentialsStorage(localGitFolder).store("user", "password");
+
+            // Both change the same file
+            commitFile(remoteGitFolder, remoteGit, "Remote 2");
+            RevCommit localCommit;
+            try(Git localGit = Git.open(localGitFolder)) {
+                localCommit = commitFile(localGitFolder, localGit, "Local 2");
+            }
+
+            IStatus status = runJob(localGitFolder, false);
+            assertEquals(IStatus.WARNING, status.getSeverity());
+
+            // Back to the local commit, without a merge in progress
+            assertEquals(localCommit.getId(), GraficoUtils.getHeadCommitId(localGitFolder));
+            assertEquals("Local 2", GraficoUtils.getWorkingTreeFileContents(localGitFolder, "test.txt").trim());
+            try(Git localGit = Git.open(localGitFolder)) {
+                assertEquals(RepositoryState.SAFE, localGit.getRepository().getRepositoryState());
+                assertTrue(localGit.status().call().isClean());
+            }
+        }
+    }
+
+    // Support
+
+    private IStatus runJob(File localGitFolder, boolean publish) {
+        // No model can be open without a shell
+        return new GraficoSyncJob(localGitFolder, publish, null).run(new NullProgressMonitor());
+    }
+
+    private RevCommit commitFile(File gitFolder, Git git, String contents) throws Exception {
+        try(FileWriter writer = new FileWriter(new File(gitFolder, "test.txt"))) {
+            writer.write(contents);
+        }
+        git.add().addFilepattern("test.txt").call();
+        return git.commit().setAuthor("Test", "Test").setMessage(contents).call();
+    }
+
+    private File getTempTestsFolder() {
+        File file = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.tests.tmp");
+        file.deleteOnExit();
+        file.mkdirs();
+        return file;
+    }
+
+}
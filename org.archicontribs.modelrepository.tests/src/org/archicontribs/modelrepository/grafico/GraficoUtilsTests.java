@@ -5,9 +5,11 @@
  */
 package org.archicontribs.modelrepository.grafico;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -15,18 +17,37 @@ import java.io.FileWriter;
 import java.io.IOException;
 
 import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.emf.ecore.EObject;
 import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.MergeResult.MergeStatus;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryState;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.archimatetool.editor.model.IEditorModelManager;
 import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
 import com.archimatetool.model.IArchimateFactory;
 import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IFolder;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -44,6 +65,7 @@ public class GraficoUtilsTests {
     
     @After
     public void runOnceAfterEachTest() throws IOException {
+        GraficoRepositoryRegistry.closeAll();
         FileUtils.deleteFolder(getTempTestsFolder());
     }
     
@@ -174,6 +196,520 @@ public class GraficoUtilsTests {
         }
     }
     
+    @Test
+    public void getAheadBehindCounts_MergeFromRemote() throws Exception {
+        File remoteGitFolder = new File(getTempTestsFolder(), "remoteRepo");
+        File localGitFolder = new File(getTempTestsFolder(), "localRepo");
+        
+        try(Git remoteGit = Git.init().setDirectory(remoteGitFolder).call()) {
+            remoteGit.commit().setAuthor("Test", "Test").setMessage("Message").call();
+            
+            GraficoUtils.cloneModel(localGitFolder, remoteGitFolder.toURI().toString(), "", "", NullProgressMonitor.INSTANCE);
+            assertArrayEquals(new int[] { 0, 0 }, GraficoUtils.getAheadBehindCounts(localGitFolder));
+            
+            // Fetched commits are counted but not merged
+            remoteGit.commit().setAuthor("Test", "Test").setMessage("Message").call();
+            GraficoUtils.fetchFromRemote(localGitFolder, "", "", NullProgressMonitor.INSTANCE);
+            assertArrayEquals(new int[] { 0, 1 }, GraficoUtils.getAheadBehindCounts(localGitFolder));
+            
+            MergeResult mergeResult = GraficoUtils.mergeFromRemote(localGitFolder);
+            assertEquals(MergeStatus.FAST_FORWARD, mergeResult.getMergeStatus());
+            assertEquals(remoteGit.getRepository().resolve("HEAD"), GraficoUtils.getHeadCommitId(localGitFolder));
+            
+            try(Git localGit = Git.open(localGitFolder)) {
+                localGit.commit().setAuthor("Test", "Test").setMessage("Message").call();
+            }
+            assertArrayEquals(new int[] { 1, 0 }, GraficoUtils.getAheadBehindCounts(localGitFolder));
+        }
+    }
+    
+    @Test
+    public void isRemoteChanged() throws Exception {
+        File remoteGitFolder = new File(getTempTestsFolder(), "remoteRepo");
+        File localGitFolder = new File(getTempTestsFolder(), "localRepo");
+        
+        try(Git remoteGit = Git.init().setDirectory(remoteGitFolder).call()) {
+            remoteGit.commit().setAuthor("Test", "Test").setMessage("Message").call();
+            
+            GraficoUtils.cloneModel(localGitFolder, remoteGitFolder.toURI().toString(), "", "", NullProgressMonitor.INSTANCE);
+            assertFalse(GraficoUtils.isRemoteChanged(localGitFolder, "", ""));
+            
+            // Local commits only
+            try(Git localGit = Git.open(localGitFolder)) {
+                localGit.commit().setAuthor("Test", "Test").setMessage("Local").call();
+            }
+            assertFalse(GraficoUtils.isRemoteChanged(localGitFolder, "", ""));
+            
+            // Remote commit not fetched
+            remoteGit.commit().setAuthor("Test", "Test").setMessage("Remote").call();
+            assertTrue(GraficoUtils.isRemoteChanged(localGitFolder, "", ""));
+            
+            // Fetched but not merged
+            GraficoUtils.fetchFromRemote(localGitFolder, "", "", NullProgressMonitor.INSTANCE);
+            assertTrue(GraficoUtils.isRemoteChanged(localGitFolder, "", ""));
+            
+            GraficoUtils.mergeFromRemote(localGitFolder);
+            assertFalse(GraficoUtils.isRemoteChanged(localGitFolder, "", ""));
+        }
+    }
+    
+    @Test
+    public void cloneModel_SingleBranch() throws Exception {
+        File remoteGitFolder = new File(getTempTestsFolder(), "remoteRepo");
+        File localGitFolder = new File(getTempTestsFolder(), "localRepo");
+        
+        try(Git remoteGit = Git.init().setDirectory(remoteGitFolder).call()) {
+            remoteGit.commit().setAuthor("Test", "Test").setMessage("Message").call();
+            
+            // A branch with a tag that is not on master
+            remoteGit.checkout().setCreateBranch(true).setName("feature").call();
+            RevCommit featureCommit = remoteGit.commit().setAuthor("Test", "Test").setMessage("Feature").call();
+            remoteGit.tag().setName("featureTag").setObjectId(featureCommit).call();
+            remoteGit.checkout().setName("master").call();
+            
+            File file = new File(remoteGitFolder, "test.txt");
+            try(FileWriter fw = new FileWriter(file)) {
+                fw.write("Hello World");
+            }
+            remoteGit.add().addFilepattern("test.txt").call();
+            remoteGit.commit().setAuthor("Test", "Test").setMessage("Message").call();
+            
+            GraficoUtils.cloneModel(localGitFolder, remoteGitFolder.toURI().toString(), "", "", "master", NullProgressMonitor.INSTANCE);
+            
+            try(Git localGit = Git.open(localGitFolder)) {
+                Repository repository = localGit.getRepository();
+                assertEquals("refs/heads/master", repository.getFullBranch());
+                assertEquals(remoteGit.getRepository().resolve("master"), repository.resolve("HEAD"));
+                assertEquals(remoteGit.getRepository().resolve("master"), repository.resolve("origin/master"));
+                assertTrue(localGit.status().call().isClean());
+                assertTrue(new File(localGitFolder, "test.txt").exists());
+                
+                // Nothing of the other branch
+                assertNull(repository.exactRef("refs/remotes/origin/feature"));
+                assertNull(repository.exactRef("refs/tags/featureTag"));
+                assertFalse(repository.hasObject(featureCommit));
+                
+                // Later fetches stay on master
+                remoteGit.checkout().setName("feature").call();
+                remoteGit.commit().setAuthor("Test", "Test").setMessage("Feature").call();
+                GraficoUtils.fetchFromRemote(localGitFolder, "", "", NullProgressMonitor.INSTANCE);
+                assertNull(repository.exactRef("refs/remotes/origin/feature"));
+                assertFalse(repository.hasObject(featureCommit));
+            }
+        }
+    }
+    
+    @Test
+    public void commitModelToObjectDatabase_SameCommitAsWorkingTree() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model1");
+        IArchimateElement actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setId("actor1");
+        actor.setName("Actor");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor);
+        
+        PersonIdent personIdent = new PersonIdent("Test", "Test");
+        
+        File workingTreeFolder = new File(getTempTestsFolder(), "workingTree");
+        File objectDatabaseFolder = new File(getTempTestsFolder(), "objectDatabase");
+        
+        GitHelper.createNewRepository(workingTreeFolder).close();
+        
+        try(Repository repo2 = GitHelper.createNewRepository(objectDatabaseFolder)) {
+            RevCommit commit1 = GraficoUtils.commitModel(model, workingTreeFolder, personIdent, "Message");
+            RevCommit commit2 = GraficoUtils.commitModelToObjectDatabase(model, objectDatabaseFolder, personIdent, "Message");
+            assertEquals(commit1.getTree(), commit2.getTree());
+            
+            // Working tree and index are in sync with the commit
+            assertTrue(Git.wrap(repo2).status().call().isClean());
+            assertTrue(new File(objectDatabaseFolder, "model/business/folder.xml").exists());
+            
+            // Nothing changed
+            assertNull(GraficoUtils.commitModelToObjectDatabase(model, objectDatabaseFolder, personIdent, "Message"));
+            
+            // Removed element
+            model.getFolder(FolderType.BUSINESS).getElements().remove(actor);
+            commit1 = GraficoUtils.commitModel(model, workingTreeFolder, personIdent, "Message");
+            commit2 = GraficoUtils.commitModelToObjectDatabase(model, objectDatabaseFolder, personIdent, "Message");
+            assertEquals(commit1.getTree(), commit2.getTree());
+            assertEquals(commit2.getId(), repo2.resolve("HEAD"));
+            assertTrue(Git.wrap(repo2).status().call().isClean());
+        }
+    }
+    
+    @Test
+    public void commitModelToObjectDatabase_FinishesMerge() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model1");
+        IArchimateElement actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setId("actor1");
+        actor.setName("Actor");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor);
+        
+        PersonIdent personIdent = new PersonIdent("Test", "Test");
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        String actorPath = "model/business/" + GraficoResource.getElementFileName(actor);
+        
+        try(Repository repo = GitHelper.createNewRepository(localGitFolder)) {
+            Git git = Git.wrap(repo);
+            GraficoUtils.commitModelToObjectDatabase(model, localGitFolder, personIdent, "Message");
+            GraficoChangeRecorder.attach(model);
+            
+            // Another branch changes the same file
+            git.checkout().setCreateBranch(true).setName("other").call();
+            try(FileWriter writer = new FileWriter(new File(localGitFolder, actorPath))) {
+                writer.write("Other");
+            }
+            git.add().addFilepattern(actorPath).call();
+            RevCommit otherCommit = git.commit().setAuthor(personIdent).setMessage("Other").call();
+            git.checkout().setName("master").call();
+            
+            actor.setName("Changed");
+            RevCommit commit = GraficoUtils.commitModelToObjectDatabase(model, localGitFolder, personIdent, "Message");
+            
+            MergeResult mergeResult = git.merge().include(otherCommit).call();
+            assertEquals(MergeStatus.CONFLICTING, mergeResult.getMergeStatus());
+            assertEquals(RepositoryState.MERGING, repo.getRepositoryState());
+            
+            // The model is the merge commit, even though it has not changed
+            RevCommit mergeCommit = GraficoUtils.commitModelToObjectDatabase(model, localGitFolder, personIdent, "Merge");
+            assertNotNull(mergeCommit);
+            assertEquals(2, mergeCommit.getParentCount());
+            assertEquals(commit, mergeCommit.getParent(0));
+            assertEquals(otherCommit, mergeCommit.getParent(1));
+            assertEquals(commit.getTree(), mergeCommit.getTree());
+            assertEquals(RepositoryState.SAFE, repo.getRepositoryState());
+            assertTrue(git.status().call().isClean());
+        }
+    }
+    
+    @Test
+    public void commitModelToObjectDatabase_KeepsFilesChangedOnDisk() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model1");
+        IArchimateElement actor1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor1.setId("actor1");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor1);
+        IArchimateElement actor2 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor2.setId("actor2");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor2);
+        
+        PersonIdent personIdent = new PersonIdent("Test", "Test");
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        String actor1Path = "model/business/" + GraficoResource.getElementFileName(actor1);
+        String actor2Path = "model/business/" + GraficoResource.getElementFileName(actor2);
+        
+        try(Repository repo = GitHelper.createNewRepository(localGitFolder)) {
+            assertNotNull(GraficoUtils.commitModelToObjectDatabase(model, localGitFolder, personIdent, "Message"));
+            GraficoChangeRecorder.attach(model);
+            
+            // A file the model does not change is edited on disk
+            try(FileWriter writer = new FileWriter(new File(localGitFolder, actor2Path))) {
+                writer.write("Edited");
+            }
+            
+            actor1.setName("Changed");
+            RevCommit commit = GraficoUtils.commitModelToObjectDatabase(model, localGitFolder, personIdent, "Message");
+            assertNotNull(commit);
+            assertTrue(GraficoUtils.getFileContents(localGitFolder, actor1Path, "HEAD").contains("Changed"));
+            assertFalse(GraficoUtils.getFileContents(localGitFolder, actor2Path, "HEAD").contains("Edited"));
+            
+            // The edit is kept and not committed
+            assertEquals("Edited", GraficoUtils.getWorkingTreeFileContents(localGitFolder, actor2Path).trim());
+            Status status = Git.wrap(repo).status().call();
+            assertEquals(1, status.getModified().size());
+            assertTrue(status.getModified().contains(actor2Path));
+            
+            // A file the model changes is edited on disk, so the commit goes through the index
+            try(FileWriter writer = new FileWriter(new File(localGitFolder, actor1Path))) {
+                writer.write("Edited");
+            }
+            actor1.setName("Changed again");
+            commit = GraficoUtils.commitModelToObjectDatabase(model, localGitFolder, personIdent, "Message");
+            assertNotNull(commit);
+            assertTrue(GraficoUtils.getFileContents(localGitFolder, actor1Path, "HEAD").contains("Changed again"));
+            assertFalse(GraficoUtils.getFileContents(localGitFolder, actor2Path, "HEAD").contains("Edited"));
+            
+            status = Git.wrap(repo).status().call();
+            assertEquals(1, status.getModified().size());
+            assertTrue(status.getModified().contains(actor2Path));
+        }
+    }
+    
+    @Test
+    public void hasLocalChanges_LooksAtChangedFilesOnly() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        
+        try(Repository repo = GitHelper.createNewRepository(localGitFolder)) {
+            Git git = Git.wrap(repo);
+            
+            File changedFile = new File(localGitFolder, "model/changed.xml");
+            File sameFile = new File(localGitFolder, "model/same.xml");
+            File addedFile = new File(localGitFolder, "model/added.xml");
+            changedFile.getParentFile().mkdirs();
+            for(File file : new File[] { changedFile, sameFile }) {
+                try(FileWriter writer = new FileWriter(file)) {
+                    writer.write(file.getName());
+                }
+            }
+            git.add().addFilepattern(".").call();
+            RevCommit commit = git.commit().setAuthor("Test", "Test").setMessage("Commit").call();
+            
+            // The new tree changes one file and adds another
+            DirCache newTree = DirCache.newInCore();
+            DirCacheBuilder builder = newTree.builder();
+            try(ObjectInserter inserter = repo.newObjectInserter()) {
+                for(String path : new String[] { "model/changed.xml", "model/added.xml" }) {
+                    DirCacheEntry entry = new DirCacheEntry(path);
+                    entry.setFileMode(FileMode.REGULAR_FILE);
+                    entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, Constants.encode("Changed")));
+                    builder.add(entry);
+                }
+                inserter.flush();
+            }
+            DirCacheEntry sameEntry = new DirCacheEntry("model/same.xml");
+            sameEntry.setFileMode(FileMode.REGULAR_FILE);
+            sameEntry.setObjectId(TreeWalk.forPath(repo, "model/same.xml", commit.getTree()).getObjectId(0));
+            builder.add(sameEntry);
+            builder.finish();
+            
+            assertFalse(GraficoUtils.hasLocalChanges(repo, commit.getTree(), newTree));
+            
+            // Files the new tree does not change can be edited
+            try(FileWriter writer = new FileWriter(sameFile)) {
+                writer.write("Edited");
+            }
+            assertFalse(GraficoUtils.hasLocalChanges(repo, commit.getTree(), newTree));
+            
+            // Edited, then written back
+            try(FileWriter writer = new FileWriter(changedFile)) {
+                writer.write("Edited");
+            }
+            assertTrue(GraficoUtils.hasLocalChanges(repo, commit.getTree(), newTree));
+            try(FileWriter writer = new FileWriter(changedFile)) {
+                writer.write(changedFile.getName());
+            }
+            assertFalse(GraficoUtils.hasLocalChanges(repo, commit.getTree(), newTree));
+            
+            // Deleted
+            changedFile.delete();
+            assertTrue(GraficoUtils.hasLocalChanges(repo, commit.getTree(), newTree));
+            git.checkout().addPath("model/changed.xml").call();
+            assertFalse(GraficoUtils.hasLocalChanges(repo, commit.getTree(), newTree));
+            
+            // A file that is not committed is in the way
+            try(FileWriter writer = new FileWriter(addedFile)) {
+                writer.write("Untracked");
+            }
+            assertTrue(GraficoUtils.hasLocalChanges(repo, commit.getTree(), newTree));
+            addedFile.delete();
+            
+            // Staged
+            try(FileWriter writer = new FileWriter(changedFile)) {
+                writer.write("Staged");
+            }
+            git.add().addFilepattern("model/changed.xml").call();
+            assertTrue(GraficoUtils.hasLocalChanges(repo, commit.getTree(), newTree));
+        }
+    }
+    
+    @Test
+    public void checkoutChanges_OnlyTouchesChangedFiles() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        
+        try(Repository repo = GitHelper.createNewRepository(localGitFolder)) {
+            Git git = Git.wrap(repo);
+            
+            File changedFile = new File(localGitFolder, "model/changed.xml");
+            File deletedFile = new File(localGitFolder, "model/folder/deleted.xml");
+            File sameFile = new File(localGitFolder, "model/same.xml");
+            deletedFile.getParentFile().mkdirs();
+            for(File file : new File[] { changedFile, deletedFile, sameFile }) {
+                try(FileWriter writer = new FileWriter(file)) {
+                    writer.write(file.getName());
+                }
+            }
+            git.add().addFilepattern(".").call();
+            RevCommit commit1 = git.commit().setAuthor("Test", "Test").setMessage("Commit 1").call();
+            
+            try(FileWriter writer = new FileWriter(changedFile)) {
+                writer.write("Changed");
+            }
+            File addedFile = new File(localGitFolder, "model/added.xml");
+            try(FileWriter writer = new FileWriter(addedFile)) {
+                writer.write("Added");
+            }
+            git.rm().addFilepattern("model/folder/deleted.xml").call();
+            git.add().addFilepattern(".").call();
+            RevCommit commit2 = git.commit().setAuthor("Test", "Test").setMessage("Commit 2").call();
+            
+            // Back to the first commit, with a file changed in the working tree
+            git.reset().setRef(commit1.getName()).setMode(ResetType.HARD).call();
+            try(FileWriter writer = new FileWriter(changedFile)) {
+                writer.write("Edited");
+            }
+            long sameFileTime = sameFile.lastModified();
+            
+            GraficoUtils.checkoutChanges(repo, commit1.getTree(), commit2.getTree());
+            git.reset().setRef(commit2.getName()).setMode(ResetType.SOFT).call();
+            
+            assertTrue(git.status().call().isClean());
+            assertEquals("Changed", GraficoUtils.getWorkingTreeFileContents(localGitFolder, "model/changed.xml").trim());
+            assertTrue(addedFile.exists());
+            assertFalse(deletedFile.getParentFile().exists());
+            assertEquals(sameFileTime, sameFile.lastModified());
+        }
+    }
+    
+    @Test
+    public void commitModel_UpdatesIndexWithExportedFiles() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model1");
+        IArchimateElement actor1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor1.setId("actor1");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor1);
+        IArchimateElement actor2 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor2.setId("actor2");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor2);
+        
+        PersonIdent personIdent = new PersonIdent("Test", "Test");
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        
+        try(Repository repo = GitHelper.createNewRepository(localGitFolder)) {
+            assertNotNull(GraficoUtils.commitModel(model, localGitFolder, personIdent, "Message"));
+            GraficoChangeRecorder.attach(model);
+            
+            // Files that are not part of the model are left alone
+            File otherFile = new File(localGitFolder, "other.txt");
+            try(FileWriter writer = new FileWriter(otherFile)) {
+                writer.write("Other");
+            }
+            
+            actor1.setName("Changed");
+            model.getFolder(FolderType.BUSINESS).getElements().remove(actor2);
+            RevCommit commit = GraficoUtils.commitModel(model, localGitFolder, personIdent, "Message");
+            assertNotNull(commit);
+            
+            Status status = Git.wrap(repo).status().call();
+            assertTrue(status.getUncommittedChanges().isEmpty());
+            assertTrue(status.getUntracked().contains("other.txt"));
+            
+            assertNull(TreeWalk.forPath(repo, "model/business/" + GraficoResource.getElementFileName(actor2), commit.getTree()));
+            assertTrue(GraficoUtils.getFileContents(localGitFolder, "model/business/" + GraficoResource.getElementFileName(actor1), "HEAD").contains("Changed"));
+            
+            // Nothing changed
+            assertNull(GraficoUtils.commitModel(model, localGitFolder, personIdent, "Message"));
+        }
+    }
+    
+    @Test
+    public void isModelSameAsHead_LooksAtModelFilesOnly() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        
+        try(Repository repo = GitHelper.createNewRepository(localGitFolder)) {
+            Git git = Git.wrap(repo);
+            assertFalse(GraficoUtils.isModelSameAsHead(repo));
+            
+            File modelFile = new File(localGitFolder, "model/folder.xml");
+            modelFile.getParentFile().mkdirs();
+            try(FileWriter writer = new FileWriter(modelFile)) {
+                writer.write("Model");
+            }
+            git.add().addFilepattern(".").call();
+            git.commit().setAuthor("Test", "Test").setMessage("Message").call();
+            assertTrue(GraficoUtils.isModelSameAsHead(repo));
+            
+            // Files outside the model are not looked at
+            try(FileWriter writer = new FileWriter(new File(localGitFolder, "other.txt"))) {
+                writer.write("Other");
+            }
+            assertTrue(GraficoUtils.isModelSameAsHead(repo));
+            
+            // Changed with the same size
+            try(FileWriter writer = new FileWriter(modelFile)) {
+                writer.write("Other");
+            }
+            assertFalse(GraficoUtils.isModelSameAsHead(repo));
+            
+            // Written again with the same contents
+            try(FileWriter writer = new FileWriter(modelFile)) {
+                writer.write("Model");
+            }
+            assertTrue(GraficoUtils.isModelSameAsHead(repo));
+            
+            // Not in the index
+            File newFile = new File(localGitFolder, "model/new.xml");
+            try(FileWriter writer = new FileWriter(newFile)) {
+                writer.write("New");
+            }
+            assertFalse(GraficoUtils.isModelSameAsHead(repo));
+            
+            // In the index but not in HEAD
+            git.add().addFilepattern("model/new.xml").call();
+            assertFalse(GraficoUtils.isModelSameAsHead(repo));
+            
+            git.rm().addFilepattern("model/new.xml").call();
+            assertTrue(GraficoUtils.isModelSameAsHead(repo));
+        }
+    }
+    
+    @Test
+    public void reloadModel_UpdatesModelInPlace() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model1");
+        IArchimateElement actor1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor1.setId("actor1");
+        actor1.setName("Actor");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor1);
+        IArchimateElement actor2 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor2.setId("actor2");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor2);
+        IFolder folder = IArchimateFactory.eINSTANCE.createFolder();
+        folder.setId("folder1");
+        folder.setType(FolderType.USER);
+        model.getFolder(FolderType.BUSINESS).getFolders().add(folder);
+        
+        PersonIdent personIdent = new PersonIdent("Test", "Test");
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        
+        GitHelper.createNewRepository(localGitFolder).close();
+        
+        RevCommit commit1 = GraficoUtils.commitModelToObjectDatabase(model, localGitFolder, personIdent, "Message");
+        GraficoChangeRecorder.attach(model);
+        
+        // Another copy of the model is changed and committed, as a pull would do
+        IArchimateModel otherModel = new GraficoModelImporter().importLocalGitRepositoryAsModel(localGitFolder);
+        IFolder otherBusinessFolder = otherModel.getFolder(FolderType.BUSINESS);
+        for(EObject element : otherBusinessFolder.getElements().toArray(new EObject[0])) {
+            if("actor1".equals(((IArchimateElement)element).getId())) {
+                ((IArchimateElement)element).setName("Changed");
+            }
+            else {
+                otherBusinessFolder.getFolders().get(0).getElements().add(element);
+            }
+        }
+        IArchimateElement actor3 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor3.setId("actor3");
+        otherBusinessFolder.getElements().add(actor3);
+        GraficoUtils.commitModelToObjectDatabase(otherModel, localGitFolder, personIdent, "Message");
+        
+        assertTrue(GraficoUtils.reloadModel(model, localGitFolder, commit1));
+        
+        // Same objects, changed
+        assertEquals("Changed", actor1.getName());
+        assertEquals(folder, actor2.eContainer());
+        assertEquals(2, model.getFolder(FolderType.BUSINESS).getElements().size());
+        assertFalse(GraficoChangeRecorder.getRecorder(model).hasChanges());
+        
+        // The model is the same as the commit
+        assertNull(GraficoUtils.commitModelToObjectDatabase(model, localGitFolder, personIdent, "Message"));
+    }
+    
     // Support
     
     private File getTempTestsFolder() {
@@ -0,0 +1,199 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
+import org.junit.Test;
+
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModel;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelBendpoint;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+import com.archimatetool.model.IProperty;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoXMLReaderTests {
+
+    // Text that needs escaping, line breaks and characters outside of ASCII
+    private static final String TEXT = "a & b < c > d \"quoted\" 'single'\nsecond line\r\nthird line\ttab ]]> éü 中文 😀";
+
+    private static final URI FILE_URI = URI.createFileURI("/model/business/test.xml");
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoXMLReaderTests.class);
+    }
+
+    @Test
+    public void read_SameAsXMLResource() throws Exception {
+        IArchimateModel model = createModel();
+        GraficoXMLWriter writer = new GraficoXMLWriter();
+        GraficoXMLReader reader = new GraficoXMLReader();
+
+        // Every file of the model, read with the same reader
+        for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IFolderContainer || eObject.eContainer() instanceof IFolder) {
+                byte[] bytes = writer.write(eObject);
+
+                EObject expected = loadWithResource(bytes);
+                EObject actual = reader.read(new ByteArrayInputStream(bytes), FILE_URI);
+
+                assertNotNull(actual);
+                assertNull(actual.eResource());
+                assertTrue(EcoreUtil.equals(expected, actual));
+            }
+        }
+    }
+
+    @Test
+    public void read_ReferencesInSameFileAndProxies() throws Exception {
+        IArchimateModel model = createModel();
+        IDiagramModel dm = (IDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+
+        GraficoXMLReader reader = new GraficoXMLReader();
+        IDiagramModel readDm = (IDiagramModel)reader.read(new ByteArrayInputStream(new GraficoXMLWriter().write(dm)), FILE_URI);
+
+        IDiagramModelArchimateObject dmo1 = (IDiagramModelArchimateObject)readDm.getChildren().get(0);
+        IDiagramModelArchimateObject dmo2 = (IDiagramModelArchimateObject)dmo1.getChildren().get(0);
+        IDiagramModelArchimateConnection connection = (IDiagramModelArchimateConnection)dmo1.getSourceConnections().get(0);
+        assertEquals(dmo2, connection.getTarget());
+
+        assertTrue(dmo1.getArchimateElement().eIsProxy());
+        assertEquals("actor1", ((InternalEObject)dmo1.getArchimateElement()).eProxyURI().fragment());
+    }
+
+    @Test
+    public void read_ReturnsNullForUnsupportedContent() throws Exception {
+        GraficoXMLReader reader = new GraficoXMLReader();
+
+        String unknownFeature = "<archimate:BusinessActor xmlns:archimate=\"http://www.archimatetool.com/archimate\" id=\"actor1\" unknown=\"1\"/>";
+        assertNull(reader.read(new ByteArrayInputStream(unknownFeature.getBytes(StandardCharsets.UTF_8)), FILE_URI));
+
+        String malformed = "<archimate:BusinessActor xmlns:archimate=\"http://www.archimatetool.com/archimate\" id=\"actor1\"";
+        assertNull(reader.read(new ByteArrayInputStream(malformed.getBytes(StandardCharsets.UTF_8)), FILE_URI));
+
+        // The reader can be used again after giving up on a file
+        IArchimateModel model = createModel();
+        EObject actor = model.getFolder(FolderType.BUSINESS).getElements().get(0);
+        assertNotNull(reader.read(new ByteArrayInputStream(new GraficoXMLWriter().write(actor)), FILE_URI));
+    }
+
+    @Test
+    public void readRoot_ReadsOnlyRootAttributes() throws Exception {
+        IArchimateModel model = createModel();
+        IDiagramModel dm = (IDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+
+        GraficoXMLReader reader = new GraficoXMLReader();
+        IDiagramModel readDm = (IDiagramModel)reader.readRoot(new ByteArrayInputStream(new GraficoXMLWriter().write(dm)), FILE_URI);
+
+        assertEquals("dm1", readDm.getId());
+        assertEquals("View", readDm.getName());
+        assertTrue(readDm.getChildren().isEmpty());
+    }
+
+    // Support
+
+    private EObject loadWithResource(byte[] bytes) throws IOException {
+        Map<Object, Object> options = new HashMap<Object, Object>();
+        options.put(XMLResource.OPTION_ENCODING, "UTF-8");
+        options.put(XMLResource.OPTION_DEFER_IDREF_RESOLUTION, Boolean.TRUE);
+
+        XMLResource resource = new XMLResourceImpl(FILE_URI);
+        resource.load(new ByteArrayInputStream(bytes), options);
+        return resource.getContents().get(0);
+    }
+
+    private IArchimateModel createModel() {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model1");
+        model.setName("Test Model");
+        model.setPurpose(TEXT);
+
+        IArchimateElement actor1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor1.setId("actor1");
+        actor1.setName(TEXT);
+        actor1.setDocumentation(TEXT);
+        IProperty property = IArchimateFactory.eINSTANCE.createProperty();
+        property.setKey("key");
+        property.setValue(TEXT);
+        actor1.getProperties().add(property);
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor1);
+
+        IArchimateElement actor2 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor2.setId("actor2");
+        actor2.setName("Actor 2");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor2);
+
+        IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+        relation.setId("relation1");
+        relation.setSource(actor1);
+        relation.setTarget(actor2);
+        model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+
+        IDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm.setId("dm1");
+        dm.setName("View");
+        model.getFolder(FolderType.DIAGRAMS).getElements().add(dm);
+
+        IDiagramModelArchimateObject dmo1 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo1.setId("dmo1");
+        dmo1.setArchimateElement(actor1);
+        dmo1.setBounds(10, 20, 120, 55);
+        dm.getChildren().add(dmo1);
+
+        IDiagramModelArchimateObject dmo2 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo2.setId("dmo2");
+        dmo2.setArchimateElement(actor2);
+        dmo2.setBounds(5, 5, -1, -1);
+        dmo1.getChildren().add(dmo2);
+
+        IDiagramModelArchimateConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelArchimateConnection();
+        connection.setId("conn1");
+        connection.setArchimateRelationship(relation);
+        connection.connect(dmo1, dmo2);
+        IDiagramModelBendpoint bendpoint = IArchimateFactory.eINSTANCE.createDiagramModelBendpoint();
+        bendpoint.setStartX(10);
+        bendpoint.setEndY(-20);
+        connection.getBendpoints().add(bendpoint);
+
+        IFolder folder = IArchimateFactory.eINSTANCE.createFolder();
+        folder.setId("folder1");
+        folder.setName(TEXT);
+        folder.setType(FolderType.USER);
+        model.getFolder(FolderType.DIAGRAMS).getFolders().add(folder);
+
+        return model;
+    }
+
+}
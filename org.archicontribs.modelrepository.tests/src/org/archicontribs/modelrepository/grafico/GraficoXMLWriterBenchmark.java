@@ -0,0 +1,178 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.junit.Test;
+
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModel;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+/**
+ * Compares the time and memory taken to serialize all the Grafico files of a large model
+ * with GraficoXMLWriter and with GraficoResource.
+ *
+ * This is not part of AllTests, run it on its own and read the results in the console.
+ */
+@SuppressWarnings("nls")
+public class GraficoXMLWriterBenchmark {
+
+    private static final int ELEMENTS = 20000;
+    private static final int DIAGRAMS = 200;
+    private static final int RUNS = 5;
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoXMLWriterBenchmark.class);
+    }
+
+    @Test
+    public void benchmarkWriters() throws Exception {
+        List<EObject> files = getFileRoots(createModel());
+
+        System.out.println("Grafico files: " + files.size());
+
+        // Warm up
+        writeWithResource(files);
+        writeWithWriter(files);
+
+        for(int i = 0; i < RUNS; i++) {
+            long bytes = getAllocatedBytes();
+            long time = System.nanoTime();
+            writeWithResource(files);
+            report("XMLResource", time, bytes);
+
+            bytes = getAllocatedBytes();
+            time = System.nanoTime();
+            writeWithWriter(files);
+            report("GraficoXMLWriter", time, bytes);
+        }
+    }
+
+    private void writeWithResource(List<EObject> files) throws IOException {
+        for(EObject eObject : files) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new GraficoResource(URI.createFileURI("test.xml")).save(eObject, out);
+            out.toByteArray();
+        }
+    }
+
+    private void writeWithWriter(List<EObject> files) {
+        GraficoXMLWriter writer = new GraficoXMLWriter();
+        for(EObject eObject : files) {
+            assertNotNull(writer.write(eObject));
+        }
+    }
+
+    private void report(String name, long startTime, long startBytes) {
+        long ms = (System.nanoTime() - startTime) / 1000000;
+        long bytes = getAllocatedBytes();
+        System.out.println(name + ": " + ms + " ms" + (bytes < 0 ? "" : ", " + (bytes - startBytes) / (1024 * 1024) + " MB allocated"));
+    }
+
+    /**
+     * @return The number of bytes allocated by this thread, or -1 if the JVM can't tell
+     */
+    private long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            return (Long)method.invoke(bean, Thread.currentThread().getId());
+        }
+        catch(Exception ex) {
+            return -1;
+        }
+    }
+
+    private List<EObject> getFileRoots(IArchimateModel model) {
+        List<EObject> files = new ArrayList<EObject>();
+        files.add(model);
+        for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IFolderContainer || eObject.eContainer() instanceof IFolder) {
+                files.add(eObject);
+            }
+        }
+        return files;
+    }
+
+    private IArchimateModel createModel() {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model");
+
+        List<IArchimateElement> elements = new ArrayList<IArchimateElement>();
+        for(int i = 0; i < ELEMENTS; i++) {
+            IArchimateElement actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+            actor.setId("actor" + i);
+            actor.setName("Actor " + i);
+            actor.setDocumentation("Documentation of actor " + i);
+            model.getFolder(FolderType.BUSINESS).getElements().add(actor);
+            elements.add(actor);
+        }
+
+        List<IArchimateRelationship> relations = new ArrayList<IArchimateRelationship>();
+        for(int i = 1; i < ELEMENTS; i++) {
+            IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+            relation.setId("relation" + i);
+            relation.setSource(elements.get(i - 1));
+            relation.setTarget(elements.get(i));
+            model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+            relations.add(relation);
+        }
+
+        // Each diagram shows a chain of elements and their relations
+        int perDiagram = ELEMENTS / DIAGRAMS;
+        for(int i = 0; i < DIAGRAMS; i++) {
+            IDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+            dm.setId("view" + i);
+            dm.setName("View " + i);
+            model.getFolder(FolderType.DIAGRAMS).getElements().add(dm);
+
+            IDiagramModelArchimateObject previous = null;
+            for(int j = 0; j < perDiagram; j++) {
+                int index = i * perDiagram + j;
+                IDiagramModelArchimateObject dmo = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+                dmo.setId("dmo" + index);
+                dmo.setArchimateElement(elements.get(index));
+                dmo.setBounds(j * 150, 0, 120, 55);
+                dm.getChildren().add(dmo);
+
+                if(previous != null) {
+                    IDiagramModelArchimateConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelArchimateConnection();
+                    connection.setId("connection" + index);
+                    connection.setArchimateRelationship(relations.get(index - 1));
+                    connection.connect(previous, dmo);
+                }
+                previous = dmo;
+            }
+        }
+
+        return model;
+    }
+}
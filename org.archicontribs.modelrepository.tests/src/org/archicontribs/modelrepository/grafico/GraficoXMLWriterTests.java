@@ -0,0 +1,218 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModel;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelBendpoint;
+import com.archimatetool.model.IDiagramModelReference;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+import com.archimatetool.model.IProperty;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoXMLWriterTests {
+
+    // Text that needs escaping, line breaks and characters outside of ASCII
+    private static final String TEXT = "a & b < c > d \"quoted\" 'single'\nsecond line\r\nthird line\ttab ]]> éü 中文 😀";
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoXMLWriterTests.class);
+    }
+
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(getTempTestsFolder());
+    }
+
+    @Test
+    public void write_SameAsXMLResource() throws Exception {
+        IArchimateModel model = createModel();
+        GraficoXMLWriter writer = new GraficoXMLWriter();
+
+        // Every file of the model, written with the same writer
+        assertArrayEquals(saveWithResource(model), writer.write(model));
+
+        for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IFolderContainer || eObject.eContainer() instanceof IFolder) {
+                assertArrayEquals(saveWithResource(eObject), writer.write(eObject));
+            }
+        }
+    }
+
+    @Test
+    public void write_ReturnsNullForReferenceToAnotherDiagram() throws Exception {
+        IArchimateModel model = createModel();
+
+        IDiagramModel dm1 = (IDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+        IDiagramModel dm3 = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm3.setId("dm3");
+        model.getFolder(FolderType.DIAGRAMS).getElements().add(dm3);
+
+        IDiagramModelArchimateObject dmo = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo.setId("dmo3");
+        dmo.setArchimateElement((IArchimateElement)model.getFolder(FolderType.BUSINESS).getElements().get(0));
+        dm3.getChildren().add(dmo);
+
+        // A connection to an object of another diagram can't be written as an href to an element file
+        IDiagramModelArchimateConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelArchimateConnection();
+        connection.setId("conn2");
+        connection.connect(dm1.getChildren().get(0), dmo);
+
+        GraficoXMLWriter writer = new GraficoXMLWriter();
+        assertNull(writer.write(dm1));
+
+        // The writer can be used again after giving up on a file
+        assertNotNull(writer.write(model));
+    }
+
+    @Test
+    public void exportedModelCanBeImported() throws Exception {
+        File localGitFolder = new File(getTempTestsFolder(), "testRepo");
+        IArchimateModel model = createModel();
+
+        new GraficoModelExporter().exportModelToLocalGitRepository(model, localGitFolder);
+
+        GraficoModelImporter importer = new GraficoModelImporter();
+        IArchimateModel importedModel = importer.importLocalGitRepositoryAsModel(localGitFolder);
+        assertNull(importer.getResolveStatus());
+
+        assertEquals(TEXT, importedModel.getPurpose());
+
+        IArchimateElement actor = (IArchimateElement)importedModel.getFolder(FolderType.BUSINESS).getElements().get(0);
+        assertEquals(TEXT, actor.getName());
+        assertEquals(TEXT, actor.getDocumentation());
+        assertEquals(TEXT, actor.getProperties().get(0).getValue());
+
+        IArchimateRelationship relation = (IArchimateRelationship)importedModel.getFolder(FolderType.RELATIONS).getElements().get(0);
+        assertEquals(actor, relation.getSource());
+
+        IDiagramModel dm = (IDiagramModel)importedModel.getFolder(FolderType.DIAGRAMS).getElements().get(0);
+        IDiagramModelArchimateObject dmo = (IDiagramModelArchimateObject)dm.getChildren().get(0);
+        assertEquals(actor, dmo.getArchimateElement());
+        assertEquals(relation, ((IDiagramModelArchimateConnection)dmo.getSourceConnections().get(0)).getArchimateRelationship());
+
+        IDiagramModel dm2 = (IDiagramModel)importedModel.getFolder(FolderType.DIAGRAMS).getFolders().get(0).getElements().get(0);
+        assertEquals(dm, ((IDiagramModelReference)dm2.getChildren().get(0)).getReferencedModel());
+    }
+
+    // Support
+
+    private byte[] saveWithResource(EObject eObject) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GraficoResource(URI.createFileURI("test.xml")).save(eObject, out);
+        return out.toByteArray();
+    }
+
+    private IArchimateModel createModel() {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setId("model1");
+        model.setName("Test Model");
+        model.setPurpose(TEXT);
+
+        IArchimateElement actor1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor1.setId("actor1");
+        actor1.setName(TEXT);
+        actor1.setDocumentation(TEXT);
+        IProperty property = IArchimateFactory.eINSTANCE.createProperty();
+        property.setKey("key");
+        property.setValue(TEXT);
+        actor1.getProperties().add(property);
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor1);
+
+        IArchimateElement actor2 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor2.setId("actor2");
+        actor2.setName("Actor 2");
+        model.getFolder(FolderType.BUSINESS).getElements().add(actor2);
+
+        IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+        relation.setId("relation1");
+        relation.setSource(actor1);
+        relation.setTarget(actor2);
+        model.getFolder(FolderType.RELATIONS).getElements().add(relation);
+
+        IDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm.setId("dm1");
+        dm.setName("View");
+        model.getFolder(FolderType.DIAGRAMS).getElements().add(dm);
+
+        IDiagramModelArchimateObject dmo1 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo1.setId("dmo1");
+        dmo1.setArchimateElement(actor1);
+        dmo1.setBounds(10, 20, 120, 55);
+        dm.getChildren().add(dmo1);
+
+        // Nested object
+        IDiagramModelArchimateObject dmo2 = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo2.setId("dmo2");
+        dmo2.setArchimateElement(actor2);
+        dmo2.setBounds(5, 5, -1, -1);
+        dmo1.getChildren().add(dmo2);
+
+        IDiagramModelArchimateConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelArchimateConnection();
+        connection.setId("conn1");
+        connection.setArchimateRelationship(relation);
+        connection.connect(dmo1, dmo2);
+        IDiagramModelBendpoint bendpoint = IArchimateFactory.eINSTANCE.createDiagramModelBendpoint();
+        bendpoint.setStartX(10);
+        bendpoint.setEndY(-20);
+        connection.getBendpoints().add(bendpoint);
+
+        // User folder with a reference to the diagram
+        IFolder folder = IArchimateFactory.eINSTANCE.createFolder();
+        folder.setId("folder1");
+        folder.setName(TEXT);
+        folder.setType(FolderType.USER);
+        model.getFolder(FolderType.DIAGRAMS).getFolders().add(folder);
+
+        IDiagramModel dm2 = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        dm2.setId("dm2");
+        folder.getElements().add(dm2);
+
+        IDiagramModelReference reference = IArchimateFactory.eINSTANCE.createDiagramModelReference();
+        reference.setId("ref1");
+        reference.setReferencedModel(dm);
+        reference.setBounds(0, 0, 100, 50);
+        dm2.getChildren().add(reference);
+
+        return model;
+    }
+
+    private File getTempTestsFolder() {
+        File file = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.tests.tmp");
+        file.deleteOnExit();
+        file.mkdirs();
+        return file;
+    }
+
+}
@@ -9,9 +9,13 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 
+import org.archicontribs.modelrepository.grafico.GraficoFetchJob;
+import org.archicontribs.modelrepository.grafico.GraficoMaintenanceJob;
+import org.archicontribs.modelrepository.grafico.GraficoRepositoryRegistry;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
+import org.osgi.framework.BundleContext;
 
 import com.archimatetool.editor.utils.StringUtils;
 
@@ -35,6 +39,16 @@ public class ModelRepositoryPlugin extends AbstractUIPlugin {
         INSTANCE = this;
     }
 
+    @Override
+    public void stop(BundleContext context) throws Exception {
+        GraficoFetchJob.stop();
+        GraficoMaintenanceJob.stop();
+        
+        // Close the repositories kept open between operations
+        GraficoRepositoryRegistry.closeAll();
+        super.stop(context);
+    }
+
     /**
      * @return The File Location of this plugin
      */
@@ -5,6 +5,8 @@
  */
 package org.archicontribs.modelrepository;
 
+import org.archicontribs.modelrepository.grafico.GraficoFetchJob;
+import org.archicontribs.modelrepository.grafico.GraficoMaintenanceJob;
 import org.eclipse.ui.IStartup;
 
 
@@ -17,7 +19,11 @@ import org.eclipse.ui.IStartup;
 public class Startup implements IStartup {
 
     public void earlyStartup() {
-        // Do nothing
+        // Check for remote changes in the background
+        GraficoFetchJob.start();
+        
+        // Pack repositories in the background
+        GraficoMaintenanceJob.start();
     }
 
 }
@@ -23,6 +23,7 @@ import org.eclipse.jface.dialogs.ProgressMonitorDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.window.Window;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.EmptyProgressMonitor;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IWorkbenchWindow;
@@ -55,6 +56,7 @@ public class CloneModelAction extends AbstractModelAction {
         final String repoURL = dialog.getURL();
         final String userName = dialog.getUsername();
         final String userPassword = dialog.getPassword();
+        final String branch = dialog.isMasterOnly() ? Constants.MASTER : null;
         
         if(!StringUtils.isSet(repoURL) && !StringUtils.isSet(userName) && !StringUtils.isSet(userPassword)) {
             return;
@@ -83,7 +85,7 @@ public class CloneModelAction extends AbstractModelAction {
                     monitor.beginTask(Messages.CloneModelAction_4, IProgressMonitor.UNKNOWN);
                     
                     // Clone
-                    GraficoUtils.cloneModel(localGitFolder, repoURL, userName, userPassword, this);
+                    GraficoUtils.cloneModel(localGitFolder, repoURL, userName, userPassword, branch, this);
                     
                     monitor.subTask(Messages.CloneModelAction_5);
                     
@@ -9,12 +9,13 @@ import java.io.IOException;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.grafico.GraficoChangeRecorder;
+import org.archicontribs.modelrepository.grafico.GraficoFetchJob;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.archicontribs.modelrepository.preferences.ModelRepositoryPreferencePage;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.preference.PreferenceDialog;
-import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.dialogs.PreferencesUtil;
@@ -81,9 +82,16 @@ public class CommitModelAction extends AbstractModelAction {
                     
                     PersonIdent personIdent = new PersonIdent(userName, userEmail);
                     String commitMessage = "Test commit message from model repo!";
-                    GraficoUtils.commitModel(model, getGitRepository(), personIdent, commitMessage);
+                    GraficoUtils.commitModelToObjectDatabase(model, getGitRepository(), personIdent, commitMessage);
+                    
+                    // A model that was not loaded from the repository, such as one Archi opened again at start up, is now the same as HEAD
+                    if(GraficoChangeRecorder.getRecorder(model) == null) {
+                        GraficoChangeRecorder.attach(model);
+                    }
+                    
+                    GraficoFetchJob.updateTrackingStatus(getGitRepository());
                 }
-                catch(IOException | GitAPIException ex) {
+                catch(IOException ex) {
                     ex.printStackTrace();
                 }
             }
@@ -0,0 +1,46 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.actions;
+
+import java.io.File;
+
+import org.archicontribs.modelrepository.IModelRepositoryImages;
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.grafico.GraficoSyncJob;
+import org.archicontribs.modelrepository.grafico.GraficoUtils;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.ui.IWorkbenchWindow;
+
+/**
+ * Publish all models action
+ */
+public class PublishAllModelsAction extends AbstractModelAction {
+	
+	private IWorkbenchWindow fWindow;
+
+    public PublishAllModelsAction(IWorkbenchWindow window) {
+        fWindow = window;
+        setImageDescriptor(IModelRepositoryImages.ImageFactory.getImageDescriptor(IModelRepositoryImages.ICON_PUSH_16));
+        setText("Publish All");
+        setToolTipText("Publish Changes of All Models to Remote");
+    }
+
+    @Override
+    public void run() {
+        File[] repositories = GraficoUtils.getGitRepositories(ModelRepositoryPlugin.INSTANCE.getUserModelRepositoryFolder());
+        if(repositories.length == 0) {
+            return;
+        }
+        
+        boolean doPush = MessageDialog.openConfirm(fWindow.getShell(),
+                "Publish All",
+                "Publish changes of all models?");
+        
+        if(doPush) {
+            GraficoSyncJob.syncAll(repositories, true, fWindow.getShell());
+        }
+    }
+}
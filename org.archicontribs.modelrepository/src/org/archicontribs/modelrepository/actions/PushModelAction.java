@@ -10,6 +10,7 @@ import java.lang.reflect.InvocationTargetException;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.authentication.UserDetails;
+import org.archicontribs.modelrepository.grafico.GraficoFetchJob;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.MergeConflictHandler;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -70,10 +71,11 @@ public class PushModelAction extends AbstractModelAction {
                 try {
                     this.monitor = monitor;
                     
-                    // First we need to Pull and resolve any conflicts
-                    PullResult pullResult = GraficoUtils.pullFromRemote(getGitRepository(), userName, userPassword, this);
+                    // First we need to Pull and resolve any conflicts, if the remote has changed since the last Pull
+                    PullResult pullResult = GraficoUtils.isRemoteChanged(getGitRepository(), userName, userPassword) ?
+                            GraficoUtils.pullFromRemote(getGitRepository(), userName, userPassword, this) : null;
                     
-                    if(!pullResult.isSuccessful()) {
+                    if(pullResult != null && !pullResult.isSuccessful()) {
                         monitor.done();
                         
                         Display.getCurrent().asyncExec(new Runnable() {
@@ -105,6 +107,7 @@ public class PushModelAction extends AbstractModelAction {
                         
                         // Push
                         GraficoUtils.pushToRemote(getGitRepository(), userName, userPassword, this);
+                        GraficoFetchJob.updateTrackingStatus(getGitRepository());
                     }
                 }
                 catch(IOException | GitAPIException ex) {
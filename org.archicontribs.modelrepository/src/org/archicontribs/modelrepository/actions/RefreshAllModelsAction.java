@@ -0,0 +1,37 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.actions;
+
+import java.io.File;
+
+import org.archicontribs.modelrepository.IModelRepositoryImages;
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.grafico.GraficoSyncJob;
+import org.archicontribs.modelrepository.grafico.GraficoUtils;
+import org.eclipse.ui.IWorkbenchWindow;
+
+/**
+ * Refresh all models action
+ */
+public class RefreshAllModelsAction extends AbstractModelAction {
+	
+	private IWorkbenchWindow fWindow;
+
+    public RefreshAllModelsAction(IWorkbenchWindow window) {
+        fWindow = window;
+        setImageDescriptor(IModelRepositoryImages.ImageFactory.getImageDescriptor(IModelRepositoryImages.ICON_REFRESH_16));
+        setText("Refresh All");
+        setToolTipText("Refresh All Local Copies");
+    }
+
+    @Override
+    public void run() {
+        File[] repositories = GraficoUtils.getGitRepositories(ModelRepositoryPlugin.INSTANCE.getUserModelRepositoryFolder());
+        if(repositories.length > 0) {
+            GraficoSyncJob.syncAll(repositories, false, fWindow.getShell());
+        }
+    }
+}
@@ -10,19 +10,25 @@ import java.lang.reflect.InvocationTargetException;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.authentication.UserDetails;
+import org.archicontribs.modelrepository.grafico.GraficoChangeRecorder;
+import org.archicontribs.modelrepository.grafico.GraficoFetchJob;
+import org.archicontribs.modelrepository.grafico.GraficoFetchJob.TrackingStatus;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.MergeConflictHandler;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.dialogs.ProgressMonitorDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
+import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.lib.EmptyProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IWorkbenchWindow;
 
-import com.archimatetool.editor.model.IEditorModelManager;
+import com.archimatetool.model.IArchimateModel;
 
 /**
  * Refresh model action
@@ -43,15 +49,25 @@ public class RefreshModelAction extends AbstractModelAction {
 
     @Override
     public void run() {
-        // TODO we need to prompt user to save/commit changes before a pull and reload
-        
-        if(IEditorModelManager.INSTANCE.isModelLoaded(getGitRepository())) {
-            MessageDialog.openInformation(fWindow.getShell(),
-                    "Refresh",
-                    "Model is already open. Close it and retry.");
-            return;
+        // An open model is updated with the pulled changes, so it must not have changes that are not committed
+        IArchimateModel openModel = GraficoUtils.locateModel(getGitRepository());
+        if(openModel != null) {
+            GraficoChangeRecorder recorder = GraficoChangeRecorder.getRecorder(openModel);
+            if(recorder == null) {
+                MessageDialog.openInformation(fWindow.getShell(),
+                        "Refresh",
+                        "Model was not loaded from the repository, so its changes are not known. Commit it and retry.");
+                return;
+            }
+            if(recorder.hasChanges()) {
+                MessageDialog.openInformation(fWindow.getShell(),
+                        "Refresh",
+                        "Model has changes that are not committed. Commit them and retry.");
+                return;
+            }
         }
         
+        // Always go to the remote, so that the refresh is never older than the user thinks
         String credentials[] = null;
         try {
             credentials = UserDetails.getUserNameAndPasswordFromCredentialsFileOrDialog(getGitRepository(), fWindow.getShell());
@@ -76,8 +92,36 @@ public class RefreshModelAction extends AbstractModelAction {
                     
                     monitor.beginTask("Refreshing", IProgressMonitor.UNKNOWN);
                     
+                    // The commit the open model is the same as
+                    ObjectId oldCommitId = GraficoUtils.getHeadCommitId(getGitRepository());
+                    
                     // First we need to Pull and check for conflicts
-                    PullResult pullResult = GraficoUtils.pullFromRemote(getGitRepository(), userName, userPassword, this);
+                    MergeResult mergeResult;
+                    boolean isSuccessful;
+                    long fetchAge = -1;
+                    
+                    try {
+                        PullResult pullResult = GraficoUtils.pullFromRemote(getGitRepository(), userName, userPassword, this);
+                        mergeResult = pullResult.getMergeResult();
+                        isSuccessful = pullResult.isSuccessful();
+                        GraficoFetchJob.setFetched(getGitRepository());
+                    }
+                    catch(TransportException ex) {
+                        // The remote can't be reached, but what was fetched in the background lately can still be merged
+                        TrackingStatus status = GraficoFetchJob.getTrackingStatus(getGitRepository());
+                        if(status == null || !GraficoFetchJob.isFetched(getGitRepository())) {
+                            throw ex;
+                        }
+                        fetchAge = System.currentTimeMillis() - status.getFetchTime();
+                        mergeResult = GraficoUtils.mergeFromRemote(getGitRepository());
+                        isSuccessful = mergeResult == null || mergeResult.getMergeStatus().isSuccessful();
+                    }
+                    
+                    GraficoFetchJob.updateTrackingStatus(getGitRepository());
+                    
+                    final MergeResult finalMergeResult = mergeResult;
+                    final boolean finalIsSuccessful = isSuccessful;
+                    final long finalFetchAge = fetchAge;
                     
                     monitor.done();
                     
@@ -85,9 +129,9 @@ public class RefreshModelAction extends AbstractModelAction {
                         @Override
                         public void run() {
                             // Conflict merger
-                            if(!pullResult.isSuccessful()) {
+                            if(!finalIsSuccessful) {
                                 try {
-                                    MergeConflictHandler handler = new MergeConflictHandler(pullResult.getMergeResult(), getGitRepository(), fWindow.getShell());
+                                    MergeConflictHandler handler = new MergeConflictHandler(finalMergeResult, getGitRepository(), fWindow.getShell());
                                     boolean result = handler.checkForMergeConflicts();
                                     if(result) {
                                         handler.mergeAndCommit();
@@ -103,13 +147,22 @@ public class RefreshModelAction extends AbstractModelAction {
                                 }
                             }
                             
-                            // Load
+                            // Update the open model with the changed files only, or load it
                             try {
-                                GraficoUtils.loadModel(getGitRepository(), fWindow.getShell());
+                                if(openModel == null || !GraficoUtils.reloadModel(openModel, getGitRepository(), oldCommitId)) {
+                                    GraficoUtils.loadModel(getGitRepository(), fWindow.getShell());
+                                }
                             }
                             catch(IOException ex) {
                                 displayErrorDialog(ex);
                             }
+                            
+                            // Tell the user how old the refresh is
+                            if(finalFetchAge >= 0) {
+                                MessageDialog.openInformation(fWindow.getShell(),
+                                        "Refresh",
+                                        "The remote could not be reached. The changes fetched " + (finalFetchAge / 60000) + " minutes ago were used instead.");
+                            }
                         }
                     });
                 }
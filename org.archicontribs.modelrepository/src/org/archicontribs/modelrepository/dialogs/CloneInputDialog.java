@@ -10,6 +10,7 @@ import org.eclipse.jface.dialogs.TitleAreaDialog;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Label;
@@ -28,10 +29,12 @@ public class CloneInputDialog extends TitleAreaDialog {
 	private Text txtURL;
     private Text txtUsername;
     private Text txtPassword;
+    private Button btnMasterOnly;
 
     private String URL;
     private String username;
     private String password;
+    private boolean masterOnly;
 
     public CloneInputDialog(Shell parentShell) {
         super(parentShell);
@@ -58,6 +61,7 @@ public class CloneInputDialog extends TitleAreaDialog {
         createURL(container);
         createUsername(container);
         createPassword(container);
+        createMasterOnly(container);
 
         return area;
     }
@@ -97,6 +101,16 @@ public class CloneInputDialog extends TitleAreaDialog {
         txtPassword.setLayoutData(data);
     }
 
+    private void createMasterOnly(Composite container) {
+        GridData data = new GridData();
+        data.horizontalSpan = 2;
+
+        btnMasterOnly = new Button(container, SWT.CHECK);
+        btnMasterOnly.setText(Messages.CloneInputDialog_5);
+        btnMasterOnly.setSelection(true);
+        btnMasterOnly.setLayoutData(data);
+    }
+
     @Override
     protected boolean isResizable() {
         return true;
@@ -108,6 +122,7 @@ public class CloneInputDialog extends TitleAreaDialog {
         username = txtUsername.getText();
         password = txtPassword.getText();
         URL = txtURL.getText();
+        masterOnly = btnMasterOnly.getSelection();
     }
 
     @Override
@@ -127,4 +142,11 @@ public class CloneInputDialog extends TitleAreaDialog {
     public String getURL() {
         return URL;
     }
+    
+    /**
+     * @return True to clone only the master branch
+     */
+    public boolean isMasterOnly() {
+        return masterOnly;
+    }
 }
\ No newline at end of file
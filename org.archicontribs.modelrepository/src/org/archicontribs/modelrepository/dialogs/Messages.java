@@ -16,6 +16,8 @@ public class Messages extends NLS {
 
     public static String CloneInputDialog_4;
 
+    public static String CloneInputDialog_5;
+
     public static String ConflictsDialog_0;
 
     public static String ConflictsDialog_1;
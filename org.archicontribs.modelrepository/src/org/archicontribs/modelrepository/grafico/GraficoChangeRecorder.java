@@ -0,0 +1,339 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EContentAdapter;
+
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimatePackage;
+import com.archimatetool.model.IDiagramModelImageProvider;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+import com.archimatetool.model.IIdentifier;
+
+
+/**
+ * Records the Grafico files of a model that have to be saved again since its last commit.
+ *
+ * Changes are recorded from the model's notifications, so changes made by undo and redo
+ * on the model's CommandStack are recorded like any other change.
+ * An object that is changed and then changed back stays dirty, which is safe as exporting it again gives the same file.
+ */
+public class GraficoChangeRecorder extends EContentAdapter {
+
+    /**
+     * @param model
+     * @return The recorder attached to model, or null
+     */
+    public static GraficoChangeRecorder getRecorder(IArchimateModel model) {
+        for(Adapter adapter : model.eAdapters()) {
+            if(adapter instanceof GraficoChangeRecorder) {
+                return (GraficoChangeRecorder)adapter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Attach a new recorder to model. The model is taken as being the same as its last commit.
+     *
+     * @param model
+     * @return The recorder
+     */
+    public static GraficoChangeRecorder attach(IArchimateModel model) {
+        GraficoChangeRecorder recorder = getRecorder(model);
+        if(recorder != null) {
+            model.eAdapters().remove(recorder);
+        }
+
+        recorder = new GraficoChangeRecorder();
+        model.eAdapters().add(recorder);
+        return recorder;
+    }
+
+    // Objects whose file has to be saved again, resolved to the root of their file when exporting
+    private Set<EObject> fDirtyObjects = new HashSet<EObject>();
+
+    // Paths of files and directories of objects that were removed from their folder
+    private Set<String> fRemovedPaths = new HashSet<String>();
+
+    private Set<String> fAddedIds = new HashSet<String>();
+    private Set<String> fModifiedIds = new HashSet<String>();
+    private Set<String> fRemovedIds = new HashSet<String>();
+
+    private boolean fFullExportRequired;
+    private boolean fImagesChanged;
+
+    // False while the model is changed in ways that are not saved, such as loading a diagram model's contents
+    private boolean fRecording = true;
+
+    // Time of the last recorded change, or of attaching the recorder
+    private long fLastChangeTime = System.currentTimeMillis();
+
+    private GraficoChangeRecorder() {
+    }
+
+    @Override
+    public void notifyChanged(Notification msg) {
+        super.notifyChanged(msg);
+
+        if(!fRecording || msg.isTouch() || !(msg.getNotifier() instanceof EObject) || !(msg.getFeature() instanceof EStructuralFeature)) {
+            return;
+        }
+
+        EObject notifier = (EObject)msg.getNotifier();
+        EStructuralFeature feature = (EStructuralFeature)msg.getFeature();
+
+        // Not saved
+        if(feature.isTransient()) {
+            return;
+        }
+
+        fLastChangeTime = System.currentTimeMillis();
+
+        // Ids are used in file names and in references from other files, and folder types in directory names
+        if(feature == IArchimatePackage.Literals.IDENTIFIER__ID || feature == IArchimatePackage.Literals.FOLDER__TYPE) {
+            fFullExportRequired = true;
+            return;
+        }
+
+        if(feature == IArchimatePackage.Literals.DIAGRAM_MODEL_IMAGE_PROVIDER__IMAGE_PATH) {
+            fImagesChanged = true;
+        }
+
+        if(feature instanceof EReference && ((EReference)feature).isContainment()) {
+            checkImages(msg.getOldValue());
+            checkImages(msg.getNewValue());
+        }
+
+        if(GraficoResource.isSavedInOwnFiles(feature)) {
+            switch(msg.getEventType()) {
+                case Notification.ADD:
+                    added((EObject)msg.getNewValue());
+                    break;
+
+                case Notification.ADD_MANY:
+                    for(Object value : (Collection<?>)msg.getNewValue()) {
+                        added((EObject)value);
+                    }
+                    break;
+
+                case Notification.REMOVE:
+                    removed((IFolderContainer)notifier, (EObject)msg.getOldValue());
+                    break;
+
+                case Notification.REMOVE_MANY:
+                    for(Object value : (Collection<?>)msg.getOldValue()) {
+                        removed((IFolderContainer)notifier, (EObject)value);
+                    }
+                    break;
+
+                default:
+                    // The order of sub-folders and elements is not saved
+                    break;
+            }
+            return;
+        }
+
+        // Anything else is saved in the file of the notifier
+        EObject root = GraficoResource.getFileRoot(notifier);
+        fDirtyObjects.add(root);
+        if(root instanceof IIdentifier) {
+            fModifiedIds.add(((IIdentifier)root).getId());
+        }
+    }
+
+    private void added(EObject eObject) {
+        for(EObject root : getFileRoots(eObject)) {
+            fDirtyObjects.add(root);
+            if(root instanceof IIdentifier) {
+                fAddedIds.add(((IIdentifier)root).getId());
+            }
+        }
+    }
+
+    private void removed(IFolderContainer parent, EObject eObject) {
+        String directory = GraficoModelExporter.getDirectoryPath(parent);
+
+        if(eObject instanceof IFolder) {
+            fRemovedPaths.add(directory + "/" + GraficoModelExporter.getNameFor((IFolder)eObject)); //$NON-NLS-1$
+        }
+        else {
+            fRemovedPaths.add(directory + "/" + GraficoResource.getElementFileName(eObject)); //$NON-NLS-1$
+        }
+
+        for(EObject root : getFileRoots(eObject)) {
+            if(root instanceof IIdentifier) {
+                String id = ((IIdentifier)root).getId();
+                // Objects added since the last commit and removed again were never committed
+                if(!fAddedIds.remove(id) || fRemovedIds.contains(id)) {
+                    fRemovedIds.add(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param eObject A folder or an element of a folder
+     * @return eObject and, if it is a folder, all the folders and elements inside it
+     */
+    private List<EObject> getFileRoots(EObject eObject) {
+        List<EObject> roots = new ArrayList<EObject>();
+        roots.add(eObject);
+
+        if(eObject instanceof IFolder) {
+            for(Iterator<EObject> iter = eObject.eAllContents(); iter.hasNext();) {
+                EObject child = iter.next();
+                if(child instanceof IFolder || child.eContainer() instanceof IFolder) {
+                    roots.add(child);
+                }
+            }
+        }
+
+        return roots;
+    }
+
+    private void checkImages(Object value) {
+        if(fImagesChanged) {
+            return;
+        }
+
+        if(value instanceof Collection) {
+            for(Object o : (Collection<?>)value) {
+                checkImages(o);
+            }
+        }
+        else if(value instanceof IDiagramModelImageProvider) {
+            fImagesChanged = true;
+        }
+        else if(value instanceof EObject) {
+            for(Iterator<EObject> iter = ((EObject)value).eAllContents(); iter.hasNext() && !fImagesChanged;) {
+                fImagesChanged = iter.next() instanceof IDiagramModelImageProvider;
+            }
+        }
+    }
+
+    /**
+     * Set whether changes are recorded. New contents of the model are still tracked while changes are not recorded.
+     *
+     * @param recording
+     */
+    void setRecording(boolean recording) {
+        fRecording = recording;
+    }
+
+    /**
+     * @return The time in milliseconds of the last change that is saved, including undo and redo, or of attaching the recorder
+     */
+    public long getLastChangeTime() {
+        return fLastChangeTime;
+    }
+
+    /**
+     * @return True if changes were recorded since the last reset
+     */
+    public boolean hasChanges() {
+        return fFullExportRequired || fImagesChanged || !fDirtyObjects.isEmpty() || !fRemovedPaths.isEmpty();
+    }
+
+    /**
+     * @return True if the changes can't be limited to some files and the whole model has to be exported
+     */
+    public boolean isFullExportRequired() {
+        return fFullExportRequired;
+    }
+
+    /**
+     * Record that the whole model has to be exported, for example because the files it was loaded from were not committed
+     */
+    public void requireFullExport() {
+        fFullExportRequired = true;
+    }
+
+    /**
+     * @return True if images were added to or removed from the model
+     */
+    public boolean hasImageChanges() {
+        return fImagesChanged;
+    }
+
+    /**
+     * @return The objects whose file has to be saved. They may have been removed from the model since.
+     */
+    public Set<EObject> getDirtyObjects() {
+        return Collections.unmodifiableSet(fDirtyObjects);
+    }
+
+    /**
+     * @return The paths, relative to the repository, of the files and directories of objects removed from their folder
+     */
+    public Set<String> getRemovedPaths() {
+        return Collections.unmodifiableSet(fRemovedPaths);
+    }
+
+    /**
+     * @return Ids of folders and elements added to the model
+     */
+    public Set<String> getAddedIds() {
+        Set<String> ids = new HashSet<String>(fAddedIds);
+        ids.removeAll(fRemovedIds);
+        return ids;
+    }
+
+    /**
+     * @return Ids of folders and elements that were changed but stayed in the same folder
+     */
+    public Set<String> getModifiedIds() {
+        Set<String> ids = new HashSet<String>(fModifiedIds);
+        ids.removeAll(fAddedIds);
+        ids.removeAll(fRemovedIds);
+        return ids;
+    }
+
+    /**
+     * @return Ids of folders and elements that were removed from a folder and added to the model again
+     */
+    public Set<String> getMovedIds() {
+        Set<String> ids = new HashSet<String>(fAddedIds);
+        ids.retainAll(fRemovedIds);
+        return ids;
+    }
+
+    /**
+     * @return Ids of folders and elements that were deleted
+     */
+    public Set<String> getDeletedIds() {
+        Set<String> ids = new HashSet<String>(fRemovedIds);
+        ids.removeAll(fAddedIds);
+        return ids;
+    }
+
+    /**
+     * Forget all changes, after the model has been committed
+     */
+    public void reset() {
+        fDirtyObjects.clear();
+        fRemovedPaths.clear();
+        fAddedIds.clear();
+        fModifiedIds.clear();
+        fRemovedIds.clear();
+        fFullExportRequired = false;
+        fImagesChanged = false;
+    }
+}
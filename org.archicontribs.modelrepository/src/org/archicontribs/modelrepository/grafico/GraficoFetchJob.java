@@ -0,0 +1,251 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.authentication.SimpleCredentialsStorage;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+
+
+/**
+ * Fetches the repositories in the user's repository folder in the background, every few minutes,
+ * and keeps the number of commits each one is ahead and behind the remote.
+ *
+ * Only repositories whose credentials are stored are fetched, as the user can't be asked for them.
+ * The interval is set in the preferences, and each run is moved by a random part of it so that
+ * users do not all fetch at the same time.
+ */
+public class GraficoFetchJob extends Job {
+
+    /**
+     * The last known state of a repository compared to its remote
+     */
+    public static class TrackingStatus {
+        private final int fAhead;
+        private final int fBehind;
+        private final long fFetchTime;
+
+        TrackingStatus(int ahead, int behind, long fetchTime) {
+            fAhead = ahead;
+            fBehind = behind;
+            fFetchTime = fetchTime;
+        }
+
+        /**
+         * @return The number of local commits that are not published
+         */
+        public int getAhead() {
+            return fAhead;
+        }
+
+        /**
+         * @return The number of fetched commits that are not merged
+         */
+        public int getBehind() {
+            return fBehind;
+        }
+
+        /**
+         * @return The time of the last fetch in milliseconds
+         */
+        public long getFetchTime() {
+            return fFetchTime;
+        }
+    }
+
+    // Local Git folder -> tracking status
+    private static final Map<File, TrackingStatus> STATUS = new ConcurrentHashMap<File, TrackingStatus>();
+
+    private static GraficoFetchJob job;
+
+    private static final IPropertyChangeListener PREFERENCE_LISTENER = new IPropertyChangeListener() {
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            String property = event.getProperty();
+            if(IPreferenceConstants.PREFS_FETCH_INTERVAL.equals(property) || IPreferenceConstants.PREFS_FETCH_JITTER.equals(property)) {
+                reschedule();
+            }
+        }
+    };
+
+    // Delay of the first fetch after start up
+    private static final long START_DELAY = 60000;
+
+    private final Random fRandom = new Random();
+
+    /**
+     * Start fetching in the background
+     */
+    public static synchronized void start() {
+        if(job == null) {
+            job = new GraficoFetchJob();
+            ModelRepositoryPlugin.INSTANCE.getPreferenceStore().addPropertyChangeListener(PREFERENCE_LISTENER);
+            if(getInterval() > 0) {
+                job.schedule(START_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Stop fetching in the background
+     */
+    public static synchronized void stop() {
+        if(job != null) {
+            ModelRepositoryPlugin.INSTANCE.getPreferenceStore().removePropertyChangeListener(PREFERENCE_LISTENER);
+            job.cancel();
+            job = null;
+        }
+    }
+
+    private static synchronized void reschedule() {
+        if(job != null) {
+            job.cancel();
+            job.scheduleNext();
+        }
+    }
+
+    /**
+     * @param localGitFolder
+     * @return The tracking status of the repository, or null if it has not been fetched in the background
+     */
+    public static TrackingStatus getTrackingStatus(File localGitFolder) {
+        return STATUS.get(localGitFolder.getAbsoluteFile());
+    }
+
+    /**
+     * @param localGitFolder
+     * @return True if the repository was fetched in the background during the last two fetch intervals, allowing for jitter,
+     *         so a refresh that can't reach the remote can still merge what was fetched
+     */
+    public static boolean isFetched(File localGitFolder) {
+        return isFetched(getTrackingStatus(localGitFolder), getInterval(), System.currentTimeMillis());
+    }
+
+    static boolean isFetched(TrackingStatus status, long interval, long now) {
+        return status != null && interval > 0 && now - status.getFetchTime() < interval * 2;
+    }
+
+    /**
+     * Record that the repository was fetched now, outside of this job, for example by a pull.
+     * Nothing is done if the repository is not fetched in the background.
+     *
+     * @param localGitFolder
+     */
+    public static void setFetched(File localGitFolder) {
+        if(getTrackingStatus(localGitFolder) != null) {
+            setTrackingStatus(localGitFolder, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Count the commits ahead and behind again after the repository was changed locally, for example by a commit, merge or push.
+     * Nothing is done if the repository is not fetched in the background.
+     *
+     * @param localGitFolder
+     */
+    public static void updateTrackingStatus(File localGitFolder) {
+        TrackingStatus status = getTrackingStatus(localGitFolder);
+        if(status != null) {
+            setTrackingStatus(localGitFolder, status.getFetchTime());
+        }
+    }
+
+    private static void setTrackingStatus(File localGitFolder, long fetchTime) {
+        File key = localGitFolder.getAbsoluteFile();
+
+        try {
+            int[] counts = GraficoUtils.getAheadBehindCounts(localGitFolder);
+            if(counts != null) {
+                STATUS.put(key, new TrackingStatus(counts[0], counts[1], fetchTime));
+                return;
+            }
+        }
+        catch(IOException ex) {
+            ex.printStackTrace();
+        }
+
+        STATUS.remove(key);
+    }
+
+    /**
+     * @return The fetch interval in milliseconds, or 0 if fetching in the background is off
+     */
+    private static long getInterval() {
+        IPreferenceStore store = ModelRepositoryPlugin.INSTANCE.getPreferenceStore();
+        return Math.max(0, store.getInt(IPreferenceConstants.PREFS_FETCH_INTERVAL)) * 60000L;
+    }
+
+    private GraficoFetchJob() {
+        super(Messages.GraficoFetchJob_0);
+        setSystem(true);
+    }
+
+    private void scheduleNext() {
+        long interval = getInterval();
+        if(interval > 0) {
+            // Jitter is a percentage of the interval, either way
+            int jitter = Math.min(100, Math.max(0, ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getInt(IPreferenceConstants.PREFS_FETCH_JITTER)));
+            long maxJitter = interval * jitter / 100;
+            long delay = interval + (maxJitter > 0 ? (long)((fRandom.nextDouble() * 2 - 1) * maxJitter) : 0);
+            schedule(Math.max(0, delay));
+        }
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        File[] repositories = GraficoUtils.getGitRepositories(ModelRepositoryPlugin.INSTANCE.getUserModelRepositoryFolder());
+        monitor.beginTask(getName(), repositories.length);
+
+        for(File localGitFolder : repositories) {
+            if(monitor.isCanceled()) {
+                return Status.CANCEL_STATUS;
+            }
+            fetch(localGitFolder);
+            monitor.worked(1);
+        }
+
+        monitor.done();
+
+        synchronized(GraficoFetchJob.class) {
+            if(job == this) {
+                scheduleNext();
+            }
+        }
+
+        return Status.OK_STATUS;
+    }
+
+    private void fetch(File localGitFolder) {
+        SimpleCredentialsStorage sc = new SimpleCredentialsStorage(localGitFolder);
+        if(!sc.hasCredentialsFile()) {
+            return;
+        }
+
+        try {
+            GraficoUtils.fetchFromRemote(localGitFolder, sc.getUserName(), sc.getUserPassword(), NullProgressMonitor.INSTANCE);
+            setTrackingStatus(localGitFolder, System.currentTimeMillis());
+        }
+        catch(IOException | GitAPIException ex) {
+            // Offline or the remote is not there, a refresh pulls as usual
+            STATUS.remove(localGitFolder.getAbsoluteFile());
+        }
+    }
+}
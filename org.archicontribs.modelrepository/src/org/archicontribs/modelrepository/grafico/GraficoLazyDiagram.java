@@ -0,0 +1,370 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModel;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelComponent;
+import com.archimatetool.model.IDiagramModelConnection;
+import com.archimatetool.model.IDiagramModelReference;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+import com.archimatetool.model.IIdentifier;
+
+
+/**
+ * Marks a diagram model that was imported with only the attributes of its file's root element,
+ * and loads the rest of the file into it when it is needed.
+ *
+ * Loading a diagram model is not a change to the model, so it is not recorded by the model's GraficoChangeRecorder.
+ * The references from the diagram model's objects to elements and relationships are resolved against the model as it is then,
+ * and their cross-references are set. Objects that refer to concepts that are no longer in the model are deleted from the diagram,
+ * as they would have been if it had been loaded when the concepts were deleted, and the diagram model is then recorded as changed.
+ *
+ * A model with diagram models that are not loaded must not be opened in Archi. Archi tells where elements and relationships are used
+ * from the diagram objects that refer to them, and saves the model as it is.
+ */
+public class GraficoLazyDiagram extends AdapterImpl {
+
+    /**
+     * Mark a diagram model as not loaded
+     *
+     * @param dm
+     * @param file The file to load it from
+     */
+    static void attach(IDiagramModel dm, File file) {
+        // The features set now are those read from the file's root element
+        Set<EStructuralFeature> indexFeatures = new HashSet<EStructuralFeature>();
+        for(EStructuralFeature feature : dm.eClass().getEAllStructuralFeatures()) {
+            if(dm.eIsSet(feature)) {
+                indexFeatures.add(feature);
+            }
+        }
+        
+        dm.eAdapters().add(new GraficoLazyDiagram(file, indexFeatures));
+    }
+
+    /**
+     * @param dm
+     * @return True if the contents of the diagram model are loaded
+     */
+    public static boolean isLoaded(IDiagramModel dm) {
+        return getLazyDiagram(dm) == null;
+    }
+
+    /**
+     * Load the contents of a diagram model if they are not loaded
+     *
+     * @param dm
+     * @throws IOException
+     */
+    public static void load(IDiagramModel dm) throws IOException {
+        File file = getFile(dm);
+        if(file != null) {
+            setContents(dm, readContents(dm, file));
+        }
+    }
+
+    /**
+     * Load the contents of all the diagram models of a model that are not loaded, before anything that needs the whole model
+     *
+     * @param model
+     * @throws IOException
+     */
+    public static void loadAll(IArchimateModel model) throws IOException {
+        for(IDiagramModel dm : getUnloadedDiagramModels(model)) {
+            load(dm);
+        }
+    }
+
+    /**
+     * @param model
+     * @return The diagram models of the model whose contents are not loaded
+     */
+    public static List<IDiagramModel> getUnloadedDiagramModels(IArchimateModel model) {
+        List<IDiagramModel> diagramModels = new ArrayList<IDiagramModel>();
+        addUnloadedDiagramModels(model, diagramModels);
+        return diagramModels;
+    }
+
+    private static void addUnloadedDiagramModels(IFolderContainer folderContainer, List<IDiagramModel> diagramModels) {
+        for(IFolder folder : folderContainer.getFolders()) {
+            for(EObject element : folder.getElements()) {
+                if(element instanceof IDiagramModel && !isLoaded((IDiagramModel)element)) {
+                    diagramModels.add((IDiagramModel)element);
+                }
+            }
+            addUnloadedDiagramModels(folder, diagramModels);
+        }
+    }
+
+    /**
+     * @param dm
+     * @return The file to load the contents of the diagram model from, or null if they are loaded
+     */
+    public static File getFile(IDiagramModel dm) {
+        GraficoLazyDiagram lazyDiagram = getLazyDiagram(dm);
+        return lazyDiagram == null ? null : lazyDiagram.fFile;
+    }
+
+    /**
+     * Read the file of a diagram model. This does not change the diagram model and can be called from any thread.
+     *
+     * @param dm
+     * @param file The file of dm
+     * @return The diagram model read from the file, to pass to {@link #setContents(IDiagramModel, IDiagramModel)}
+     * @throws IOException
+     */
+    public static IDiagramModel readContents(IDiagramModel dm, File file) throws IOException {
+        EObject eObject = GraficoModelImporter.loadFromFile(file);
+
+        // The file was changed since the model was imported
+        if(eObject.eClass() != dm.eClass() || !dm.getId().equals(((IDiagramModel)eObject).getId())) {
+            throw new IOException("File has changed: " + file); //$NON-NLS-1$
+        }
+
+        return (IDiagramModel)eObject;
+    }
+
+    /**
+     * Set the contents of a diagram model to those read from its file, if they are not loaded
+     *
+     * @param dm
+     * @param contents The diagram model returned by {@link #readContents(IDiagramModel, File)}
+     */
+    public static void setContents(IDiagramModel dm, IDiagramModel contents) {
+        GraficoLazyDiagram lazyDiagram = getLazyDiagram(dm);
+        if(lazyDiagram == null || contents == null) {
+            return;
+        }
+
+        List<EObject> proxyHolders = new ArrayList<EObject>();
+        for(Iterator<EObject> iter = contents.eAllContents(); iter.hasNext();) {
+            GraficoModelImporter.addProxyHolder(iter.next(), proxyHolders);
+        }
+
+        EObject root = EcoreUtil.getRootContainer(dm);
+        IArchimateModel model = root instanceof IArchimateModel ? (IArchimateModel)root : null;
+        Map<String, IIdentifier> idLookup = new HashMap<String, IIdentifier>();
+        if(model != null && !proxyHolders.isEmpty()) {
+            addFileRoots(model, idLookup);
+        }
+
+        GraficoChangeRecorder recorder = model != null ? GraficoChangeRecorder.getRecorder(model) : null;
+        List<IDiagramModelComponent> unresolved = new ArrayList<IDiagramModelComponent>();
+
+        if(recorder != null) {
+            recorder.setRecording(false);
+        }
+
+        try {
+            for(EObject proxyHolder : proxyHolders) {
+                if(!resolveProxies(proxyHolder, idLookup)) {
+                    unresolved.add((IDiagramModelComponent)proxyHolder);
+                }
+            }
+
+            moveContents(contents, dm, lazyDiagram.fIndexFeatures);
+            dm.eAdapters().remove(lazyDiagram);
+        }
+        finally {
+            if(recorder != null) {
+                recorder.setRecording(true);
+            }
+        }
+
+        // Deleting objects is a change to the diagram model
+        for(IDiagramModelComponent component : unresolved) {
+            if(EcoreUtil.isAncestor(dm, component)) {
+                if(ModelRepositoryPlugin.INSTANCE != null) {
+                    ModelRepositoryPlugin.INSTANCE.getLog().log(new Status(IStatus.WARNING, ModelRepositoryPlugin.PLUGIN_ID,
+                            String.format(Messages.GraficoLazyDiagram_0, component.getId(), dm.getName())));
+                }
+                delete(dm, component);
+            }
+        }
+
+        // Update cross-references
+        for(EObject proxyHolder : proxyHolders) {
+            if(!EcoreUtil.isAncestor(dm, proxyHolder)) {
+                continue;
+            }
+            if(proxyHolder instanceof IDiagramModelArchimateObject) {
+                IDiagramModelArchimateObject dmo = (IDiagramModelArchimateObject)proxyHolder;
+                dmo.getArchimateElement().getReferencingDiagramObjects().add(dmo);
+            }
+            else if(proxyHolder instanceof IDiagramModelArchimateConnection) {
+                IDiagramModelArchimateConnection connection = (IDiagramModelArchimateConnection)proxyHolder;
+                connection.getArchimateRelationship().getReferencingDiagramConnections().add(connection);
+            }
+        }
+    }
+
+    private static GraficoLazyDiagram getLazyDiagram(IDiagramModel dm) {
+        for(Adapter adapter : dm.eAdapters()) {
+            if(adapter instanceof GraficoLazyDiagram) {
+                return (GraficoLazyDiagram)adapter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add the objects saved in their own file, the only ones that are referred to from other files
+     */
+    private static void addFileRoots(IFolderContainer folderContainer, Map<String, IIdentifier> idLookup) {
+        for(IFolder folder : folderContainer.getFolders()) {
+            for(EObject element : folder.getElements()) {
+                if(element instanceof IIdentifier) {
+                    idLookup.put(((IIdentifier)element).getId(), (IIdentifier)element);
+                }
+            }
+            addFileRoots(folder, idLookup);
+        }
+    }
+
+    /**
+     * Replace the proxy of a proxy holder by the object it refers to
+     *
+     * @return False if the object is not in the model
+     */
+    private static boolean resolveProxies(EObject proxyHolder, Map<String, IIdentifier> idLookup) {
+        if(proxyHolder instanceof IDiagramModelArchimateObject) {
+            IDiagramModelArchimateObject dmo = (IDiagramModelArchimateObject)proxyHolder;
+            EObject element = resolve(dmo.getArchimateElement(), idLookup);
+            if(element instanceof IArchimateElement) {
+                dmo.setArchimateElement((IArchimateElement)element);
+                return true;
+            }
+        }
+        else if(proxyHolder instanceof IDiagramModelArchimateConnection) {
+            IDiagramModelArchimateConnection connection = (IDiagramModelArchimateConnection)proxyHolder;
+            EObject relationship = resolve(connection.getArchimateRelationship(), idLookup);
+            if(relationship instanceof IArchimateRelationship) {
+                connection.setArchimateRelationship((IArchimateRelationship)relationship);
+                return true;
+            }
+        }
+        else if(proxyHolder instanceof IDiagramModelReference) {
+            IDiagramModelReference reference = (IDiagramModelReference)proxyHolder;
+            EObject referencedModel = resolve(reference.getReferencedModel(), idLookup);
+            if(referencedModel instanceof IDiagramModel) {
+                reference.setReferencedModel((IDiagramModel)referencedModel);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static EObject resolve(EObject object, Map<String, IIdentifier> idLookup) {
+        if(object != null && object.eIsProxy()) {
+            return idLookup.get(((InternalEObject)object).eProxyURI().fragment());
+        }
+        return object;
+    }
+
+    /**
+     * Move the saved features of source that were not read with the index to target.
+     * Target keeps the changes made to it before it was loaded, which are added to or replace what is moved.
+     */
+    @SuppressWarnings("unchecked")
+    private static void moveContents(EObject source, EObject target, Set<EStructuralFeature> indexFeatures) {
+        for(EStructuralFeature feature : source.eClass().getEAllStructuralFeatures()) {
+            if(!feature.isChangeable() || feature.isDerived() || feature.isTransient() || !source.eIsSet(feature) || indexFeatures.contains(feature)) {
+                continue;
+            }
+
+            if(feature.isMany()) {
+                // Copy the list first as containment removes the values from source
+                ((EList<Object>)target.eGet(feature)).addAll(0, new ArrayList<Object>((EList<Object>)source.eGet(feature)));
+            }
+            else if(!target.eIsSet(feature)) {
+                target.eSet(feature, source.eGet(feature));
+            }
+        }
+    }
+
+    /**
+     * Delete a component from a diagram model with the connections to and from it and its children
+     */
+    private static void delete(IDiagramModel dm, IDiagramModelComponent component) {
+        Set<EObject> deleted = new HashSet<EObject>();
+        deleted.add(component);
+        for(Iterator<EObject> iter = component.eAllContents(); iter.hasNext();) {
+            deleted.add(iter.next());
+        }
+
+        List<IDiagramModelConnection> connections = new ArrayList<IDiagramModelConnection>();
+        for(Iterator<EObject> iter = dm.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IDiagramModelConnection) {
+                connections.add((IDiagramModelConnection)eObject);
+            }
+        }
+
+        // Connections can be connected to deleted connections
+        boolean found = true;
+        while(found) {
+            found = false;
+            for(IDiagramModelConnection connection : connections) {
+                if(!deleted.contains(connection) && (deleted.contains(connection.getSource()) || deleted.contains(connection.getTarget()))) {
+                    deleted.add(connection);
+                    found = true;
+                }
+            }
+        }
+
+        for(IDiagramModelConnection connection : connections) {
+            if(deleted.contains(connection)) {
+                connection.disconnect();
+            }
+        }
+
+        if(!(component instanceof IDiagramModelConnection)) {
+            EcoreUtil.remove(component);
+        }
+    }
+
+    private File fFile;
+    
+    // Features of the diagram model read from the file's root element when it was imported
+    private Set<EStructuralFeature> fIndexFeatures;
+
+    private GraficoLazyDiagram(File file, Set<EStructuralFeature> indexFeatures) {
+        fFile = file;
+        fIndexFeatures = indexFeatures;
+    }
+
+    @Override
+    public boolean isAdapterForType(Object type) {
+        return type == GraficoLazyDiagram.class;
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.impl.ENotificationImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+import com.archimatetool.editor.model.IArchiveManager;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimatePackage;
+import com.archimatetool.model.IDiagramModel;
+import com.archimatetool.model.IDiagramModelImageProvider;
+
+
+/**
+ * Holds the image files of a model that were imported by path only, and adds them to the model's IArchiveManager
+ * when they are loaded for a diagram model that shows them.
+ *
+ * Images that are not added to the IArchiveManager are read from their file when the model is exported,
+ * so the model does not keep them in memory. Archi only reads images from the IArchiveManager,
+ * so models with images that are not loaded must not be opened in Archi.
+ */
+public class GraficoLazyImages extends AdapterImpl {
+
+    /**
+     * Record the image files of a model
+     *
+     * @param model
+     * @param files Image path, as used by the IArchiveManager -> File
+     */
+    static void attach(IArchimateModel model, Map<String, File> files) {
+        if(!files.isEmpty()) {
+            model.eAdapters().add(new GraficoLazyImages(files));
+        }
+    }
+
+    /**
+     * Add the images shown by a diagram model that are not loaded to the model's IArchiveManager.
+     * The image providers that show them are notified so that open editors show the images.
+     *
+     * @param dm
+     * @throws IOException
+     */
+    public static void load(IDiagramModel dm) throws IOException {
+        EObject root = EcoreUtil.getRootContainer(dm);
+        GraficoLazyImages lazyImages = root instanceof IArchimateModel ? getLazyImages((IArchimateModel)root) : null;
+        if(lazyImages == null) {
+            return;
+        }
+
+        IArchimateModel model = (IArchimateModel)root;
+        IArchiveManager archiveManager = IArchiveManager.FACTORY.createArchiveManager(model);
+
+        List<IDiagramModelImageProvider> imageProviders = new ArrayList<IDiagramModelImageProvider>();
+        Set<String> loadedPaths = new HashSet<String>();
+
+        for(Iterator<EObject> iter = dm.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IDiagramModelImageProvider && ((IDiagramModelImageProvider)eObject).getImagePath() != null) {
+                IDiagramModelImageProvider imageProvider = (IDiagramModelImageProvider)eObject;
+                imageProviders.add(imageProvider);
+
+                String imagePath = imageProvider.getImagePath();
+                File file = lazyImages.remove(imagePath);
+                if(file != null) {
+                    archiveManager.addByteContentEntry(imagePath, Files.readAllBytes(file.toPath()));
+                    loadedPaths.add(imagePath);
+                }
+            }
+        }
+
+        if(lazyImages.isEmpty()) {
+            model.eAdapters().remove(lazyImages);
+        }
+
+        // The image path is the same, but figures show the image again when it is set
+        for(IDiagramModelImageProvider imageProvider : imageProviders) {
+            String imagePath = imageProvider.getImagePath();
+            if(loadedPaths.contains(imagePath) && ((InternalEObject)imageProvider).eNotificationRequired()) {
+                imageProvider.eNotify(new ENotificationImpl((InternalEObject)imageProvider, Notification.SET,
+                        IArchimatePackage.Literals.DIAGRAM_MODEL_IMAGE_PROVIDER__IMAGE_PATH, imagePath, imagePath));
+            }
+        }
+    }
+
+    /**
+     * @param model
+     * @param imagePath
+     * @return The bytes of an image of the model, from its IArchiveManager or from the image's file if it is not loaded
+     * @throws IOException
+     */
+    public static byte[] getBytes(IArchimateModel model, String imagePath) throws IOException {
+        byte[] bytes = IArchiveManager.FACTORY.createArchiveManager(model).getBytesFromEntry(imagePath);
+        if(bytes != null) {
+            return bytes;
+        }
+
+        GraficoLazyImages lazyImages = getLazyImages(model);
+        File file = lazyImages == null ? null : lazyImages.get(imagePath);
+        return file == null ? null : Files.readAllBytes(file.toPath());
+    }
+
+    private static GraficoLazyImages getLazyImages(IArchimateModel model) {
+        for(Adapter adapter : model.eAdapters()) {
+            if(adapter instanceof GraficoLazyImages) {
+                return (GraficoLazyImages)adapter;
+            }
+        }
+        return null;
+    }
+
+    // Image path -> File, for images not added to the IArchiveManager. Exports can read it from another thread.
+    private Map<String, File> fFiles;
+
+    private GraficoLazyImages(Map<String, File> files) {
+        fFiles = files;
+    }
+
+    private synchronized File get(String imagePath) {
+        return fFiles.get(imagePath);
+    }
+
+    private synchronized File remove(String imagePath) {
+        return fFiles.remove(imagePath);
+    }
+
+    private synchronized boolean isEmpty() {
+        return fFiles.isEmpty();
+    }
+
+    @Override
+    public boolean isAdapterForType(Object type) {
+        return type == GraficoLazyImages.class;
+    }
+}
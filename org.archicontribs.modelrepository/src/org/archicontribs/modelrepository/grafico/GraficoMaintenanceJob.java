@@ -0,0 +1,216 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.GC.RepoStatistics;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.EmptyProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.PlatformUI;
+
+import com.archimatetool.model.IArchimateModel;
+
+
+/**
+ * Packs the repositories in the user's repository folder in the background, like git gc --auto.
+ *
+ * Each commit writes a loose object for each changed file, which makes repositories slower and bigger over time.
+ * A repository is garbage collected, which packs its objects and refs and prunes old unreachable objects,
+ * when it has more loose objects or pack files than set in the preferences.
+ * Repositories that are in use, or that were committed to or whose open model was changed lately, are left for the next check.
+ * The garbage collection uses a Repository of its own, so Grafico operations do not wait for it to finish.
+ */
+public class GraficoMaintenanceJob extends Job {
+
+    private static GraficoMaintenanceJob job;
+
+    // Delay of the first check after start up
+    private static final long START_DELAY = 5 * 60000;
+
+    // Time between checks
+    private static final long CHECK_INTERVAL = 30 * 60000;
+
+    /**
+     * Time in milliseconds without commits or changes to the open model after which a repository can be garbage collected
+     */
+    static final long IDLE_TIME = 15 * 60000;
+
+    /**
+     * Start checking in the background
+     */
+    public static synchronized void start() {
+        if(job == null) {
+            job = new GraficoMaintenanceJob();
+            job.schedule(START_DELAY);
+        }
+    }
+
+    /**
+     * Stop checking in the background
+     */
+    public static synchronized void stop() {
+        if(job != null) {
+            job.cancel();
+            job = null;
+        }
+    }
+
+    /**
+     * Garbage collect a repository if it has more loose objects or pack files than allowed and nothing else is using it.
+     *
+     * @param localGitFolder
+     * @param maxLooseObjects The number of loose objects allowed, or 0 for any number
+     * @param maxPackFiles The number of pack files allowed, or 0 for any number
+     * @param monitor
+     * @return True if the repository was garbage collected
+     * @throws IOException
+     */
+    static boolean gcIfNeeded(File localGitFolder, long maxLooseObjects, long maxPackFiles, ProgressMonitor monitor) throws IOException {
+        try(Git git = GraficoRepositoryRegistry.openUnshared(localGitFolder)) {
+            if(git == null) {
+                return false;
+            }
+            
+            Repository repository = git.getRepository();
+            if(!(repository instanceof FileRepository)) {
+                return false;
+            }
+            
+            GC gc = new GC((FileRepository)repository);
+            RepoStatistics statistics = gc.getStatistics();
+
+            if((maxLooseObjects > 0 && statistics.numberOfLooseObjects > maxLooseObjects) || (maxPackFiles > 0 && statistics.numberOfPackFiles > maxPackFiles)) {
+                // Writing bitmap indexes needs JavaEWAH, which is not in this plug-in's lib folder
+                PackConfig packConfig = new PackConfig(repository);
+                packConfig.setBuildBitmaps(false);
+                gc.setPackConfig(packConfig);
+                gc.setProgressMonitor(monitor);
+                
+                try {
+                    gc.gc();
+                }
+                catch(ParseException ex) {
+                    // gc.pruneexpire is not a date
+                    throw new IOException(ex);
+                }
+                
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * @param localGitFolder
+     * @param lastModelChangeTime The time of the last change to the open model, or 0 if the model is not open
+     * @param now
+     * @return True if nothing was committed to the repository, which is logged in HEAD's reflog, and the open model was not changed for IDLE_TIME
+     */
+    static boolean isIdle(File localGitFolder, long lastModelChangeTime, long now) {
+        File headLog = new File(localGitFolder, Constants.DOT_GIT + "/" + Constants.LOGS + "/" + Constants.HEAD); //$NON-NLS-1$ //$NON-NLS-2$
+        long lastActivityTime = Math.max(headLog.lastModified(), lastModelChangeTime);
+        return now - lastActivityTime >= IDLE_TIME;
+    }
+
+    /**
+     * @param localGitFolder
+     * @return The time of the last change to the model of the repository if it is open, or 0.
+     *         The models open in Archi are read on the UI thread.
+     */
+    private static long getLastModelChangeTime(final File localGitFolder) {
+        Display display = PlatformUI.isWorkbenchRunning() ? PlatformUI.getWorkbench().getDisplay() : null;
+        if(display == null || display.isDisposed()) {
+            return 0;
+        }
+
+        final long[] time = new long[1];
+
+        display.syncExec(new Runnable() {
+            @Override
+            public void run() {
+                IArchimateModel model = GraficoUtils.locateModel(localGitFolder);
+                if(model != null) {
+                    GraficoChangeRecorder recorder = GraficoChangeRecorder.getRecorder(model);
+                    // Changes of a model that was not loaded from the repository are not known, so it is taken as changed now
+                    time[0] = recorder != null ? recorder.getLastChangeTime() : System.currentTimeMillis();
+                }
+            }
+        });
+
+        return time[0];
+    }
+
+    private GraficoMaintenanceJob() {
+        super(Messages.GraficoMaintenanceJob_0);
+        setSystem(true);
+        setPriority(DECORATE);
+    }
+
+    @Override
+    protected IStatus run(final IProgressMonitor monitor) {
+        IPreferenceStore store = ModelRepositoryPlugin.INSTANCE.getPreferenceStore();
+        int maxLooseObjects = store.getInt(IPreferenceConstants.PREFS_GC_LOOSE_OBJECTS);
+        int maxPackFiles = store.getInt(IPreferenceConstants.PREFS_GC_PACK_FILES);
+
+        if(maxLooseObjects > 0 || maxPackFiles > 0) {
+            File[] repositories = GraficoUtils.getGitRepositories(ModelRepositoryPlugin.INSTANCE.getUserModelRepositoryFolder());
+            monitor.beginTask(getName(), repositories.length);
+
+            ProgressMonitor gcMonitor = new EmptyProgressMonitor() {
+                @Override
+                public boolean isCancelled() {
+                    return monitor.isCanceled();
+                }
+            };
+
+            for(File localGitFolder : repositories) {
+                if(monitor.isCanceled()) {
+                    return Status.CANCEL_STATUS;
+                }
+
+                // Not while the user is working on it
+                if(isIdle(localGitFolder, getLastModelChangeTime(localGitFolder), System.currentTimeMillis())) {
+                    try {
+                        gcIfNeeded(localGitFolder, maxLooseObjects, maxPackFiles, gcMonitor);
+                    }
+                    catch(IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+
+                monitor.worked(1);
+            }
+
+            monitor.done();
+        }
+
+        synchronized(GraficoMaintenanceJob.class) {
+            if(job == this) {
+                schedule(CHECK_INTERVAL);
+            }
+        }
+
+        return Status.OK_STATUS;
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+
+
+/**
+ * Wall time, files, bytes and allocated memory of each phase of an import or export.
+ *
+ * Phases may count files and allocations from several threads. Allocations are only measured if the JVM supports it.
+ * The metrics are written to the error log if the "debug/metrics" tracing option of this plug-in is set.
+ */
+public class GraficoMetrics {
+
+    /**
+     * Tracing option that writes the metrics of each import and export to the error log
+     */
+    public static final String DEBUG_METRICS = ModelRepositoryPlugin.PLUGIN_ID + "/debug/metrics"; //$NON-NLS-1$
+
+    /**
+     * One phase of an import or export
+     */
+    public static class Phase {
+        private final String fName;
+        private final long fStartTime;
+        private final long fStartAllocatedBytes;
+        private long fTime = -1;
+
+        private final AtomicInteger fFileCount = new AtomicInteger();
+        private final AtomicLong fBytes = new AtomicLong();
+        private final AtomicLong fAllocatedBytes = new AtomicLong();
+
+        private Phase(String name) {
+            fName = name;
+            fStartAllocatedBytes = getAllocatedBytes();
+            fStartTime = System.nanoTime();
+        }
+
+        /**
+         * @return The name of the phase
+         */
+        public String getName() {
+            return fName;
+        }
+
+        /**
+         * @return The wall time of the phase in nanoseconds, or -1 if it did not end
+         */
+        public long getTime() {
+            return fTime;
+        }
+
+        /**
+         * @return The number of files read or written
+         */
+        public int getFileCount() {
+            return fFileCount.get();
+        }
+
+        /**
+         * @return The number of bytes of the files read or written
+         */
+        public long getBytes() {
+            return fBytes.get();
+        }
+
+        /**
+         * @return The number of bytes allocated by the threads that worked on the phase, or -1 if this is not measured
+         */
+        public long getAllocatedBytes() {
+            return fStartAllocatedBytes < 0 ? -1 : fAllocatedBytes.get();
+        }
+
+        /**
+         * Count files read or written. This can be called from any thread.
+         *
+         * @param count
+         * @param bytes
+         */
+        void addFiles(int count, long bytes) {
+            fFileCount.addAndGet(count);
+            fBytes.addAndGet(bytes);
+        }
+
+        /**
+         * Count the memory allocated by the current thread, for work done on another thread than the one that started the phase
+         *
+         * @param startAllocatedBytes The value of {@link GraficoMetrics#getAllocatedBytes()} when the current thread started the work
+         */
+        void addAllocatedBytes(long startAllocatedBytes) {
+            long allocatedBytes = GraficoMetrics.getAllocatedBytes();
+            if(startAllocatedBytes >= 0 && allocatedBytes >= 0) {
+                fAllocatedBytes.addAndGet(allocatedBytes - startAllocatedBytes);
+            }
+        }
+
+        private void end() {
+            fTime = System.nanoTime() - fStartTime;
+            addAllocatedBytes(fStartAllocatedBytes);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(fName).append(": ").append(fTime / 1000000).append(" ms"); //$NON-NLS-1$ //$NON-NLS-2$
+            if(getFileCount() > 0) {
+                sb.append(", ").append(getFileCount()).append(" files, ").append(getBytes()).append(" bytes"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            }
+            if(getAllocatedBytes() >= 0) {
+                sb.append(", ").append(getAllocatedBytes()).append(" bytes allocated"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            return sb.toString();
+        }
+    }
+
+    // Methods of com.sun.management.ThreadMXBean, which is not part of Java SE, or null if the JVM does not have them
+    private static final Method IS_ALLOCATED_MEMORY_ENABLED;
+    private static final Method GET_ALLOCATED_BYTES;
+
+    static {
+        Method isEnabled = null;
+        Method getBytes = null;
+        try {
+            Class<?> sunThreadBean = Class.forName("com.sun.management.ThreadMXBean"); //$NON-NLS-1$
+            if(sunThreadBean.isInstance(ManagementFactory.getThreadMXBean())) {
+                isEnabled = sunThreadBean.getMethod("isThreadAllocatedMemoryEnabled"); //$NON-NLS-1$
+                getBytes = sunThreadBean.getMethod("getThreadAllocatedBytes", long.class); //$NON-NLS-1$
+            }
+        }
+        catch(ReflectiveOperationException | LinkageError ex) {
+            // Not a JVM that measures it
+        }
+        IS_ALLOCATED_MEMORY_ENABLED = isEnabled;
+        GET_ALLOCATED_BYTES = getBytes;
+    }
+
+    /**
+     * @return The number of bytes allocated so far by the current thread, or -1 if this is not measured
+     */
+    static long getAllocatedBytes() {
+        if(GET_ALLOCATED_BYTES != null) {
+            try {
+                ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+                if((Boolean)IS_ALLOCATED_MEMORY_ENABLED.invoke(threadBean)) {
+                    return (Long)GET_ALLOCATED_BYTES.invoke(threadBean, Thread.currentThread().getId());
+                }
+            }
+            catch(ReflectiveOperationException | RuntimeException ex) {
+                // Not measured
+            }
+        }
+        return -1;
+    }
+
+    private final String fOperation;
+    private final List<Phase> fPhases = Collections.synchronizedList(new ArrayList<Phase>());
+
+    GraficoMetrics(String operation) {
+        fOperation = operation;
+    }
+
+    /**
+     * Start a phase on the current thread
+     *
+     * @param name
+     * @return The phase, to pass to {@link #end(Phase)}
+     */
+    Phase start(String name) {
+        Phase phase = new Phase(name);
+        fPhases.add(phase);
+        return phase;
+    }
+
+    /**
+     * End a phase on the thread that started it
+     *
+     * @param phase
+     */
+    void end(Phase phase) {
+        phase.end();
+    }
+
+    /**
+     * @return The name of the import or export
+     */
+    public String getOperation() {
+        return fOperation;
+    }
+
+    /**
+     * @return The phases in the order they were started
+     */
+    public List<Phase> getPhases() {
+        synchronized(fPhases) {
+            return new ArrayList<Phase>(fPhases);
+        }
+    }
+
+    /**
+     * @param name
+     * @return The first phase with the name, or null
+     */
+    public Phase getPhase(String name) {
+        for(Phase phase : getPhases()) {
+            if(phase.getName().equals(name)) {
+                return phase;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write the metrics to the error log if the tracing option is set
+     */
+    void log() {
+        ModelRepositoryPlugin plugin = ModelRepositoryPlugin.INSTANCE;
+        if(plugin != null && plugin.isDebugging() && Boolean.parseBoolean(Platform.getDebugOption(DEBUG_METRICS))) {
+            plugin.getLog().log(new Status(IStatus.INFO, ModelRepositoryPlugin.PLUGIN_ID, toString()));
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(fOperation);
+        for(Phase phase : getPhases()) {
+            sb.append("\n    ").append(phase); //$NON-NLS-1$
+        }
+        return sb.toString();
+    }
+}
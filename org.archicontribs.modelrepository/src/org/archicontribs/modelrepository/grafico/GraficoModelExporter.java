@@ -5,33 +5,51 @@
  */
 package org.archicontribs.modelrepository.grafico;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
-import org.eclipse.emf.ecore.resource.Resource;
-import org.eclipse.emf.ecore.resource.ResourceSet;
-import org.eclipse.emf.ecore.resource.impl.ExtensibleURIConverterImpl;
-import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
 import org.eclipse.emf.ecore.util.EcoreUtil;
-import org.eclipse.emf.ecore.xmi.XMLResource;
-import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
+import org.eclipse.gef.commands.CommandStack;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig.AutoCRLF;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.io.AutoLFInputStream;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.PlatformUI;
 
-import com.archimatetool.editor.model.IArchiveManager;
 import com.archimatetool.editor.utils.FileUtils;
 import com.archimatetool.model.FolderType;
 import com.archimatetool.model.IArchimateModel;
 import com.archimatetool.model.IDiagramModelImageProvider;
 import com.archimatetool.model.IFolder;
 import com.archimatetool.model.IFolderContainer;
-import com.archimatetool.model.IIdentifier;
 
 
 /**
@@ -45,78 +63,739 @@ import com.archimatetool.model.IIdentifier;
  */
 public class GraficoModelExporter implements IGraficoConstants {
 	
-	// This ResourceSet will be recreated for each model export
-	ResourceSet fResourceSet;
+	// Name of the folder where full exports are staged
+	private static final String STAGING_FOLDER = "grafico-staging"; //$NON-NLS-1$
 	
-    public void exportModelToLocalGitRepository(IArchimateModel model, File gitRepoFolder) throws IOException {
+	// Name of the folder, inside the staging folder, where existing folders are moved while swapping
+	private static final String BACKUP_FOLDER = "backup"; //$NON-NLS-1$
+	
+	// Files to write for the current export, mapped to the object saved in each file
+	private Map<File, EObject> fExportedFiles;
+	
+	// Metrics of the last export
+	private GraficoMetrics fMetrics;
+	
+	// Number of threads used to save files
+	private int fThreadCount = Runtime.getRuntime().availableProcessors();
+	
+	// Streaming writers used to save files, one per thread
+	private final ThreadLocal<GraficoXMLWriter> fWriters = new ThreadLocal<GraficoXMLWriter>() {
+	    @Override
+	    protected GraficoXMLWriter initialValue() {
+	        return new GraficoXMLWriter();
+	    }
+	};
+	
+	/**
+	 * Receives the serialized contents of each file of an export.
+	 * May be called from several threads at once.
+	 */
+	private interface FileHandler {
+	    void handle(File file, byte[] bytes) throws IOException;
+	}
+	
+	// Writes files to disk if their contents have changed
+	// Each file is written to a temporary file first and then moved in place so that it is never half written
+	private final FileHandler fChangedFilesWriter = new FileHandler() {
+	    @Override
+	    public void handle(File file, byte[] bytes) throws IOException {
+	        if(!hasSameContents(file, bytes)) {
+	            file.getParentFile().mkdirs();
+	            File tmpFile = new File(file.getParentFile(), "." + file.getName() + ".tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+	            Files.write(tmpFile.toPath(), bytes);
+	            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	        }
+	    }
+	};
+	
+	/**
+	 * Set the number of threads used to save the model's files.
+	 * A value of 1 saves all files sequentially on the calling thread.
+	 * 
+	 * @param threadCount
+	 */
+	public void setThreadCount(int threadCount) {
+	    fThreadCount = Math.max(1, threadCount);
+	}
+	
+	/**
+	 * @return The metrics of the last export, or null
+	 */
+	public GraficoMetrics getMetrics() {
+	    return fMetrics;
+	}
+	
+    /**
+     * Export the whole model.
+     * The model and images folders are first written to a staging folder and then moved in place of the existing ones,
+     * so if the export fails the existing folders are left untouched.
+     * Files whose contents have not changed are linked (or copied) from the existing folders so their time stamps are kept.
+     * See {@link #runOnModelThread(IArchimateModel, Callable)} for the thread the model is read on.
+     * 
+     * @param model
+     * @param gitRepoFolder
+     * @throws IOException
+     */
+    public void exportModelToLocalGitRepository(final IArchimateModel model, final File gitRepoFolder) throws IOException {
+        runOnModelThread(model, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                doExportModelToLocalGitRepository(model, gitRepoFolder);
+                return null;
+            }
+        });
+    }
+    
+    private void doExportModelToLocalGitRepository(IArchimateModel model, File gitRepoFolder) throws IOException {
         if(gitRepoFolder == null) {
             throw new IOException("Folder was null"); //$NON-NLS-1$
         }
-
-        // Define target folders for model and images
-        // Delete them and re-create them (remark: FileUtils.deleteFolder() does sanity checks)
-        File modelFolder = new File(gitRepoFolder, MODEL_FOLDER);
-        FileUtils.deleteFolder(modelFolder);
-        modelFolder.mkdirs();
-
-        File imagesFolder = new File(gitRepoFolder, IMAGES_FOLDER);
-        FileUtils.deleteFolder(imagesFolder);
-        imagesFolder.mkdirs();
-
-        // Save model images (if any): this has to be done on original model (not a copy)
-        saveImages(model, gitRepoFolder);
-        
-        // Create ResourceSet
-        fResourceSet = new ResourceSetImpl();
-        fResourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl()); //$NON-NLS-1$
-        // Add a URIConverter that will be used to map full filenames to logical names
-        fResourceSet.setURIConverter(new ExtensibleURIConverterImpl());
-
-        // Now work on a copy
-        IArchimateModel copy = EcoreUtil.copy(model);
         
-        // Create directory structure and prepare all Resources
-        createAndSaveResourceForFolder(copy, modelFolder);
-
-        // Now save all Resources
-        for(Resource resource : fResourceSet.getResources()) {
-            resource.save(null);
+        fMetrics = new GraficoMetrics("Export " + gitRepoFolder); //$NON-NLS-1$
+        
+        // Diagram models are saved with all their contents
+        GraficoMetrics.Phase phase = fMetrics.start("loadDiagrams"); //$NON-NLS-1$
+        GraficoLazyDiagram.loadAll(model);
+        fMetrics.end(phase);
+        
+        final File repoFolder = gitRepoFolder.getAbsoluteFile();
+        repoFolder.mkdirs();
+        
+        final File stagingFolder = getStagingFolder(repoFolder);
+        
+        // Put back folders moved away by an export that did not complete, then start from an empty staging folder
+        recoverStagedFolders(repoFolder, stagingFolder);
+        deleteFolder(stagingFolder);
+        
+        // Target folders for model and images, always created even if empty
+        File modelFolder = new File(repoFolder, MODEL_FOLDER);
+        new File(stagingFolder, MODEL_FOLDER).mkdirs();
+        new File(stagingFolder, IMAGES_FOLDER).mkdirs();
+        
+        // Writes each file at the same place under the staging folder
+        FileHandler stagingWriter = new FileHandler() {
+            @Override
+            public void handle(File file, byte[] bytes) throws IOException {
+                File stagedFile = new File(stagingFolder, repoFolder.toPath().relativize(file.toPath()).toString());
+                stagedFile.getParentFile().mkdirs();
+                
+                if(hasSameContents(file, bytes)) {
+                    linkOrCopy(file, stagedFile);
+                }
+                else {
+                    Files.write(stagedFile.toPath(), bytes);
+                }
+            }
+        };
+        
+        try {
+            // Save model images (if any)
+            phase = fMetrics.start("saveImages"); //$NON-NLS-1$
+            saveImages(model, repoFolder, stagingWriter, phase);
+            fMetrics.end(phase);
+            
+            // List the files to save
+            // Objects are saved straight from the model so there is no need to work on a copy
+            phase = fMetrics.start("addFilesForFolder"); //$NON-NLS-1$
+            fExportedFiles = new LinkedHashMap<File, EObject>();
+            addFilesForFolder(model, modelFolder);
+            fMetrics.end(phase);
+            
+            // Now save all files
+            phase = fMetrics.start("saveFiles"); //$NON-NLS-1$
+            saveFiles(new ArrayList<Entry<File, EObject>>(fExportedFiles.entrySet()), stagingWriter, phase);
+            fMetrics.end(phase);
+            
+            // Swap the staged folders in
+            phase = fMetrics.start("swapStagedFolders"); //$NON-NLS-1$
+            swapStagedFolders(repoFolder, stagingFolder);
+            fMetrics.end(phase);
+        }
+        finally {
+            deleteFolder(stagingFolder);
+        }
+        
+        fMetrics.log();
+    }
+    
+    /**
+     * @param repoFolder
+     * @return The folder used to stage a full export. This is in the .git folder if there is one so that Git does not see it.
+     */
+    private File getStagingFolder(File repoFolder) {
+        File gitFolder = new File(repoFolder, ".git"); //$NON-NLS-1$
+        return gitFolder.isDirectory() ? new File(gitFolder, STAGING_FOLDER) : new File(repoFolder, "." + STAGING_FOLDER); //$NON-NLS-1$
+    }
+    
+    /**
+     * Move the staged model and images folders in place of the existing ones.
+     * The existing folders are first moved to a backup folder from where they are moved back if anything fails.
+     * 
+     * @param repoFolder
+     * @param stagingFolder
+     * @throws IOException
+     */
+    private void swapStagedFolders(File repoFolder, File stagingFolder) throws IOException {
+        File backupFolder = new File(stagingFolder, BACKUP_FOLDER);
+        backupFolder.mkdirs();
+        
+        List<String> movedFolders = new ArrayList<String>();
+        
+        try {
+            for(String name : new String[] { MODEL_FOLDER, IMAGES_FOLDER }) {
+                moveFolder(new File(repoFolder, name), new File(backupFolder, name));
+                movedFolders.add(name);
+                moveFolder(new File(stagingFolder, name), new File(repoFolder, name));
+            }
+        }
+        catch(IOException ex) {
+            for(String name : movedFolders) {
+                File folder = new File(repoFolder, name);
+                File backup = new File(backupFolder, name);
+                if(backup.exists()) {
+                    deleteFolder(folder);
+                    moveFolder(backup, folder);
+                }
+            }
+            throw ex;
+        }
+    }
+    
+    /**
+     * If an export stopped while swapping folders, move back the existing folders that are missing
+     * 
+     * @param repoFolder
+     * @param stagingFolder
+     * @throws IOException
+     */
+    private void recoverStagedFolders(File repoFolder, File stagingFolder) throws IOException {
+        for(String name : new String[] { MODEL_FOLDER, IMAGES_FOLDER }) {
+            File folder = new File(repoFolder, name);
+            File backup = new File(new File(stagingFolder, BACKUP_FOLDER), name);
+            if(backup.exists() && !folder.exists()) {
+                moveFolder(backup, folder);
+            }
+        }
+    }
+    
+    /**
+     * Rename a folder if it exists. Both folders are on the same file system so this is atomic.
+     * 
+     * @param from
+     * @param to
+     * @throws IOException
+     */
+    private void moveFolder(File from, File to) throws IOException {
+        if(from.exists()) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+    
+    /**
+     * Delete a folder and its contents if it exists
+     * 
+     * @param folder
+     * @throws IOException
+     */
+    private void deleteFolder(File folder) throws IOException {
+        if(folder.exists()) {
+            FileUtils.deleteFolder(folder);
+        }
+    }
+    
+    /**
+     * Hard link to an existing file, or copy it with its attributes if the file system does not support links
+     * 
+     * @param existing
+     * @param link
+     * @throws IOException
+     */
+    private void linkOrCopy(File existing, File link) throws IOException {
+        try {
+            Files.createLink(link.toPath(), existing.toPath());
+        }
+        catch(UnsupportedOperationException | IOException ex) {
+            Files.copy(existing.toPath(), link.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+    
+    /**
+     * Save only the files of a model that changed since its recorder was last reset.
+     * gitRepoFolder must contain the files of the model as it was at that point.
+     * Each file is replaced in one step, and files of removed objects are deleted after all files are saved.
+     * If the recorder can't tell which files changed the whole model is exported.
+     * See {@link #runOnModelThread(IArchimateModel, Callable)} for the thread the model is read on.
+     * 
+     * @param model
+     * @param gitRepoFolder
+     * @param recorder
+     * @return The paths, relative to gitRepoFolder, of the files and directories that were saved or deleted,
+     *         or null if the whole model was exported
+     * @throws IOException
+     */
+    public Set<String> exportChangesToLocalGitRepository(final IArchimateModel model, final File gitRepoFolder, final GraficoChangeRecorder recorder) throws IOException {
+        return runOnModelThread(model, new Callable<Set<String>>() {
+            @Override
+            public Set<String> call() throws IOException {
+                return doExportChangesToLocalGitRepository(model, gitRepoFolder, recorder);
+            }
+        });
+    }
+    
+    private Set<String> doExportChangesToLocalGitRepository(IArchimateModel model, File gitRepoFolder, GraficoChangeRecorder recorder) throws IOException {
+        if(recorder.isFullExportRequired()) {
+            exportModelToLocalGitRepository(model, gitRepoFolder);
+            return null;
+        }
+        
+        fMetrics = new GraficoMetrics("Export changes " + gitRepoFolder); //$NON-NLS-1$
+        
+        GraficoMetrics.Phase phase = fMetrics.start("loadDiagrams"); //$NON-NLS-1$
+        GraficoLazyDiagram.loadAll(model);
+        fMetrics.end(phase);
+        
+        File repoFolder = gitRepoFolder.getAbsoluteFile();
+        Set<String> paths = new TreeSet<String>();
+        
+        // Files are saved in place, so first put back folders moved away by a full export that did not complete
+        recoverStagedFolders(repoFolder, getStagingFolder(repoFolder));
+        
+        phase = fMetrics.start("addChangedFiles"); //$NON-NLS-1$
+        fExportedFiles = new LinkedHashMap<File, EObject>();
+        addChangedFiles(model, repoFolder, recorder, paths);
+        fMetrics.end(phase);
+        
+        // Files are deleted only once all files are saved, so if saving fails the model's folder still has all the files it had
+        phase = fMetrics.start("saveFiles"); //$NON-NLS-1$
+        saveFiles(new ArrayList<Entry<File, EObject>>(fExportedFiles.entrySet()), fChangedFilesWriter, phase);
+        fMetrics.end(phase);
+        
+        File imagesFolder = new File(repoFolder, IMAGES_FOLDER);
+        Set<File> imageFiles = null;
+        
+        if(recorder.hasImageChanges()) {
+            phase = fMetrics.start("saveImages"); //$NON-NLS-1$
+            imagesFolder.mkdirs();
+            imageFiles = saveImages(model, repoFolder, fChangedFilesWriter, phase);
+            paths.add(IMAGES_FOLDER);
+            fMetrics.end(phase);
+        }
+        
+        // Remove files and directories of objects that were deleted or moved, keeping the files saved again
+        for(String path : recorder.getRemovedPaths()) {
+            File file = new File(repoFolder, path);
+            if(file.isDirectory()) {
+                deleteStaleFiles(file, fExportedFiles.keySet());
+                String[] remaining = file.list();
+                if(remaining != null && remaining.length == 0) {
+                    Files.delete(file.toPath());
+                }
+            }
+            else if(file.exists() && !fExportedFiles.containsKey(file)) {
+                Files.delete(file.toPath());
+            }
+            paths.add(path);
+        }
+        
+        if(imageFiles != null) {
+            deleteStaleFiles(imagesFolder, imageFiles);
+        }
+        
+        fMetrics.log();
+        return paths;
+    }
+    
+    /**
+     * Serialize the model and its images straight into blobs of a repository's object database.
+     * Nothing is written to the working tree.
+     * See {@link #runOnModelThread(IArchimateModel, Callable)} for the thread the model is read on.
+     * 
+     * @param model
+     * @param repository
+     * @param inserter Inserter used to create the blobs. The caller must flush it.
+     * @return The blob of each file, keyed by its path in the repository
+     * @throws IOException
+     */
+    public Map<String, ObjectId> exportModelToObjectDatabase(final IArchimateModel model, final Repository repository, final ObjectInserter inserter) throws IOException {
+        return runOnModelThread(model, new Callable<Map<String, ObjectId>>() {
+            @Override
+            public Map<String, ObjectId> call() throws IOException {
+                return doExportModelToObjectDatabase(model, repository, inserter);
+            }
+        });
+    }
+    
+    private Map<String, ObjectId> doExportModelToObjectDatabase(IArchimateModel model, Repository repository, ObjectInserter inserter) throws IOException {
+        fMetrics = new GraficoMetrics("Export " + repository.getDirectory()); //$NON-NLS-1$
+        
+        GraficoMetrics.Phase phase = fMetrics.start("loadDiagrams"); //$NON-NLS-1$
+        GraficoLazyDiagram.loadAll(model);
+        fMetrics.end(phase);
+        
+        File workTree = repository.getWorkTree().getAbsoluteFile();
+        Map<String, ObjectId> blobs = new TreeMap<String, ObjectId>();
+        FileHandler blobInserter = createBlobInserter(repository, inserter, blobs);
+        
+        phase = fMetrics.start("saveImages"); //$NON-NLS-1$
+        saveImages(model, workTree, blobInserter, phase);
+        fMetrics.end(phase);
+        
+        phase = fMetrics.start("addFilesForFolder"); //$NON-NLS-1$
+        fExportedFiles = new LinkedHashMap<File, EObject>();
+        addFilesForFolder(model, new File(workTree, MODEL_FOLDER));
+        fMetrics.end(phase);
+        
+        phase = fMetrics.start("saveFiles"); //$NON-NLS-1$
+        saveFiles(new ArrayList<Entry<File, EObject>>(fExportedFiles.entrySet()), blobInserter, phase);
+        fMetrics.end(phase);
+        
+        fMetrics.log();
+        return blobs;
+    }
+    
+    /**
+     * Serialize only the files of a model that changed since its recorder was last reset into blobs.
+     * Images are all serialized if any of them changed.
+     * If the recorder can't tell which files changed the whole model is serialized.
+     * See {@link #runOnModelThread(IArchimateModel, Callable)} for the thread the model is read on.
+     * 
+     * @param model
+     * @param repository
+     * @param inserter Inserter used to create the blobs. The caller must flush it.
+     * @param recorder
+     * @return The blob of each file, keyed by its path in the repository
+     * @throws IOException
+     */
+    public Map<String, ObjectId> exportChangesToObjectDatabase(final IArchimateModel model, final Repository repository, final ObjectInserter inserter,
+            final GraficoChangeRecorder recorder) throws IOException {
+        return runOnModelThread(model, new Callable<Map<String, ObjectId>>() {
+            @Override
+            public Map<String, ObjectId> call() throws IOException {
+                return doExportChangesToObjectDatabase(model, repository, inserter, recorder);
+            }
+        });
+    }
+    
+    private Map<String, ObjectId> doExportChangesToObjectDatabase(IArchimateModel model, Repository repository, ObjectInserter inserter,
+            GraficoChangeRecorder recorder) throws IOException {
+        if(recorder.isFullExportRequired()) {
+            return exportModelToObjectDatabase(model, repository, inserter);
+        }
+        
+        fMetrics = new GraficoMetrics("Export changes " + repository.getDirectory()); //$NON-NLS-1$
+        
+        GraficoMetrics.Phase phase = fMetrics.start("loadDiagrams"); //$NON-NLS-1$
+        GraficoLazyDiagram.loadAll(model);
+        fMetrics.end(phase);
+        
+        File workTree = repository.getWorkTree().getAbsoluteFile();
+        Map<String, ObjectId> blobs = new TreeMap<String, ObjectId>();
+        FileHandler blobInserter = createBlobInserter(repository, inserter, blobs);
+        
+        if(recorder.hasImageChanges()) {
+            phase = fMetrics.start("saveImages"); //$NON-NLS-1$
+            saveImages(model, workTree, blobInserter, phase);
+            fMetrics.end(phase);
+        }
+        
+        phase = fMetrics.start("addChangedFiles"); //$NON-NLS-1$
+        fExportedFiles = new LinkedHashMap<File, EObject>();
+        addChangedFiles(model, workTree, recorder, new HashSet<String>());
+        fMetrics.end(phase);
+        
+        phase = fMetrics.start("saveFiles"); //$NON-NLS-1$
+        saveFiles(new ArrayList<Entry<File, EObject>>(fExportedFiles.entrySet()), blobInserter, phase);
+        fMetrics.end(phase);
+        
+        fMetrics.log();
+        return blobs;
+    }
+    
+    /**
+     * Add the files of the objects of the model recorded as dirty to the files to save
+     * 
+     * @param model
+     * @param gitRepoFolder Absolute repository folder
+     * @param recorder
+     * @param paths Receives the paths of the files, relative to gitRepoFolder
+     */
+    private void addChangedFiles(IArchimateModel model, File gitRepoFolder, GraficoChangeRecorder recorder, Set<String> paths) {
+        for(EObject eObject : recorder.getDirtyObjects()) {
+            // Objects may have moved to another file or out of the model since they were recorded
+            EObject root = GraficoResource.getFileRoot(eObject);
+            if(root == model || EcoreUtil.isAncestor(model, root)) {
+                String path = getFilePath(root);
+                addFile(new File(gitRepoFolder, path), root);
+                paths.add(path);
+            }
         }
     }
     
     /**
-     * For each folder inside model, create a directory and a Resource to save it.
-     * For each element, create a Resource to save it
+     * @param repository
+     * @param inserter
+     * @param blobs Receives the blob of each file, keyed by its path in the repository
+     * @return A handler that inserts the contents of each file as a blob
+     */
+    private FileHandler createBlobInserter(Repository repository, final ObjectInserter inserter, final Map<String, ObjectId> blobs) {
+        final File workTree = repository.getWorkTree().getAbsoluteFile();
+        
+        // Blobs have to be the same as the ones "git add" would create from the working tree
+        final boolean normalizeLineEndings = repository.getConfig().get(WorkingTreeOptions.KEY).getAutoCRLF() != AutoCRLF.FALSE;
+        
+        return new FileHandler() {
+            @Override
+            public void handle(File file, byte[] bytes) throws IOException {
+                if(normalizeLineEndings) {
+                    bytes = toLF(bytes);
+                }
+                
+                String path = workTree.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+                
+                // ObjectInserter is not thread safe
+                synchronized(inserter) {
+                    blobs.put(path, inserter.insert(Constants.OBJ_BLOB, bytes));
+                }
+            }
+        };
+    }
+    
+    /**
+     * Convert CRLF line endings to LF in text contents, as "git add" does when core.autocrlf is set
+     * 
+     * @param bytes
+     * @return The converted contents, or bytes if there is nothing to convert
+     * @throws IOException
+     */
+    static byte[] toLF(byte[] bytes) throws IOException {
+        boolean hasCR = false;
+        for(int i = 0; i < bytes.length && !hasCR; i++) {
+            hasCR = bytes[i] == '\r';
+        }
+        if(!hasCR) {
+            return bytes;
+        }
+        
+        try(AutoLFInputStream in = new AutoLFInputStream(new ByteArrayInputStream(bytes), true)) {
+            ByteBuffer buffer = IO.readWholeStream(in, bytes.length);
+            return Arrays.copyOf(buffer.array(), buffer.limit());
+        }
+    }
+    
+    /**
+     * Run an export on the thread that the model is changed on, so that the model can't change while it is read.
+     * A model open in Archi is changed by commands on the UI thread, so if it is exported from another thread
+     * the export is run with syncExec and the UI thread stays blocked until all files are saved, including by the pool threads.
+     * Other models are exported on the calling thread, which must not change them at the same time.
+     * 
+     * @param model
+     * @param export
+     * @return The result of export
+     * @throws IOException
+     */
+    private <T> T runOnModelThread(IArchimateModel model, final Callable<T> export) throws IOException {
+        Display display = PlatformUI.isWorkbenchRunning() ? PlatformUI.getWorkbench().getDisplay() : null;
+        
+        if(display == null || display.getThread() == Thread.currentThread() || model.getAdapter(CommandStack.class) == null) {
+            return callExport(export);
+        }
+        
+        final List<T> result = new ArrayList<T>(1);
+        final IOException[] error = new IOException[1];
+        
+        display.syncExec(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.add(callExport(export));
+                }
+                catch(IOException ex) {
+                    error[0] = ex;
+                }
+            }
+        });
+        
+        if(error[0] != null) {
+            throw error[0];
+        }
+        
+        return result.get(0);
+    }
+    
+    private <T> T callExport(Callable<T> export) throws IOException {
+        try {
+            return export.call();
+        }
+        catch(IOException | RuntimeException ex) {
+            throw ex;
+        }
+        catch(Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+    
+    /**
+     * Save files, in parallel if more than one thread is set.
+     * Each file holds one object of the model and is written independently, and the model does not change
+     * as the calling thread waits for the pool threads, so the output is the same as when saving them one by one.
+     * 
+     * @param entries
+     * @param handler
+     * @param phase Counts the files saved and the memory allocated by the threads saving them
+     * @throws IOException
+     */
+    private void saveFiles(List<Entry<File, EObject>> entries, FileHandler handler, GraficoMetrics.Phase phase) throws IOException {
+        int threadCount = Math.min(fThreadCount, entries.size());
+        
+        if(threadCount < 2) {
+            for(Entry<File, EObject> entry : entries) {
+                saveFile(entry.getKey(), entry.getValue(), handler, phase);
+            }
+            return;
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            
+            for(Entry<File, EObject> entry : entries) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        long allocatedBytes = GraficoMetrics.getAllocatedBytes();
+                        try {
+                            saveFile(entry.getKey(), entry.getValue(), handler, phase);
+                        }
+                        finally {
+                            phase.addAllocatedBytes(allocatedBytes);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            
+            for(Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        catch(ExecutionException ex) {
+            if(ex.getCause() instanceof IOException) {
+                throw (IOException)ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export was interrupted", ex); //$NON-NLS-1$
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Serialize an object in memory and pass the contents of its file to handler
+     * 
+     * @param file
+     * @param object
+     * @param handler
+     * @param phase Counts the file
+     * @throws IOException
+     */
+    private void saveFile(File file, EObject object, FileHandler handler, GraficoMetrics.Phase phase) throws IOException {
+        byte[] bytes = fWriters.get().write(object);
+        
+        // Content that the streaming writer does not handle is saved through EMF
+        if(bytes == null) {
+            bytes = saveWithResource(file, object);
+        }
+        
+        handler.handle(file, bytes);
+        phase.addFiles(1, bytes.length);
+    }
+    
+    /**
+     * Serialize an object in memory using a GraficoResource
+     * 
+     * @param file
+     * @param object
+     * @return The contents of the file
+     * @throws IOException
+     */
+    private byte[] saveWithResource(File file, EObject object) throws IOException {
+        // Use the same logical name (filename) for elements as the importer expects in references
+        URI uri = file.getName().equals(FOLDER_XML) ? URI.createFileURI(file.getAbsolutePath()) : URI.createFileURI(file.getName());
+        GraficoResource resource = new GraficoResource(uri);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        resource.save(object, out);
+        return out.toByteArray();
+    }
+    
+    /**
+     * @param file
+     * @param bytes
+     * @return True if file exists and has exactly the given contents
+     * @throws IOException
+     */
+    private boolean hasSameContents(File file, byte[] bytes) throws IOException {
+        // Check the length first so that most changed files are not read at all
+        return file.isFile() && file.length() == bytes.length && Arrays.equals(Files.readAllBytes(file.toPath()), bytes);
+    }
+    
+    /**
+     * Delete any file under folder that was not part of this export and any folder left empty
+     * 
+     * @param folder
+     * @param exportedFiles Absolute files written or kept by this export
+     * @throws IOException
+     */
+    private void deleteStaleFiles(File folder, Set<File> exportedFiles) throws IOException {
+        File[] files = folder.listFiles();
+        if(files == null) {
+            return;
+        }
+        
+        for(File file : files) {
+            if(file.isDirectory()) {
+                deleteStaleFiles(file, exportedFiles);
+                String[] remaining = file.list();
+                if(remaining != null && remaining.length == 0) {
+                    Files.delete(file.toPath());
+                }
+            }
+            else if(!exportedFiles.contains(file.getAbsoluteFile())) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+    
+    /**
+     * For each folder inside model, add its folder.xml file to the files to save.
+     * For each element, add its file to the files to save
      * 
      * @param folderContainer Model or folder to work on 
      * @param folder Directory in which to generate files
      * @throws IOException
      */
-    private void createAndSaveResourceForFolder(IFolderContainer folderContainer, File folder) throws IOException {
+    private void addFilesForFolder(IFolderContainer folderContainer, File folder) throws IOException {
         // Save each children folders
-        List<IFolder> allFolders = new ArrayList<IFolder>();
-        allFolders.addAll(folderContainer.getFolders());
-        
-        for(IFolder tmpFolder : allFolders) {
+        for(IFolder tmpFolder : folderContainer.getFolders()) {
             File tmpFolderFile = new File(folder, getNameFor(tmpFolder));
-            tmpFolderFile.mkdirs();
-            createAndSaveResource(new File(tmpFolderFile, FOLDER_XML), tmpFolder);
-            createAndSaveResourceForFolder(tmpFolder, tmpFolderFile);
+            addFile(new File(tmpFolderFile, FOLDER_XML), tmpFolder);
+            addFilesForFolder(tmpFolder, tmpFolderFile);
         }
         
         // Save each children elements
         if(folderContainer instanceof IFolder) {
             // Save each children element
-            List<EObject> allElements = new ArrayList<EObject>();
-            allElements.addAll(((IFolder)folderContainer).getElements());
-            for(EObject tmpElement : allElements) {
-                createAndSaveResource(
-                        new File(folder, tmpElement.getClass().getSimpleName() + "_" + ((IIdentifier)tmpElement).getId() + ".xml"), //$NON-NLS-1$ //$NON-NLS-2$
-                        tmpElement);
+            for(EObject tmpElement : ((IFolder)folderContainer).getElements()) {
+                addFile(new File(folder, GraficoResource.getElementFileName(tmpElement)), tmpElement);
             }
         }
         if(folderContainer instanceof IArchimateModel) {
-            createAndSaveResource(new File(folder, FOLDER_XML), folderContainer);
+            addFile(new File(folder, FOLDER_XML), folderContainer);
         }
     }
     
@@ -126,51 +805,56 @@ public class GraficoModelExporter implements IGraficoConstants {
      * @param folder
      * @return
      */
-    private String getNameFor(IFolder folder) {
+    static String getNameFor(IFolder folder) {
     	return folder.getType() == FolderType.USER ? folder.getId().toString() : folder.getType().toString();
     }
     
     /**
-     * Save the model to Resource
+     * @param folderContainer Model or folder in a model
+     * @return The path of the directory of folderContainer, relative to the repository folder
+     */
+    static String getDirectoryPath(IFolderContainer folderContainer) {
+        EObject parent = ((EObject)folderContainer).eContainer();
+        if(folderContainer instanceof IFolder && parent instanceof IFolderContainer) {
+            return getDirectoryPath((IFolderContainer)parent) + "/" + getNameFor((IFolder)folderContainer); //$NON-NLS-1$
+        }
+        return MODEL_FOLDER;
+    }
+    
+    /**
+     * @param root Model, folder or element of a folder
+     * @return The path of the file of root, relative to the repository folder
+     */
+    static String getFilePath(EObject root) {
+        if(root instanceof IFolderContainer) {
+            return getDirectoryPath((IFolderContainer)root) + "/" + FOLDER_XML; //$NON-NLS-1$
+        }
+        return getDirectoryPath((IFolderContainer)root.eContainer()) + "/" + GraficoResource.getElementFileName(root); //$NON-NLS-1$
+    }
+    
+    /**
+     * Add a file to save
      * 
      * @param file
      * @param object
-     * @throws IOException
      */
-    private void createAndSaveResource(File file, EObject object) throws IOException {
-    	// Update the URIConverter
-        // Map the logical name (filename) to the physical name (path+filename)
-        URI key = file.getName().equals(FOLDER_XML) ? URI.createFileURI(file.getAbsolutePath()) : URI.createFileURI(file.getName());
-        URI value = URI.createFileURI(file.getAbsolutePath());
-        fResourceSet.getURIConverter().getURIMap().put(key, value);
-
-        // Create a new resource for selected file and add object to persist
-        XMLResource resource = (XMLResource)fResourceSet.createResource(key);
-        // Use UTF-8 and don't start with an XML declaration
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_DECLARE_XML, Boolean.FALSE);
-        // Make the produced XML easy to read
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_FORMATTED, Boolean.TRUE);
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_LINE_WIDTH, new Integer(5));
-        // Don't use encoded attribute. Needed to have proper references inside Diagrams
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_USE_ENCODED_ATTRIBUTE_STYLE, Boolean.FALSE);
-        // Use cache
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_CONFIGURATION_CACHE, Boolean.TRUE);
-        // Add the object to the resource
-        resource.getContents().add(object);
+    private void addFile(File file, EObject object) {
+        fExportedFiles.put(file.getAbsoluteFile(), object);
     }
     
     /**
-     * Extract and save images used inside a model
+     * Extract images used inside a model and pass the contents of each image file to handler
      * 
      * @param model
      * @param folder
+     * @param handler
+     * @param phase Counts the images saved
+     * @return The absolute image files used by the model
      * @throws IOException
      */
-    private void saveImages(IArchimateModel model, File folder) throws IOException {
-        List<String> added = new ArrayList<String>();
-        IArchiveManager archiveManager = IArchiveManager.FACTORY.createArchiveManager(model);
-        
+    private Set<File> saveImages(IArchimateModel model, File folder, FileHandler handler, GraficoMetrics.Phase phase) throws IOException {
+        Set<String> added = new HashSet<String>();
+        Set<File> imageFiles = new HashSet<File>();
         byte[] bytes;
 
         for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
@@ -178,12 +862,19 @@ public class GraficoModelExporter implements IGraficoConstants {
             if(eObject instanceof IDiagramModelImageProvider) {
                 IDiagramModelImageProvider imageProvider = (IDiagramModelImageProvider)eObject;
                 String imagePath = imageProvider.getImagePath();
-                if(imagePath != null && !added.contains(imagePath)) {
-                    bytes = archiveManager.getBytesFromEntry(imagePath);
-                    Files.write(Paths.get(folder.getAbsolutePath() + File.separator + imagePath), bytes, StandardOpenOption.CREATE);
-                    added.add(imagePath);
+                if(imagePath != null && added.add(imagePath)) {
+                    // Images that are not loaded are read from their files
+                    bytes = GraficoLazyImages.getBytes(model, imagePath);
+                    if(bytes != null) {
+                        File file = new File(folder, imagePath).getAbsoluteFile();
+                        handler.handle(file, bytes);
+                        phase.addFiles(1, bytes.length);
+                        imageFiles.add(file);
+                    }
                 }
             }
         }
+        
+        return imageFiles;
     }
 }
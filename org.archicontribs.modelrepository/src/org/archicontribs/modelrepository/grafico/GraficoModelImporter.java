@@ -5,14 +5,36 @@
  */
 package org.archicontribs.modelrepository.grafico;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.eclipse.core.runtime.IStatus;
@@ -21,10 +43,16 @@ import org.eclipse.core.runtime.Status;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.InternalEObject;
-import org.eclipse.emf.ecore.resource.ResourceSet;
-import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
 import org.eclipse.emf.ecore.xmi.XMLResource;
-import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMLParserPoolImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 
 import com.archimatetool.editor.model.IArchiveManager;
 import com.archimatetool.model.FolderType;
@@ -61,9 +89,143 @@ public class GraficoModelImporter implements IGraficoConstants {
     private MultiStatus fResolveErrors;
     
     /**
-     * Resource Set
+     * Options used to load each file. The parser pool is thread safe and shared by all loads.
      */
-    private ResourceSet fResourceSet;
+    private static final Map<Object, Object> LOAD_OPTIONS = new HashMap<Object, Object>();
+    
+    static {
+        LOAD_OPTIONS.put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
+        LOAD_OPTIONS.put(XMLResource.OPTION_USE_PARSER_POOL, new XMLParserPoolImpl());
+        LOAD_OPTIONS.put(XMLResource.OPTION_DEFER_IDREF_RESOLUTION, Boolean.TRUE);
+    }
+    
+    /**
+     * Readers of Grafico files, one per loading thread
+     */
+    private static final ThreadLocal<GraficoXMLReader> READERS = new ThreadLocal<GraficoXMLReader>() {
+        @Override
+        protected GraficoXMLReader initialValue() {
+            return new GraficoXMLReader();
+        }
+    };
+    
+    /**
+     * Name of the snapshot file in the .git folder
+     */
+    private static final String SNAPSHOT_FILE = "grafico-snapshot"; //$NON-NLS-1$
+    
+    /**
+     * Names of Grafico files
+     */
+    private static final PathMatcher GRAFICO_FILES = FileSystems.getDefault().getPathMatcher("glob:*.xml"); //$NON-NLS-1$
+    
+    /**
+     * Folders of the model, in the order they are added to it
+     */
+    private static final FolderType[] FOLDER_TYPES = {
+            FolderType.STRATEGY,
+            FolderType.BUSINESS,
+            FolderType.APPLICATION,
+            FolderType.TECHNOLOGY,
+            FolderType.MOTIVATION,
+            FolderType.IMPLEMENTATION_MIGRATION,
+            FolderType.OTHER,
+            FolderType.RELATIONS,
+            FolderType.DIAGRAMS
+    };
+    
+    /**
+     * File -> Object loaded from it
+     */
+    private Map<File, EObject> fLoadedObjects;
+    
+    /**
+     * Directory listings made when looking for files, used again to assemble the model
+     */
+    private Map<File, File[]> fFolderListings;
+    
+    /**
+     * Objects that can refer to objects in other files, recorded when loading files
+     */
+    private List<EObject> fProxyHolders;
+    
+    /**
+     * Root object of a loaded file and the objects in it that can refer to objects in other files
+     */
+    private static class LoadedFile {
+        EObject root;
+        List<EObject> proxyHolders = new ArrayList<EObject>();
+    }
+    
+    /**
+     * Repository and File -> id of its blob, when importing from a commit
+     */
+    private Repository fRepository;
+    private Map<File, ObjectId> fBlobIds;
+    
+    /**
+     * Whether the contents of diagram models are loaded when needed, and the path of the diagrams folder while importing
+     */
+    private boolean fLazyDiagrams;
+    private String fLazyDiagramsFolder;
+    
+    /**
+     * Whether images are loaded when needed
+     */
+    private boolean fLazyImages;
+    
+    /**
+     * Metrics of the last import, and the size of the files found while collecting files (not known for commits)
+     */
+    private GraficoMetrics fMetrics;
+    private long fCollectedBytes;
+    
+    /**
+     * Number of threads used to load files
+     */
+    private int fThreadCount = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * Set the number of threads used to load the model's files.
+     * A value of 1 loads all files sequentially on the calling thread.
+     * 
+     * @param threadCount
+     */
+    public void setThreadCount(int threadCount) {
+        fThreadCount = Math.max(1, threadCount);
+    }
+    
+    /**
+     * Set whether the contents of diagram models are loaded when they are needed rather than when importing files.
+     * The diagram models are then created with only the attributes of their file's root element, and their contents are loaded
+     * by {@link GraficoLazyDiagram}. Models imported from a commit or a snapshot are always loaded in full.
+     * This is only for models that are not opened in Archi, see {@link GraficoLazyDiagram}.
+     * 
+     * @param lazyDiagrams
+     */
+    public void setLazyDiagramLoading(boolean lazyDiagrams) {
+        fLazyDiagrams = lazyDiagrams;
+    }
+    
+    /**
+     * Set whether images are loaded when they are needed rather than when importing files.
+     * Only the paths of the image files are then recorded, and each image is added to the model's IArchiveManager
+     * by {@link GraficoLazyImages#load(com.archimatetool.model.IDiagramModel)} for a diagram model that shows it.
+     * Models imported from a commit always load their images.
+     * This is only for models that are not opened in Archi, which saves, copies and reports images from the IArchiveManager only.
+     * 
+     * @param lazyImages
+     */
+    public void setLazyImageLoading(boolean lazyImages) {
+        fLazyImages = lazyImages;
+    }
+	
+    /**
+     * @return The metrics of the last import, or null
+     */
+    public GraficoMetrics getMetrics() {
+        return fMetrics;
+    }
 	
     /**
      * @param gitRepoFolder
@@ -71,6 +233,20 @@ public class GraficoModelImporter implements IGraficoConstants {
      * @throws IOException
      */
     public IArchimateModel importLocalGitRepositoryAsModel(File gitRepoFolder) throws IOException {
+        fMetrics = new GraficoMetrics("Import " + gitRepoFolder); //$NON-NLS-1$
+        IArchimateModel model = importFromFiles(gitRepoFolder);
+        fMetrics.log();
+        return model;
+    }
+    
+    /**
+     * Import the model from the files of a repository, recording the phases in fMetrics
+     * 
+     * @param gitRepoFolder
+     * @return The model
+     * @throws IOException
+     */
+    private IArchimateModel importFromFiles(File gitRepoFolder) throws IOException {
     	if(gitRepoFolder == null) {
             throw new IOException("Folder was null"); //$NON-NLS-1$
         }
@@ -83,31 +259,241 @@ public class GraficoModelImporter implements IGraficoConstants {
     	    throw new IOException("Folder is not a directory"); //$NON-NLS-1$
     	}
     	
-    	// Create ResourceSet
-    	fResourceSet = new ResourceSetImpl();
-    	fResourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl()); //$NON-NLS-1$
-    	
-    	// Reset the ID -> Object lookup table
-    	fIDLookup = new HashMap<String, IIdentifier>();
-    	
-        // Load the Model from files (it will contain unresolved proxies)
-    	IArchimateModel model = loadModel(modelFolder);
-    	
-    	// Remove model from its resource (needed to save it back to a .archimate file)
-    	fResourceSet.getResource(URI.createFileURI((new File(modelFolder, FOLDER_XML)).getAbsolutePath()), true).getContents().remove(model);
+    	// Parse all files first, in parallel, each one in its own Resource
+    	GraficoMetrics.Phase phase = fMetrics.start("collectFiles"); //$NON-NLS-1$
+    	fFolderListings = new HashMap<File, File[]>();
+    	fCollectedBytes = 0;
+    	List<File> files = new ArrayList<File>();
+    	collectFiles(modelFolder, files);
+    	fMetrics.end(phase);
     	
-    	// Resolve proxies
-    	fResolveErrors = null;
+    	IArchimateModel model;
     	
-    	resolveProxies(model);
+    	if(fLazyDiagrams) {
+    	    fLazyDiagramsFolder = new File(modelFolder, FolderType.DIAGRAMS.toString()).getPath() + File.separator;
+    	}
+    	try {
+    	    model = importFiles(modelFolder, files);
+    	}
+    	finally {
+    	    fLazyDiagramsFolder = null;
+    	}
     	
     	if(imagesFolder.isDirectory()) {
-    		loadImages(model, imagesFolder);
+    	    phase = fMetrics.start("loadImages"); //$NON-NLS-1$
+    		loadImages(model, imagesFolder, phase);
+    		fMetrics.end(phase);
     	}
 
     	return model;
     }
     
+    /**
+     * Import the model from the snapshot saved by a previous import of the same files if there is one,
+     * otherwise import it from the files and save a snapshot of it.
+     * Snapshots are only used for repositories that have a .git folder, where they are stored.
+     * The snapshot is saved from the imported model before it is returned, so only a model whose diagram models are all loaded gets one.
+     * Models read from a snapshot are always loaded in full.
+     * 
+     * @param gitRepoFolder
+     * @param snapshotKey Identifies the contents of the files, for example the id of the tree they were checked out from.
+     *                    Null to not use snapshots.
+     * @return The model
+     * @throws IOException
+     */
+    public IArchimateModel importLocalGitRepositoryAsModel(File gitRepoFolder, String snapshotKey) throws IOException {
+        File gitFolder = new File(gitRepoFolder, ".git"); //$NON-NLS-1$
+        if(snapshotKey == null || !gitFolder.isDirectory()) {
+            return importLocalGitRepositoryAsModel(gitRepoFolder);
+        }
+        
+        fMetrics = new GraficoMetrics("Import " + gitRepoFolder); //$NON-NLS-1$
+        File snapshotFile = new File(gitFolder, SNAPSHOT_FILE);
+        
+        GraficoMetrics.Phase phase = fMetrics.start("readSnapshot"); //$NON-NLS-1$
+        IArchimateModel model = GraficoModelSnapshot.read(snapshotFile, snapshotKey);
+        fMetrics.end(phase);
+        
+        if(model != null) {
+            phase.addFiles(1, snapshotFile.length());
+            
+            // The snapshot has no proxies but this sets the cross-references that are not saved in it
+            phase = fMetrics.start("resolveProxies"); //$NON-NLS-1$
+            List<EObject> proxyHolders = new ArrayList<EObject>();
+            for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+                addProxyHolder(iter.next(), proxyHolders);
+            }
+            
+            fResolveErrors = null;
+            resolveProxies(proxyHolders);
+            fMetrics.end(phase);
+            
+            File imagesFolder = new File(gitRepoFolder, IMAGES_FOLDER);
+            if(imagesFolder.isDirectory()) {
+                phase = fMetrics.start("loadImages"); //$NON-NLS-1$
+                loadImages(model, imagesFolder, phase);
+                fMetrics.end(phase);
+            }
+            
+            fMetrics.log();
+            return model;
+        }
+        
+        model = importFromFiles(gitRepoFolder);
+        
+        // Only keep complete models
+        if(fResolveErrors == null && !fLazyDiagrams) {
+            phase = fMetrics.start("saveSnapshot"); //$NON-NLS-1$
+            saveSnapshot(gitRepoFolder, snapshotKey, model);
+            fMetrics.end(phase);
+        }
+        
+        fMetrics.log();
+        return model;
+    }
+    
+    /**
+     * Save a snapshot of a model, to be used by the next import of the same files.
+     * 
+     * @param gitRepoFolder
+     * @param snapshotKey As given to {@link #importLocalGitRepositoryAsModel(File, String)}
+     * @param model A model that is the same as the files, with all its diagram models loaded, and that no other thread uses
+     */
+    private static void saveSnapshot(File gitRepoFolder, String snapshotKey, IArchimateModel model) {
+        File gitFolder = new File(gitRepoFolder, ".git"); //$NON-NLS-1$
+        if(!gitFolder.isDirectory()) {
+            return;
+        }
+        
+        File snapshotFile = new File(gitFolder, SNAPSHOT_FILE);
+        
+        try {
+            GraficoModelSnapshot.write(snapshotFile, snapshotKey, model);
+        }
+        catch(IOException ex) {
+            // The snapshot is only a cache
+            snapshotFile.delete();
+        }
+    }
+    
+    /**
+     * Import the model as it was in a commit, reading the files straight from the object database.
+     * Nothing is read from or written to the working tree, so the repository's checkout is not changed.
+     * 
+     * @param gitRepoFolder
+     * @param revision A ref name or commit id, as accepted by Repository.resolve(), for example "HEAD" or "origin/master"
+     * @return The model
+     * @throws IOException
+     */
+    public IArchimateModel importModelFromCommit(File gitRepoFolder, String revision) throws IOException {
+        try(Git git = GraficoRepositoryRegistry.open(gitRepoFolder)) {
+            ObjectId commitId = git.getRepository().resolve(revision + "^{commit}"); //$NON-NLS-1$
+            if(commitId == null) {
+                throw new IOException("Revision not found: " + revision); //$NON-NLS-1$
+            }
+            return importModelFromCommit(git.getRepository(), commitId);
+        }
+    }
+    
+    /**
+     * Import the model as it was in a commit, reading the files straight from the object database.
+     * 
+     * @param repository
+     * @param commitId
+     * @return The model
+     * @throws IOException
+     */
+    public IArchimateModel importModelFromCommit(Repository repository, ObjectId commitId) throws IOException {
+        // Files are named as if they had been checked out so that loaded objects have the usual URIs
+        File rootFolder = repository.isBare() ? repository.getDirectory() : repository.getWorkTree();
+        File modelFolder = new File(rootFolder, MODEL_FOLDER);
+        
+        Map<File, ObjectId> blobIds = new HashMap<File, ObjectId>();
+        Map<String, ObjectId> images = new LinkedHashMap<String, ObjectId>();
+        
+        fMetrics = new GraficoMetrics("Import " + commitId.getName()); //$NON-NLS-1$
+        GraficoMetrics.Phase phase = fMetrics.start("collectFiles"); //$NON-NLS-1$
+        fFolderListings = new HashMap<File, File[]>();
+        fCollectedBytes = 0;
+        List<File> files = new ArrayList<File>();
+        collectTreeFiles(repository, commitId, rootFolder, files, blobIds, images);
+        fMetrics.end(phase);
+        
+        if(!blobIds.containsKey(new File(modelFolder, FOLDER_XML))) {
+            throw new IOException("Commit has no model"); //$NON-NLS-1$
+        }
+        
+        fRepository = repository;
+        fBlobIds = blobIds;
+        
+        IArchimateModel model;
+        try {
+            model = importFiles(modelFolder, files);
+        }
+        finally {
+            fRepository = null;
+            fBlobIds = null;
+        }
+        
+        if(!images.isEmpty()) {
+            phase = fMetrics.start("loadImages"); //$NON-NLS-1$
+            IArchiveManager archiveManager = IArchiveManager.FACTORY.createArchiveManager(model);
+            for(Entry<String, ObjectId> entry : images.entrySet()) {
+                byte[] bytes = repository.open(entry.getValue(), Constants.OBJ_BLOB).getBytes();
+                archiveManager.addByteContentEntry(entry.getKey(), bytes);
+                phase.addFiles(1, bytes.length);
+            }
+            fMetrics.end(phase);
+        }
+        
+        fMetrics.log();
+        return model;
+    }
+    
+    /**
+     * Load the files of the model and assemble it. fFolderListings has to be set for all directories of files.
+     * 
+     * @param modelFolder
+     * @param files
+     * @return The model, with resolved proxies
+     * @throws IOException
+     */
+    private IArchimateModel importFiles(File modelFolder, List<File> files) throws IOException {
+        // Reset the ID -> Object lookup table. Only the root object of each file is referred to from other files.
+        fIDLookup = new HashMap<String, IIdentifier>((int)(files.size() / 0.75f) + 1);
+        
+        GraficoMetrics.Phase phase = fMetrics.start("load"); //$NON-NLS-1$
+        phase.addFiles(files.size(), fCollectedBytes);
+        fProxyHolders = new ArrayList<EObject>();
+        fLoadedObjects = loadFiles(files, phase);
+        
+        // Assemble the Model from the loaded objects (it will contain unresolved proxies)
+        IArchimateModel model;
+        try {
+            model = loadModel(modelFolder);
+        }
+        finally {
+            fLoadedObjects = null;
+            fFolderListings = null;
+        }
+        fMetrics.end(phase);
+        
+        // Remove model from its resource if it was loaded in one (needed to save it back to a .archimate file)
+        if(model.eResource() != null) {
+            model.eResource().getContents().remove(model);
+        }
+        
+        // Resolve proxies
+        phase = fMetrics.start("resolveProxies"); //$NON-NLS-1$
+        fResolveErrors = null;
+        
+        resolveProxies(fProxyHolders);
+        fProxyHolders = null;
+        fMetrics.end(phase);
+        
+        return model;
+    }
+    
     /**
      * @return The Error Resolve status if any, can be null.
      */
@@ -116,36 +502,60 @@ public class GraficoModelImporter implements IGraficoConstants {
     }
     
     /**
-     * Read images from images subfolder and load them into the model
+     * Read images from images subfolder and load them into the model, or only record their files if images are loaded when needed
      * 
      * @param model
      * @param folder
+     * @param phase Counts the images read
      * @throws IOException
      */
-    private void loadImages(IArchimateModel model, File folder) throws IOException {
+    private void loadImages(IArchimateModel model, File folder, GraficoMetrics.Phase phase) throws IOException {
         IArchiveManager archiveManager = IArchiveManager.FACTORY.createArchiveManager(model);
-        byte[] bytes;
+        Map<String, File> imageFiles = new HashMap<String, File>();
 
-        // Add all images files
-        for(File imageFile : folder.listFiles()) {
-            if(imageFile.isFile()) {
-                bytes = Files.readAllBytes(imageFile.toPath());
-                // /!\ This must match the prefix used in
-                // ArchiveManager.createArchiveImagePathname
-                archiveManager.addByteContentEntry("images/" + imageFile.getName(), bytes); //$NON-NLS-1$
+        // Add all images files, directly in the folder
+        Files.walkFileTree(folder.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path imageFile, BasicFileAttributes attrs) throws IOException {
+                if(attrs.isRegularFile()) {
+                    // /!\ This must match the prefix used in
+                    // ArchiveManager.createArchiveImagePathname
+                    String imagePath = "images/" + imageFile.getFileName(); //$NON-NLS-1$
+                    if(fLazyImages) {
+                        imageFiles.put(imagePath, imageFile.toFile());
+                    }
+                    else {
+                        archiveManager.addByteContentEntry(imagePath, Files.readAllBytes(imageFile));
+                        phase.addFiles(1, attrs.size());
+                    }
+                }
+                return FileVisitResult.CONTINUE;
             }
-        }
+        });
+        
+        GraficoLazyImages.attach(model, imageFiles);
     }    
    
     /**
-     * Look for all eObject, and resolve proxies on known classes
+     * Add eObject to proxyHolders if it is of a class that can refer to objects in other files
      * 
-     * @param object
+     * @param eObject
+     * @param proxyHolders
      */
-    private void resolveProxies(EObject object) {
-        for(Iterator<EObject> iter = object.eAllContents(); iter.hasNext();) {
-            EObject eObject = iter.next();
-
+    static void addProxyHolder(EObject eObject, List<EObject> proxyHolders) {
+        if(eObject instanceof IArchimateRelationship || eObject instanceof IDiagramModelArchimateObject
+                || eObject instanceof IDiagramModelArchimateConnection || eObject instanceof IDiagramModelReference) {
+            proxyHolders.add(eObject);
+        }
+    }
+    
+    /**
+     * Resolve proxies of the objects recorded when loading files, and set cross-references
+     * 
+     * @param proxyHolders
+     */
+    private void resolveProxies(List<EObject> proxyHolders) {
+        for(EObject eObject : proxyHolders) {
             if(eObject instanceof IArchimateRelationship) {
                 // Resolve proxies for Relations
                 IArchimateRelationship relation = (IArchimateRelationship)eObject;
@@ -182,11 +592,12 @@ public class GraficoModelImporter implements IGraficoConstants {
      */
     private EObject resolve(IIdentifier object, IIdentifier parent) {
         if(object != null && object.eIsProxy()) {
-            IIdentifier newObject = fIDLookup.get(((InternalEObject)object).eProxyURI().fragment());
+            String id = ((InternalEObject)object).eProxyURI().fragment();
+            IIdentifier newObject = fIDLookup.get(id);
             // Log errors if proxy has not been resolved
             if(newObject == null) {
                 String message = String.format(Messages.GraficoModelImporter_0,
-                        ((InternalEObject)object).eProxyURI().fragment(), parent.getClass().getSimpleName(), parent.getId());
+                        id, parent.getClass().getSimpleName(), parent.getId());
                 System.err.println(message);
                 
                 // Create resolveError the first time
@@ -203,23 +614,333 @@ public class GraficoModelImporter implements IGraficoConstants {
         }
     }
     
+    /**
+     * Find all the files of the model
+     * 
+     * @param modelFolder
+     * @param files Receives the files
+     * @throws IOException
+     */
+    private void collectFiles(File modelFolder, List<File> files) throws IOException {
+        files.add(new File(modelFolder, FOLDER_XML));
+        for(FolderType folderType : FOLDER_TYPES) {
+            collectFolderFiles(new File(modelFolder, folderType.toString()), files);
+        }
+    }
+    
+    /**
+     * Walk a folder, with the attributes of each entry read only once, and list its Grafico files and sub-folders.
+     * Other files are ignored.
+     * 
+     * @param folder
+     * @param files Receives the files
+     * @throws IOException
+     */
+    private void collectFolderFiles(File folder, List<File> files) throws IOException {
+        // Listing of each directory being walked
+        Deque<List<File>> listings = new ArrayDeque<List<File>>();
+        
+        Files.walkFileTree(folder.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if(!listings.isEmpty()) {
+                    listings.peek().add(dir.toFile());
+                }
+                listings.push(new ArrayList<File>());
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if(attrs.isRegularFile() && GRAFICO_FILES.matches(file.getFileName())) {
+                    File f = file.toFile();
+                    listings.peek().add(f);
+                    files.add(f);
+                    fCollectedBytes += attrs.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                // Missing or unreadable, as if it was not there
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) {
+                List<File> listing = listings.pop();
+                fFolderListings.put(dir.toFile(), listing.toArray(new File[listing.size()]));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
+    /**
+     * Find all the files of the model and the images in a commit
+     * 
+     * @param repository
+     * @param commitId
+     * @param rootFolder Folder the paths of the commit are made relative to
+     * @param files Receives the files
+     * @param blobIds Receives File -> id of its blob
+     * @param images Receives the archive path of each image -> id of its blob
+     * @throws IOException
+     */
+    private void collectTreeFiles(Repository repository, ObjectId commitId, File rootFolder, List<File> files,
+            Map<File, ObjectId> blobIds, Map<String, ObjectId> images) throws IOException {
+        
+        List<String> paths = new ArrayList<String>();
+        paths.add(MODEL_FOLDER + "/" + FOLDER_XML); //$NON-NLS-1$
+        for(FolderType folderType : FOLDER_TYPES) {
+            paths.add(MODEL_FOLDER + "/" + folderType.toString()); //$NON-NLS-1$
+        }
+        paths.add(IMAGES_FOLDER);
+        
+        // Directory -> its files and directories, in the order of the tree
+        Map<File, Set<File>> listings = new HashMap<File, Set<File>>();
+        
+        try(RevWalk revWalk = new RevWalk(repository); TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+            
+            while(treeWalk.next()) {
+                if(treeWalk.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+                    continue;
+                }
+                
+                String path = treeWalk.getPathString();
+                
+                if(path.startsWith(IMAGES_FOLDER + "/")) { //$NON-NLS-1$
+                    // Only images directly in the images folder, as when loading from the working tree
+                    if(path.indexOf('/', IMAGES_FOLDER.length() + 1) == -1) {
+                        images.put("images/" + treeWalk.getNameString(), treeWalk.getObjectId(0)); //$NON-NLS-1$
+                    }
+                    continue;
+                }
+                
+                File file = new File(rootFolder, path);
+                files.add(file);
+                blobIds.put(file, treeWalk.getObjectId(0));
+                
+                // Add the file and its parent directories to their directory's listing
+                for(File child = file; !child.getParentFile().equals(rootFolder); child = child.getParentFile()) {
+                    Set<File> listing = listings.get(child.getParentFile());
+                    if(listing == null) {
+                        listing = new LinkedHashSet<File>();
+                        listings.put(child.getParentFile(), listing);
+                    }
+                    if(!listing.add(child)) {
+                        break;
+                    }
+                }
+            }
+        }
+        
+        for(Entry<File, Set<File>> entry : listings.entrySet()) {
+            fFolderListings.put(entry.getKey(), entry.getValue().toArray(new File[entry.getValue().size()]));
+        }
+    }
+    
+    /**
+     * Load files, in parallel if more than one thread is set.
+     * Each file is loaded in its own Resource that is only used by the thread loading it.
+     * 
+     * @param files
+     * @param phase Counts the memory allocated by the threads loading files
+     * @return File -> Object loaded from it
+     * @throws IOException
+     */
+    private Map<File, EObject> loadFiles(List<File> files, GraficoMetrics.Phase phase) throws IOException {
+        Map<File, EObject> loadedObjects = new HashMap<File, EObject>((int)(files.size() / 0.75f) + 1);
+        int threadCount = Math.min(fThreadCount, files.size());
+        
+        if(threadCount < 2) {
+            for(File file : files) {
+                LoadedFile loadedFile = loadAndRecordFile(file);
+                loadedObjects.put(file, loadedFile.root);
+                fProxyHolders.addAll(loadedFile.proxyHolders);
+            }
+            return loadedObjects;
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        
+        try {
+            Map<File, Future<LoadedFile>> futures = new LinkedHashMap<File, Future<LoadedFile>>();
+            
+            for(File file : files) {
+                futures.put(file, executor.submit(new Callable<LoadedFile>() {
+                    @Override
+                    public LoadedFile call() throws IOException {
+                        long allocatedBytes = GraficoMetrics.getAllocatedBytes();
+                        try {
+                            return loadAndRecordFile(file);
+                        }
+                        finally {
+                            phase.addAllocatedBytes(allocatedBytes);
+                        }
+                    }
+                }));
+            }
+            
+            for(Entry<File, Future<LoadedFile>> entry : futures.entrySet()) {
+                LoadedFile loadedFile = entry.getValue().get();
+                loadedObjects.put(entry.getKey(), loadedFile.root);
+                fProxyHolders.addAll(loadedFile.proxyHolders);
+            }
+        }
+        catch(ExecutionException ex) {
+            if(ex.getCause() instanceof IOException) {
+                throw (IOException)ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import was interrupted", ex); //$NON-NLS-1$
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        
+        return loadedObjects;
+    }
+    
+    /**
+     * Load a file and record the objects in it that can refer to objects in other files.
+     * Recording them here, on the thread that loaded the file, saves walking the whole model again to resolve proxies.
+     * 
+     * @param file
+     * @return The loaded file
+     * @throws IOException
+     */
+    private LoadedFile loadAndRecordFile(File file) throws IOException {
+        LoadedFile loadedFile = new LoadedFile();
+        
+        // Only the diagram model itself is read, its contents are loaded when needed
+        if(fLazyDiagramsFolder != null && file.getPath().startsWith(fLazyDiagramsFolder) && !file.getName().equals(FOLDER_XML)) {
+            loadedFile.root = loadDiagramModelIndex(file);
+            if(loadedFile.root != null) {
+                return loadedFile;
+            }
+        }
+        
+        loadedFile.root = loadFile(file);
+        
+        addProxyHolder(loadedFile.root, loadedFile.proxyHolders);
+        for(Iterator<EObject> iter = loadedFile.root.eAllContents(); iter.hasNext();) {
+            addProxyHolder(iter.next(), loadedFile.proxyHolders);
+        }
+        
+        return loadedFile;
+    }
+    
+    /**
+     * Create an eObject from an XML file, or from its blob when importing from a commit.
+     * Files are read by a GraficoXMLReader, or loaded in a Resource if they hold content that it does not handle.
+     * 
+     * @param file
+     * @return The root object of the file
+     * @throws IOException
+     */
+    private EObject loadFile(File file) throws IOException {
+        if(fBlobIds != null) {
+            return loadBlob(fRepository, fBlobIds.get(file), file);
+        }
+        return loadFromFile(file);
+    }
+    
+    /**
+     * Create an eObject from an XML file. References to other files are left as proxies.
+     * This can be called from any thread.
+     * 
+     * @param file
+     * @return The root object of the file
+     * @throws IOException
+     */
+    static EObject loadFromFile(File file) throws IOException {
+        URI uri = URI.createFileURI(file.getAbsolutePath());
+        
+        try(InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            EObject eObject = READERS.get().read(in, uri);
+            if(eObject != null) {
+                return eObject;
+            }
+        }
+        
+        XMLResource resource = new XMLResourceImpl(uri);
+        resource.load(LOAD_OPTIONS);
+        
+        if(resource.getContents().isEmpty()) {
+            throw new IOException("File is empty: " + file); //$NON-NLS-1$
+        }
+        
+        return resource.getContents().get(0);
+    }
+    
+    /**
+     * Create a diagram model that only has the attributes of the root element of its file, and is loaded by a GraficoLazyDiagram
+     * 
+     * @param file
+     * @return The diagram model, or null if the file has to be loaded in full
+     * @throws IOException
+     */
+    private IDiagramModel loadDiagramModelIndex(File file) throws IOException {
+        EObject eObject;
+        
+        try(InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            eObject = READERS.get().readRoot(in, URI.createFileURI(file.getAbsolutePath()));
+        }
+        
+        if(!(eObject instanceof IDiagramModel)) {
+            return null;
+        }
+        
+        GraficoLazyDiagram.attach((IDiagramModel)eObject, file);
+        return (IDiagramModel)eObject;
+    }
+    
+    /**
+     * Create an eObject from the blob of a file, in the same way as from a file. References to other files are left as proxies.
+     * Repository.open() uses its own reader so this can be called from any thread.
+     * 
+     * @param repository
+     * @param blobId
+     * @param file The file the blob would be checked out to
+     * @return The root object of the file
+     * @throws IOException
+     */
+    static EObject loadBlob(Repository repository, ObjectId blobId, File file) throws IOException {
+        URI uri = URI.createFileURI(file.getAbsolutePath());
+        
+        try(InputStream in = repository.open(blobId, Constants.OBJ_BLOB).openStream()) {
+            EObject eObject = READERS.get().read(in, uri);
+            if(eObject != null) {
+                return eObject;
+            }
+        }
+        
+        XMLResource resource = new XMLResourceImpl(uri);
+        
+        try(InputStream in = repository.open(blobId, Constants.OBJ_BLOB).openStream()) {
+            resource.load(in, LOAD_OPTIONS);
+        }
+        
+        if(resource.getContents().isEmpty()) {
+            throw new IOException("File is empty: " + file); //$NON-NLS-1$
+        }
+        
+        return resource.getContents().get(0);
+    }
+    
 	private IArchimateModel loadModel(File folder) throws IOException {
 		IArchimateModel model = (IArchimateModel)loadElement(new File(folder, FOLDER_XML));
 		IFolder tmpFolder;
 		
-		List<FolderType> folderList = new ArrayList<FolderType>();
-		folderList.add(FolderType.STRATEGY);
-		folderList.add(FolderType.BUSINESS);
-		folderList.add(FolderType.APPLICATION);
-		folderList.add(FolderType.TECHNOLOGY);
-		folderList.add(FolderType.MOTIVATION);
-		folderList.add(FolderType.IMPLEMENTATION_MIGRATION);
-		folderList.add(FolderType.OTHER);
-		folderList.add(FolderType.RELATIONS);
-		folderList.add(FolderType.DIAGRAMS);
-
 		// Loop based on FolderType enumeration
-		for(FolderType folderType : folderList) {
+		for(FolderType folderType : FOLDER_TYPES) {
 		    if((tmpFolder = loadFolder(new File(folder, folderType.toString()))) != null) {
 		        model.getFolders().add(tmpFolder);
 		    }
@@ -236,7 +957,7 @@ public class GraficoModelImporter implements IGraficoConstants {
 	 * @throws IOException 
 	 */
     private IFolder loadFolder(File folder) throws IOException {
-        if(!folder.isDirectory() || !(new File(folder, FOLDER_XML)).isFile()) {
+        if(!fFolderListings.containsKey(folder) || !fLoadedObjects.containsKey(new File(folder, FOLDER_XML))) {
             throw new IOException("File is not directory or folder.xml does not exist."); //$NON-NLS-1$
         }
 
@@ -244,9 +965,9 @@ public class GraficoModelImporter implements IGraficoConstants {
         IFolder currentFolder = (IFolder)loadElement(new File(folder, FOLDER_XML));
 
         // Load each elements (except folder.xml) and add them to folder
-        for(File fileOrFolder : folder.listFiles()) {
+        for(File fileOrFolder : fFolderListings.get(folder)) {
             if(!fileOrFolder.getName().equals(FOLDER_XML)) {
-                if(fileOrFolder.isFile()) {
+                if(fLoadedObjects.containsKey(fileOrFolder)) {
                     currentFolder.getElements().add(loadElement(fileOrFolder));
                 }
                 else {
@@ -259,17 +980,17 @@ public class GraficoModelImporter implements IGraficoConstants {
     }
 
     /**
-     * Create an eObject from an XML file. Basically load a resource.
+     * Get the object loaded from an XML file
      * 
      * @param file
      * @return
+     * @throws IOException
      */
-    private EObject loadElement(File file) {
-        // Create a new resource for selected file and add object to persist
-        XMLResource resource = (XMLResource)fResourceSet.getResource(URI.createFileURI(file.getAbsolutePath()), true);
-        resource.getDefaultLoadOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
-        
-        IIdentifier element = (IIdentifier)resource.getContents().get(0);
+    private EObject loadElement(File file) throws IOException {
+        IIdentifier element = (IIdentifier)fLoadedObjects.get(file);
+        if(element == null) {
+            throw new IOException("File was not loaded: " + file); //$NON-NLS-1$
+        }
 
         // Update an ID -> Object mapping table (used as a cache to resolve proxies)
         fIDLookup.put(element.getId(), element);
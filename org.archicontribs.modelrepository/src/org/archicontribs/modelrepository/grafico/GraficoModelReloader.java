@@ -0,0 +1,449 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.gef.commands.Command;
+import org.eclipse.gef.commands.CompoundCommand;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import com.archimatetool.model.IArchimateConcept;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModel;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelReference;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+import com.archimatetool.model.IIdentifier;
+
+
+/**
+ * Updates a model with the changes between two commits, loading only the files that changed.
+ *
+ * The changes are made by a Command that updates the model's objects in place,
+ * so that editors showing the model stay open and the update can be undone.
+ * Changes that can't be made this way, such as added or deleted folders, need the model to be loaded again.
+ */
+public class GraficoModelReloader implements IGraficoConstants {
+
+    /**
+     * @param model A model that is the same as the old commit, with all its diagram models loaded
+     * @param repository
+     * @param oldCommitId
+     * @param newCommitId
+     * @return The Command that makes model the same as the new commit, which can't be executed if nothing changed,
+     *         or null if the model has to be loaded again
+     * @throws IOException
+     */
+    public static Command createReloadCommand(IArchimateModel model, Repository repository, ObjectId oldCommitId, ObjectId newCommitId) throws IOException {
+        // Diagram models that are not loaded would be loaded from the new files, which are already checked out
+        if(!GraficoLazyDiagram.getUnloadedDiagramModels(model).isEmpty()) {
+            return null;
+        }
+        return new GraficoModelReloader(model, repository).createCommand(oldCommitId, newCommitId);
+    }
+
+    private IArchimateModel fModel;
+    private Repository fRepository;
+
+    // Path of each file of the model -> Object saved in it
+    private Map<String, EObject> fFileRoots = new HashMap<String, EObject>();
+
+    // Path of each directory of the model -> Model or folder
+    private Map<String, IFolderContainer> fDirectories = new HashMap<String, IFolderContainer>();
+
+    // ID -> Object lookup table, to resolve references to other files
+    private Map<String, IIdentifier> fIDLookup = new HashMap<String, IIdentifier>();
+
+    private boolean fUnresolved;
+
+    private GraficoModelReloader(IArchimateModel model, Repository repository) {
+        fModel = model;
+        fRepository = repository;
+    }
+
+    private Command createCommand(ObjectId oldCommitId, ObjectId newCommitId) throws IOException {
+        List<DiffEntry> entries;
+
+        try(RevWalk revWalk = new RevWalk(fRepository); TreeWalk treeWalk = new TreeWalk(fRepository)) {
+            treeWalk.addTree(revWalk.parseCommit(oldCommitId).getTree());
+            treeWalk.addTree(revWalk.parseCommit(newCommitId).getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(MODEL_FOLDER, IMAGES_FOLDER), TreeFilter.ANY_DIFF));
+            entries = DiffEntry.scan(treeWalk);
+        }
+
+        CompoundCommand command = new CompoundCommand(Messages.GraficoModelReloader_0);
+        if(entries.isEmpty()) {
+            return command;
+        }
+
+        indexFolderContainer(fModel);
+
+        for(Iterator<EObject> iter = fModel.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IIdentifier) {
+                fIDLookup.put(((IIdentifier)eObject).getId(), (IIdentifier)eObject);
+            }
+        }
+
+        File rootFolder = fRepository.getWorkTree();
+
+        Map<String, EObject> added = new LinkedHashMap<String, EObject>();
+        Map<String, EObject> modified = new LinkedHashMap<String, EObject>();
+        List<String> deleted = new ArrayList<String>();
+
+        for(DiffEntry entry : entries) {
+            String path = entry.getChangeType() == ChangeType.DELETE ? entry.getOldPath() : entry.getNewPath();
+
+            // Images are loaded with the whole model, and folders are added and deleted with their directories
+            if(path.startsWith(IMAGES_FOLDER + "/") || (path.endsWith("/" + FOLDER_XML) && entry.getChangeType() != ChangeType.MODIFY)) { //$NON-NLS-1$ //$NON-NLS-2$
+                return null;
+            }
+
+            switch(entry.getChangeType()) {
+                case ADD:
+                    added.put(path, GraficoModelImporter.loadBlob(fRepository, entry.getNewId().toObjectId(), new File(rootFolder, path)));
+                    break;
+
+                case MODIFY:
+                    modified.put(path, GraficoModelImporter.loadBlob(fRepository, entry.getNewId().toObjectId(), new File(rootFolder, path)));
+                    break;
+
+                case DELETE:
+                    deleted.add(path);
+                    break;
+
+                default:
+                    return null;
+            }
+        }
+
+        // Added objects that are not already in the model can be referred to from the other loaded files
+        Map<String, String> addedPaths = new HashMap<String, String>();
+        for(Map.Entry<String, EObject> entry : added.entrySet()) {
+            IIdentifier element = (IIdentifier)entry.getValue();
+            addedPaths.put(element.getId(), entry.getKey());
+            if(!fIDLookup.containsKey(element.getId())) {
+                fIDLookup.put(element.getId(), element);
+            }
+        }
+
+        for(EObject eObject : added.values()) {
+            resolveProxies(eObject);
+        }
+        for(EObject eObject : modified.values()) {
+            resolveProxies(eObject);
+        }
+
+        if(fUnresolved) {
+            return null;
+        }
+
+        for(Map.Entry<String, EObject> entry : modified.entrySet()) {
+            EObject target = fFileRoots.get(entry.getKey());
+            if(target == null || target.eClass() != entry.getValue().eClass()) {
+                return null;
+            }
+            command.add(new UpdateCommand(target, entry.getValue()));
+        }
+
+        for(String path : deleted) {
+            EObject target = fFileRoots.get(path);
+            if(target == null) {
+                return null;
+            }
+
+            // An element moved to another folder is deleted from its old directory and added to the new one
+            String addedPath = addedPaths.remove(((IIdentifier)target).getId());
+            if(addedPath != null) {
+                EObject source = added.remove(addedPath);
+                IFolder folder = getFolder(addedPath);
+                if(folder == null || target.eClass() != source.eClass()) {
+                    return null;
+                }
+                command.add(new MoveCommand(target, folder));
+                command.add(new UpdateCommand(target, source));
+            }
+            else {
+                command.add(new DeleteCommand(target));
+            }
+        }
+
+        for(Map.Entry<String, EObject> entry : added.entrySet()) {
+            IFolder folder = getFolder(entry.getKey());
+            if(folder == null || fIDLookup.get(((IIdentifier)entry.getValue()).getId()) != entry.getValue()) {
+                return null;
+            }
+            command.add(new AddCommand(folder, entry.getValue()));
+        }
+
+        return command;
+    }
+
+    private void indexFolderContainer(IFolderContainer folderContainer) {
+        fFileRoots.put(GraficoModelExporter.getFilePath(folderContainer), folderContainer);
+        fDirectories.put(GraficoModelExporter.getDirectoryPath(folderContainer), folderContainer);
+
+        for(IFolder folder : folderContainer.getFolders()) {
+            indexFolderContainer(folder);
+        }
+
+        if(folderContainer instanceof IFolder) {
+            for(EObject element : ((IFolder)folderContainer).getElements()) {
+                fFileRoots.put(GraficoModelExporter.getFilePath(element), element);
+            }
+        }
+    }
+
+    /**
+     * @param path Path of an element's file
+     * @return The folder of the file's directory, or null
+     */
+    private IFolder getFolder(String path) {
+        IFolderContainer folderContainer = fDirectories.get(path.substring(0, path.lastIndexOf('/')));
+        return folderContainer instanceof IFolder ? (IFolder)folderContainer : null;
+    }
+
+    /**
+     * Replace proxies to objects in other files with the objects of the model, or added objects
+     *
+     * @param root
+     */
+    private void resolveProxies(EObject root) {
+        for(Iterator<EObject> iter = EcoreUtil.getAllContents(Collections.singleton(root), false); iter.hasNext();) {
+            EObject eObject = iter.next();
+
+            if(eObject instanceof IArchimateRelationship) {
+                IArchimateRelationship relation = (IArchimateRelationship)eObject;
+                relation.setSource((IArchimateConcept)resolve(relation.getSource()));
+                relation.setTarget((IArchimateConcept)resolve(relation.getTarget()));
+            }
+            else if(eObject instanceof IDiagramModelArchimateObject) {
+                IDiagramModelArchimateObject element = (IDiagramModelArchimateObject)eObject;
+                element.setArchimateElement((IArchimateElement)resolve(element.getArchimateElement()));
+            }
+            else if(eObject instanceof IDiagramModelArchimateConnection) {
+                IDiagramModelArchimateConnection archiConnection = (IDiagramModelArchimateConnection)eObject;
+                archiConnection.setArchimateRelationship((IArchimateRelationship)resolve(archiConnection.getArchimateRelationship()));
+            }
+            else if(eObject instanceof IDiagramModelReference) {
+                IDiagramModelReference element = (IDiagramModelReference)eObject;
+                element.setReferencedModel((IDiagramModel)resolve(element.getReferencedModel()));
+            }
+        }
+    }
+
+    private IIdentifier resolve(IIdentifier object) {
+        if(object != null && object.eIsProxy()) {
+            IIdentifier newObject = fIDLookup.get(((InternalEObject)object).eProxyURI().fragment());
+            if(newObject == null) {
+                fUnresolved = true;
+                return object;
+            }
+            return newObject;
+        }
+        return object;
+    }
+
+    /**
+     * Add or remove the diagram components inside eObject to or from the lists of their concept's referencing components.
+     * These lists are not saved so they are not set when a file is loaded.
+     *
+     * @param eObject
+     * @param add
+     */
+    private static void updateDiagramReferences(EObject eObject, boolean add) {
+        for(Iterator<EObject> iter = EcoreUtil.getAllContents(Collections.singleton(eObject), false); iter.hasNext();) {
+            EObject child = iter.next();
+
+            if(child instanceof IDiagramModelArchimateObject && ((IDiagramModelArchimateObject)child).getArchimateElement() != null) {
+                IDiagramModelArchimateObject dmo = (IDiagramModelArchimateObject)child;
+                if(add) {
+                    dmo.getArchimateElement().getReferencingDiagramObjects().add(dmo);
+                }
+                else {
+                    dmo.getArchimateElement().getReferencingDiagramObjects().remove(dmo);
+                }
+            }
+            else if(child instanceof IDiagramModelArchimateConnection && ((IDiagramModelArchimateConnection)child).getArchimateRelationship() != null) {
+                IDiagramModelArchimateConnection connection = (IDiagramModelArchimateConnection)child;
+                if(add) {
+                    connection.getArchimateRelationship().getReferencingDiagramConnections().add(connection);
+                }
+                else {
+                    connection.getArchimateRelationship().getReferencingDiagramConnections().remove(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param feature
+     * @return True if feature is saved in the file of the object that has it
+     */
+    private static boolean isSavedInFile(EStructuralFeature feature) {
+        return feature.isChangeable() && !feature.isDerived() && !feature.isTransient() && !GraficoResource.isSavedInOwnFiles(feature);
+    }
+
+    /**
+     * @param eObject
+     * @return Feature -> Value of the features of eObject that are saved in its file and are set
+     */
+    private static Map<EStructuralFeature, Object> getState(EObject eObject) {
+        Map<EStructuralFeature, Object> state = new HashMap<EStructuralFeature, Object>();
+
+        for(EStructuralFeature feature : eObject.eClass().getEAllStructuralFeatures()) {
+            if(isSavedInFile(feature) && eObject.eIsSet(feature)) {
+                Object value = eObject.eGet(feature);
+                state.put(feature, feature.isMany() ? new ArrayList<Object>((List<?>)value) : value);
+            }
+        }
+
+        return state;
+    }
+
+    private static void setState(EObject eObject, Map<EStructuralFeature, Object> state) {
+        updateDiagramReferences(eObject, false);
+
+        for(EStructuralFeature feature : eObject.eClass().getEAllStructuralFeatures()) {
+            if(isSavedInFile(feature)) {
+                if(state.containsKey(feature)) {
+                    eObject.eSet(feature, state.get(feature));
+                }
+                else {
+                    eObject.eUnset(feature);
+                }
+            }
+        }
+
+        updateDiagramReferences(eObject, true);
+    }
+
+    /**
+     * Set the saved features of a model, folder or element to those of the same object loaded from its new file
+     */
+    private static class UpdateCommand extends Command {
+        private EObject fTarget;
+        private Map<EStructuralFeature, Object> fNewState;
+        private Map<EStructuralFeature, Object> fOldState;
+
+        UpdateCommand(EObject target, EObject source) {
+            fTarget = target;
+            fNewState = getState(source);
+        }
+
+        @Override
+        public void execute() {
+            fOldState = getState(fTarget);
+            setState(fTarget, fNewState);
+        }
+
+        @Override
+        public void undo() {
+            setState(fTarget, fOldState);
+        }
+
+        @Override
+        public void redo() {
+            setState(fTarget, fNewState);
+        }
+    }
+
+    private static class AddCommand extends Command {
+        private IFolder fFolder;
+        private EObject fElement;
+
+        AddCommand(IFolder folder, EObject element) {
+            fFolder = folder;
+            fElement = element;
+        }
+
+        @Override
+        public void execute() {
+            fFolder.getElements().add(fElement);
+            updateDiagramReferences(fElement, true);
+        }
+
+        @Override
+        public void undo() {
+            fFolder.getElements().remove(fElement);
+            updateDiagramReferences(fElement, false);
+        }
+    }
+
+    private static class DeleteCommand extends Command {
+        private IFolder fFolder;
+        private EObject fElement;
+        private int fIndex;
+
+        DeleteCommand(EObject element) {
+            fFolder = (IFolder)element.eContainer();
+            fElement = element;
+        }
+
+        @Override
+        public void execute() {
+            fIndex = fFolder.getElements().indexOf(fElement);
+            fFolder.getElements().remove(fElement);
+            updateDiagramReferences(fElement, false);
+        }
+
+        @Override
+        public void undo() {
+            fFolder.getElements().add(fIndex, fElement);
+            updateDiagramReferences(fElement, true);
+        }
+    }
+
+    private static class MoveCommand extends Command {
+        private IFolder fOldFolder;
+        private IFolder fNewFolder;
+        private EObject fElement;
+        private int fIndex;
+
+        MoveCommand(EObject element, IFolder newFolder) {
+            fOldFolder = (IFolder)element.eContainer();
+            fNewFolder = newFolder;
+            fElement = element;
+        }
+
+        @Override
+        public void execute() {
+            fIndex = fOldFolder.getElements().indexOf(fElement);
+            fNewFolder.getElements().add(fElement);
+        }
+
+        @Override
+        public void undo() {
+            fOldFolder.getElements().add(fIndex, fElement);
+        }
+    }
+}
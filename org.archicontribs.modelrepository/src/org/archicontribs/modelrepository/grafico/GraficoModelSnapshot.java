@@ -0,0 +1,91 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.impl.BinaryResourceImpl;
+
+import com.archimatetool.model.IArchimateModel;
+
+
+/**
+ * Binary snapshot of an imported model, saved with the key of the files it was imported from.
+ * Loading a snapshot is much faster than parsing all the Grafico files again.
+ *
+ * Transient features such as the cross-references between elements and diagram objects are not saved
+ * and have to be set again after reading.
+ */
+class GraficoModelSnapshot {
+
+    // Identifies the format of the file. Change it when the format changes.
+    private static final String FORMAT = "grafico-snapshot-1"; //$NON-NLS-1$
+
+    /**
+     * @param file
+     * @param key
+     * @return The model saved in file if it was saved with key, or null
+     */
+    static IArchimateModel read(File file, String key) {
+        if(!file.isFile()) {
+            return null;
+        }
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(!FORMAT.equals(in.readUTF()) || !key.equals(in.readUTF())) {
+                return null;
+            }
+
+            Resource resource = new BinaryResourceImpl(URI.createFileURI(file.getAbsolutePath()));
+            resource.load(in, null);
+
+            IArchimateModel model = (IArchimateModel)resource.getContents().get(0);
+            resource.getContents().remove(model);
+            return model;
+        }
+        catch(IOException | RuntimeException ex) {
+            // Unreadable snapshot, it will be saved again
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Save a model to file with key. The file is replaced in one step so that it is never half written.
+     *
+     * @param file
+     * @param key
+     * @param model A model that is not in a Resource
+     * @throws IOException
+     */
+    static void write(File file, String key, IArchimateModel model) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+        Resource resource = new BinaryResourceImpl(URI.createFileURI(file.getAbsolutePath()));
+        resource.getContents().add(model);
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeUTF(FORMAT);
+            out.writeUTF(key);
+            resource.save(out, null);
+        }
+        finally {
+            resource.getContents().remove(model);
+        }
+
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
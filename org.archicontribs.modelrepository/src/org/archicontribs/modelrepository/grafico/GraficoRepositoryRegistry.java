@@ -0,0 +1,226 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+
+
+/**
+ * Keeps one open Repository per local Git folder, shared by all Grafico operations,
+ * so that each operation does not read the config and refs again and start with empty caches.
+ *
+ * The Git returned by {@link #open(File)} has to be closed, which releases its Repository.
+ * A Repository that is not used by anything is closed once it has been idle for {@link #IDLE_TIME}.
+ * If a Git folder is deleted or replaced a new Repository is opened for it.
+ * A Repository can also be opened unshared, for example to garbage collect it, without holding up {@link #open(File)}.
+ */
+public class GraficoRepositoryRegistry {
+
+    /**
+     * Time in milliseconds after which a Repository that is not used is closed
+     */
+    public static final long IDLE_TIME = 5 * 60 * 1000;
+
+    private static class Entry {
+        Repository repository;
+        Object gitFolderKey;
+        int useCount;
+        long idleSince;
+    }
+
+    /**
+     * A Git that releases its shared Repository when it is closed
+     */
+    private static class SharedGit extends Git {
+        private Entry fEntry;
+
+        SharedGit(Entry entry) {
+            super(entry.repository);
+            fEntry = entry;
+        }
+
+        @Override
+        public void close() {
+            if(fEntry != null) {
+                release(fEntry);
+                fEntry = null;
+            }
+        }
+    }
+
+    // Absolute local Git folder -> open Repository
+    private static final Map<File, Entry> ENTRIES = new HashMap<File, Entry>();
+
+    private static ScheduledExecutorService scheduler;
+
+    /**
+     * Open a local Git folder, using its shared Repository if it is open.
+     * This never waits for other uses, so it can be called from the UI thread.
+     *
+     * @param localGitFolder
+     * @return A Git to close when done with it. It can be used from any thread.
+     * @throws IOException if the folder is not a Git repository
+     */
+    public static Git open(File localGitFolder) throws IOException {
+        File key = getKey(localGitFolder);
+
+        synchronized(ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+
+            // The Git folder was deleted or replaced since it was opened
+            if(entry != null && !Objects.equals(entry.gitFolderKey, getGitFolderKey(entry.repository.getDirectory()))) {
+                ENTRIES.remove(key);
+                if(entry.useCount == 0) {
+                    entry.repository.close();
+                }
+                entry = null;
+            }
+
+            if(entry == null) {
+                Repository repository = Git.open(key).getRepository();
+                entry = new Entry();
+                entry.repository = repository;
+                entry.gitFolderKey = getGitFolderKey(repository.getDirectory());
+                ENTRIES.put(key, entry);
+            }
+
+            entry.useCount++;
+            return new SharedGit(entry);
+        }
+    }
+
+    /**
+     * Close all the Repositories that are not used, for example before their folders are deleted.
+     * Repositories that are used are closed when they are released.
+     */
+    public static void closeAll() {
+        closeIdle(0);
+    }
+
+    /**
+     * Close the Repositories that have not been used for idleTime
+     *
+     * @param idleTime in milliseconds
+     */
+    static void closeIdle(long idleTime) {
+        List<Repository> repositories = new ArrayList<Repository>();
+        long now = System.currentTimeMillis();
+
+        synchronized(ENTRIES) {
+            for(Iterator<Entry> iter = ENTRIES.values().iterator(); iter.hasNext();) {
+                Entry entry = iter.next();
+                if(entry.useCount == 0 && now - entry.idleSince >= idleTime) {
+                    repositories.add(entry.repository);
+                    iter.remove();
+                }
+            }
+        }
+
+        for(Repository repository : repositories) {
+            repository.close();
+        }
+    }
+
+    /**
+     * Open a local Git folder with a Repository of its own if nothing else is using the shared one.
+     * {@link #open(File)} does not wait for it, so what is done with it has to be safe while the folder is used,
+     * as for git gc running next to other git commands.
+     *
+     * @param localGitFolder
+     * @return A Git to close when done with it, or null if the folder is in use
+     * @throws IOException if the folder is not a Git repository
+     */
+    static Git openUnshared(File localGitFolder) throws IOException {
+        File key = getKey(localGitFolder);
+
+        synchronized(ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+            if(entry != null && entry.useCount > 0) {
+                return null;
+            }
+        }
+
+        return Git.open(key);
+    }
+
+    /**
+     * @return The number of open Repositories
+     */
+    static int getOpenCount() {
+        synchronized(ENTRIES) {
+            return ENTRIES.size();
+        }
+    }
+
+    private static void release(Entry entry) {
+        synchronized(ENTRIES) {
+            if(--entry.useCount > 0) {
+                return;
+            }
+
+            // Dropped from the registry while it was used
+            if(!ENTRIES.containsValue(entry)) {
+                entry.repository.close();
+                return;
+            }
+
+            entry.idleSince = System.currentTimeMillis();
+
+            if(scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "Grafico Repository Registry"); //$NON-NLS-1$
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    closeIdle(IDLE_TIME);
+                }
+            }, IDLE_TIME, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static File getKey(File localGitFolder) {
+        return localGitFolder.getAbsoluteFile().toPath().normalize().toFile();
+    }
+
+    /**
+     * @param gitFolder
+     * @return A key that changes if the Git folder is deleted or replaced, or null if it does not exist
+     */
+    private static Object getGitFolderKey(File gitFolder) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(gitFolder.toPath(), BasicFileAttributes.class);
+            // The file key is not available on all platforms
+            return attrs.fileKey() != null ? attrs.fileKey() : attrs.creationTime();
+        }
+        catch(IOException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.InternalEList;
+import org.eclipse.emf.ecore.xmi.XMLHelper;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.eclipse.emf.ecore.xmi.XMLSave;
+import org.eclipse.emf.ecore.xmi.impl.XMLHelperImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMLSaveImpl;
+
+import com.archimatetool.model.IArchimatePackage;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+import com.archimatetool.model.IIdentifier;
+
+
+/**
+ * XML Resource used to save one Grafico file straight from the live model.
+ *
+ * The object is written as if it was the only content of its own Resource, but it is never added to this Resource,
+ * so the model does not need to be copied first:
+ * <ul>
+ * <li>Sub-folders and elements of a folder or model are not written (they have their own files)</li>
+ * <li>References to objects stored in another file are written as hrefs to that file</li>
+ * </ul>
+ */
+class GraficoResource extends XMLResourceImpl {
+
+    /**
+     * Save options shared by all Grafico files
+     */
+    static final Map<Object, Object> SAVE_OPTIONS = new HashMap<Object, Object>();
+
+    static {
+        // Use UTF-8 and don't start with an XML declaration
+        SAVE_OPTIONS.put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
+        SAVE_OPTIONS.put(XMLResource.OPTION_DECLARE_XML, Boolean.FALSE);
+        // Make the produced XML easy to read
+        SAVE_OPTIONS.put(XMLResource.OPTION_FORMATTED, Boolean.TRUE);
+        SAVE_OPTIONS.put(XMLResource.OPTION_LINE_WIDTH, new Integer(5));
+        // Don't use encoded attribute. Needed to have proper references inside Diagrams
+        SAVE_OPTIONS.put(XMLResource.OPTION_USE_ENCODED_ATTRIBUTE_STYLE, Boolean.FALSE);
+        // Use cache
+        SAVE_OPTIONS.put(XMLResource.OPTION_CONFIGURATION_CACHE, Boolean.TRUE);
+    }
+
+    /**
+     * @param eObject
+     * @return The name of the file used to store eObject if it is an element stored in a folder
+     */
+    static String getElementFileName(EObject eObject) {
+        return eObject.getClass().getSimpleName() + "_" + ((IIdentifier)eObject).getId() + ".xml"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * @param eObject
+     * @return The object at the root of the Grafico file that contains eObject.
+     *         This is the model, a folder, an element of a folder, or eObject itself if it is not in a model.
+     */
+    static EObject getFileRoot(EObject eObject) {
+        while(!(eObject instanceof IFolderContainer) && eObject.eContainer() != null && !(eObject.eContainer() instanceof IFolder)) {
+            eObject = eObject.eContainer();
+        }
+        return eObject;
+    }
+
+    /**
+     * @param eObject
+     * @return The href used to refer to eObject from another file if eObject is an element stored in its own file, or null
+     */
+    static String getElementHREF(EObject eObject) {
+        if(!eObject.eIsProxy() && eObject instanceof IIdentifier && getFileRoot(eObject) == eObject && !(eObject instanceof IFolderContainer)) {
+            return URI.createFileURI(getElementFileName(eObject)).appendFragment(((IIdentifier)eObject).getId()).toString();
+        }
+        return null;
+    }
+
+    /**
+     * @param feature
+     * @return True if the contents of feature are saved in their own files (sub-folders and elements)
+     */
+    static boolean isSavedInOwnFiles(EStructuralFeature feature) {
+        return feature == IArchimatePackage.Literals.FOLDER_CONTAINER__FOLDERS || feature == IArchimatePackage.Literals.FOLDER__ELEMENTS;
+    }
+
+    GraficoResource(URI uri) {
+        super(uri);
+    }
+
+    /**
+     * Save eObject as the root of this Resource
+     *
+     * @param eObject
+     * @param outputStream
+     * @throws IOException
+     */
+    void save(EObject eObject, OutputStream outputStream) throws IOException {
+        Map<Object, Object> options = new HashMap<Object, Object>(SAVE_OPTIONS);
+        options.put(XMLResource.OPTION_ROOT_OBJECTS, Collections.singletonList(eObject));
+        save(outputStream, options);
+    }
+
+    @Override
+    protected XMLHelper createXMLHelper() {
+        return new XMLHelperImpl(this) {
+            @Override
+            public String getHREF(EObject obj) {
+                // Objects of the live model are not in a Resource of their own so create the href from the file they will be saved in
+                String href = getElementHREF(obj);
+                return href != null ? href : super.getHREF(obj);
+            }
+        };
+    }
+
+    @Override
+    protected XMLSave createXMLSave() {
+        return new XMLSaveImpl(createXMLHelper()) {
+            @Override
+            protected boolean shouldSaveFeature(EObject o, EStructuralFeature f) {
+                // Sub-folders and elements are saved in their own files
+                if(isSavedInOwnFiles(f)) {
+                    return false;
+                }
+                return super.shouldSaveFeature(o, f);
+            }
+
+            @Override
+            protected int sameDocSingle(EObject o, EStructuralFeature f) {
+                InternalEObject value = (InternalEObject)helper.getValue(o, f);
+                if(value == null) {
+                    return SKIP;
+                }
+                return isInThisFile(value) ? SAME_DOC : CROSS_DOC;
+            }
+
+            @Override
+            protected int sameDocMany(EObject o, EStructuralFeature f) {
+                @SuppressWarnings("unchecked")
+                InternalEList<? extends InternalEObject> values = (InternalEList<? extends InternalEObject>)helper.getValue(o, f);
+                if(values.isEmpty()) {
+                    return SKIP;
+                }
+
+                for(Iterator<? extends InternalEObject> iter = values.basicIterator(); iter.hasNext();) {
+                    if(!isInThisFile(iter.next())) {
+                        return CROSS_DOC;
+                    }
+                }
+
+                return SAME_DOC;
+            }
+
+            private boolean isInThisFile(InternalEObject value) {
+                return !value.eIsProxy() && getFileRoot(value) == root;
+            }
+        };
+    }
+}
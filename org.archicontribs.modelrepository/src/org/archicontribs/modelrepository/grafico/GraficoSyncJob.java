@@ -0,0 +1,322 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.authentication.SimpleCredentialsStorage;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.core.runtime.jobs.JobGroup;
+import org.eclipse.jface.dialogs.ErrorDialog;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.MergeResult.MergeStatus;
+import org.eclipse.jgit.api.PullResult;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.EmptyProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+
+import com.archimatetool.model.IArchimateModel;
+
+
+/**
+ * Refreshes, or publishes, one repository as part of a Refresh All or Publish All.
+ *
+ * The repositories are synchronised in parallel, by at most {@link #MAX_JOBS} jobs at a time,
+ * and the result of each one is shown together when they are all done.
+ * Only repositories whose credentials are stored are synchronised, as the user can't be asked for them.
+ * A merge with conflicts is undone, the conflicts are resolved by refreshing the repository on its own.
+ * An open model is only updated with the pulled changes if it has no changes that are not committed,
+ * which is checked on the UI thread before pulling and again before updating it.
+ */
+public class GraficoSyncJob extends Job {
+
+    /**
+     * The number of repositories synchronised at the same time
+     */
+    public static final int MAX_JOBS = 4;
+
+    /**
+     * Refresh or publish all the repositories, in the background
+     *
+     * @param repositories Local Git folders
+     * @param publish True to publish, false to refresh
+     * @param shell The shell to show the results in
+     */
+    public static void syncAll(File[] repositories, boolean publish, Shell shell) {
+        final String name = publish ? Messages.GraficoSyncJob_1 : Messages.GraficoSyncJob_0;
+        final Display display = shell.getDisplay();
+        final MultiStatus result = new MultiStatus(ModelRepositoryPlugin.PLUGIN_ID, IStatus.OK, name, null);
+
+        List<GraficoSyncJob> jobs = new ArrayList<GraficoSyncJob>();
+
+        for(File localGitFolder : repositories) {
+            jobs.add(new GraficoSyncJob(localGitFolder, publish, shell));
+        }
+
+        if(jobs.isEmpty()) {
+            showResults(shell, result, publish);
+            return;
+        }
+
+        final IProgressMonitor progressGroup = Job.getJobManager().createProgressGroup();
+        progressGroup.beginTask(name, jobs.size());
+
+        final AtomicInteger remaining = new AtomicInteger(jobs.size());
+        JobChangeAdapter listener = new JobChangeAdapter() {
+            @Override
+            public void done(IJobChangeEvent event) {
+                synchronized(result) {
+                    result.add(event.getResult());
+                }
+
+                if(remaining.decrementAndGet() == 0) {
+                    progressGroup.done();
+
+                    display.asyncExec(new Runnable() {
+                        @Override
+                        public void run() {
+                            showResults(shell, result, publish);
+                        }
+                    });
+                }
+            }
+        };
+
+        JobGroup jobGroup = new JobGroup(name, MAX_JOBS, jobs.size());
+
+        for(GraficoSyncJob job : jobs) {
+            job.setJobGroup(jobGroup);
+            job.setProgressGroup(progressGroup, 1);
+            job.addJobChangeListener(listener);
+            job.schedule();
+        }
+    }
+
+    private static void showResults(Shell shell, MultiStatus result, boolean publish) {
+        int count = 0;
+        for(IStatus status : result.getChildren()) {
+            if(status.isOK()) {
+                count++;
+            }
+        }
+
+        String message = String.format(publish ? Messages.GraficoSyncJob_12 : Messages.GraficoSyncJob_11, count, result.getChildren().length);
+
+        ErrorDialog.openError(shell.isDisposed() ? null : shell, result.getMessage(), message, result,
+                IStatus.OK | IStatus.INFO | IStatus.WARNING | IStatus.ERROR | IStatus.CANCEL);
+    }
+
+    private static IStatus createStatus(int severity, String message, File localGitFolder, Throwable ex) {
+        return new Status(severity, ModelRepositoryPlugin.PLUGIN_ID,
+                String.format(message, localGitFolder.getName(), ex != null ? ex.getMessage() : null), ex);
+    }
+
+    /**
+     * @param model
+     * @return The message to skip a model that has changes that are not committed with, or null if it has none
+     */
+    private static String getUncommittedChangesMessage(IArchimateModel model) {
+        GraficoChangeRecorder recorder = GraficoChangeRecorder.getRecorder(model);
+        if(recorder == null) {
+            return Messages.GraficoSyncJob_14;
+        }
+        if(recorder.hasChanges()) {
+            return Messages.GraficoSyncJob_7;
+        }
+        return null;
+    }
+
+    private final File fLocalGitFolder;
+    private final boolean fPublish;
+    private final Shell fShell;
+
+    /**
+     * @param localGitFolder
+     * @param publish True to publish, false to refresh
+     * @param shell The shell of the open models, or null if no model can be open
+     */
+    GraficoSyncJob(File localGitFolder, boolean publish, Shell shell) {
+        super(String.format(publish ? Messages.GraficoSyncJob_3 : Messages.GraficoSyncJob_2, localGitFolder.getName()));
+        fLocalGitFolder = localGitFolder;
+        fPublish = publish;
+        fShell = shell;
+    }
+
+    @Override
+    protected IStatus run(final IProgressMonitor monitor) {
+        monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+
+        SimpleCredentialsStorage sc = new SimpleCredentialsStorage(fLocalGitFolder);
+        if(!sc.hasCredentialsFile()) {
+            monitor.done();
+            return createStatus(IStatus.WARNING, Messages.GraficoSyncJob_6, fLocalGitFolder, null);
+        }
+
+        EmptyProgressMonitor gitMonitor = new EmptyProgressMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return monitor.isCanceled();
+            }
+        };
+
+        try {
+            String userName = sc.getUserName();
+            String userPassword = sc.getUserPassword();
+
+            String skipped = checkOpenModel();
+            if(skipped != null) {
+                return createStatus(IStatus.WARNING, skipped, fLocalGitFolder, null);
+            }
+
+            // Set if the open model could not be updated with the pulled changes
+            String notUpdated = null;
+
+            // The commit the open model is the same as
+            ObjectId oldCommitId = GraficoUtils.getHeadCommitId(fLocalGitFolder);
+
+            // A Publish only needs to Pull if the remote has changed since the last Pull
+            if(!fPublish || GraficoUtils.isRemoteChanged(fLocalGitFolder, userName, userPassword)) {
+                PullResult pullResult = GraficoUtils.pullFromRemote(fLocalGitFolder, userName, userPassword, gitMonitor);
+
+                if(!pullResult.isSuccessful()) {
+                    MergeResult mergeResult = pullResult.getMergeResult();
+                    if(mergeResult != null && mergeResult.getMergeStatus() == MergeStatus.CONFLICTING) {
+                        resetToLocalState();
+                        return createStatus(IStatus.WARNING, Messages.GraficoSyncJob_8, fLocalGitFolder, null);
+                    }
+                    return createStatus(IStatus.ERROR, Messages.GraficoSyncJob_10, fLocalGitFolder,
+                            new IOException(mergeResult != null ? mergeResult.toString() : pullResult.toString()));
+                }
+
+                notUpdated = reloadModel(oldCommitId);
+            }
+
+            if(fPublish) {
+                for(PushResult pushResult : GraficoUtils.pushToRemote(fLocalGitFolder, userName, userPassword, gitMonitor)) {
+                    for(RemoteRefUpdate update : pushResult.getRemoteUpdates()) {
+                        if(update.getStatus() != RemoteRefUpdate.Status.OK && update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE) {
+                            return createStatus(IStatus.ERROR, Messages.GraficoSyncJob_9, fLocalGitFolder,
+                                    new IOException(update.getMessage() != null ? update.getMessage() : update.getStatus().toString()));
+                        }
+                    }
+                }
+            }
+
+            if(notUpdated != null) {
+                return createStatus(IStatus.WARNING, notUpdated, fLocalGitFolder, null);
+            }
+
+            return createStatus(IStatus.OK, fPublish ? Messages.GraficoSyncJob_5 : Messages.GraficoSyncJob_4, fLocalGitFolder, null);
+        }
+        catch(IOException | GitAPIException ex) {
+            if(monitor.isCanceled()) {
+                return createStatus(IStatus.CANCEL, Messages.GraficoSyncJob_13, fLocalGitFolder, null);
+            }
+            return createStatus(IStatus.ERROR, Messages.GraficoSyncJob_10, fLocalGitFolder, ex);
+        }
+        finally {
+            GraficoFetchJob.updateTrackingStatus(fLocalGitFolder);
+            monitor.done();
+        }
+    }
+
+    /**
+     * Undo a merge with conflicts
+     */
+    private void resetToLocalState() throws IOException, GitAPIException {
+        try(Git git = GraficoRepositoryRegistry.open(fLocalGitFolder)) {
+            git.reset().setRef("refs/heads/master").setMode(ResetType.HARD).call(); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Check that the open model has no changes that are not committed
+     *
+     * @return The message to skip the repository with, or null
+     */
+    private String checkOpenModel() {
+        final String[] message = new String[1];
+
+        syncExec(new Runnable() {
+            @Override
+            public void run() {
+                IArchimateModel openModel = GraficoUtils.locateModel(fLocalGitFolder);
+                if(openModel != null) {
+                    message[0] = getUncommittedChangesMessage(openModel);
+                }
+            }
+        });
+
+        return message[0];
+    }
+
+    /**
+     * Update the open model with the changed files only, or load it again.
+     * A model that was changed while pulling is left as it is, as updating or loading it again would lose the changes.
+     *
+     * @return The message of the warning if the open model was not updated, or null
+     */
+    private String reloadModel(final ObjectId oldCommitId) throws IOException {
+        final String[] message = new String[1];
+        final IOException[] error = new IOException[1];
+
+        syncExec(new Runnable() {
+            @Override
+            public void run() {
+                IArchimateModel openModel = GraficoUtils.locateModel(fLocalGitFolder);
+                if(openModel == null) {
+                    return;
+                }
+
+                if(getUncommittedChangesMessage(openModel) != null) {
+                    message[0] = Messages.GraficoSyncJob_15;
+                    return;
+                }
+
+                try {
+                    if(!GraficoUtils.reloadModel(openModel, fLocalGitFolder, oldCommitId)) {
+                        GraficoUtils.loadModel(fLocalGitFolder, fShell);
+                    }
+                }
+                catch(IOException ex) {
+                    error[0] = ex;
+                }
+            }
+        });
+
+        if(error[0] != null) {
+            throw error[0];
+        }
+
+        return message[0];
+    }
+
+    /**
+     * Run on the UI thread, which open models are changed on
+     */
+    private void syncExec(Runnable runnable) {
+        if(fShell != null && !fShell.isDisposed()) {
+            fShell.getDisplay().syncExec(runnable);
+        }
+    }
+}
@@ -10,37 +10,74 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
 
+import org.eclipse.gef.commands.Command;
 import org.eclipse.gef.commands.CommandStack;
 import org.eclipse.jface.dialogs.ErrorDialog;
-import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.InitCommand;
+import org.eclipse.jgit.api.LsRemoteCommand;
+import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.PullCommand;
 import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.PushCommand;
 import org.eclipse.jgit.api.RemoteAddCommand;
-import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig.AutoCRLF;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryState;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.RevWalkUtils;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.transport.PushResult;
 import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.swt.widgets.Shell;
 
 import com.archimatetool.editor.model.IEditorModelManager;
@@ -52,9 +89,14 @@ import com.archimatetool.model.IArchimateModel;
  * @author Phillip Beauvoir
  */
 public class GraficoUtils {
+    
+    /**
+     * The remote tracking branch that is pulled and fetched
+     */
+    public static final String REMOTE_MASTER_REF = Constants.R_REMOTES + "origin/master"; //$NON-NLS-1$
 
     /**
-     * Clone a model
+     * Clone a model, with all of its branches
      * @param localGitFolder
      * @param repoURL
      * @param userName
@@ -64,6 +106,26 @@ public class GraficoUtils {
      * @throws IOException
      */
     public static void cloneModel(File localGitFolder, String repoURL, String userName, String userPassword, ProgressMonitor monitor) throws GitAPIException, IOException {
+        cloneModel(localGitFolder, repoURL, userName, userPassword, null, monitor);
+    }
+
+    /**
+     * Clone a model
+     * @param localGitFolder
+     * @param repoURL
+     * @param userName
+     * @param userPassword
+     * @param branch The only branch to clone and fetch from then on, or null to clone all branches
+     * @param monitor
+     * @throws GitAPIException
+     * @throws IOException
+     */
+    public static void cloneModel(File localGitFolder, String repoURL, String userName, String userPassword, String branch, ProgressMonitor monitor) throws GitAPIException, IOException {
+        if(branch != null) {
+            cloneBranch(localGitFolder, repoURL, userName, userPassword, branch, monitor);
+            return;
+        }
+        
         CloneCommand cloneCommand = Git.cloneRepository();
         cloneCommand.setDirectory(localGitFolder);
         cloneCommand.setURI(repoURL);
@@ -78,6 +140,60 @@ public class GraficoUtils {
         }
     }
 
+    /**
+     * Clone one branch of a model.
+     * The remote is set to fetch only this branch, and only the tags that point into it,
+     * so neither the clone nor later fetches and pulls get the history of the other branches.
+     */
+    private static void cloneBranch(File localGitFolder, String repoURL, String userName, String userPassword, String branch, ProgressMonitor monitor) throws GitAPIException, IOException {
+        String branchRef = Constants.R_HEADS + branch;
+        String remoteBranchRef = Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branch; //$NON-NLS-1$
+        
+        InitCommand initCommand = Git.init();
+        initCommand.setDirectory(localGitFolder);
+        
+        try(Git git = initCommand.call()) {
+            Repository repository = git.getRepository();
+            
+            StoredConfig config = repository.getConfig();
+            config.setString(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, ConfigConstants.CONFIG_KEY_URL, repoURL);
+            config.setString(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "fetch", "+" + branchRef + ":" + remoteBranchRef); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, branch, ConfigConstants.CONFIG_KEY_REMOTE, Constants.DEFAULT_REMOTE_NAME);
+            config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, branch, ConfigConstants.CONFIG_KEY_MERGE, branchRef);
+            // Use the same line endings
+            config.setString(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_KEY_AUTOCRLF, "true"); //$NON-NLS-1$
+            config.save();
+            
+            FetchCommand fetchCommand = git.fetch();
+            fetchCommand.setRemote(Constants.DEFAULT_REMOTE_NAME);
+            fetchCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
+            fetchCommand.setProgressMonitor(monitor);
+            fetchCommand.call();
+            
+            Ref remoteRef = repository.exactRef(remoteBranchRef);
+            if(remoteRef == null) {
+                throw new RefNotFoundException("Branch: " + branch + " not found in " + repoURL); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            
+            try(RevWalk revWalk = new RevWalk(repository)) {
+                RevCommit commit = revWalk.parseCommit(remoteRef.getObjectId());
+                
+                RefUpdate refUpdate = repository.updateRef(branchRef);
+                refUpdate.setNewObjectId(commit);
+                refUpdate.setRefLogMessage("clone: from " + repoURL, false); //$NON-NLS-1$
+                refUpdate.update();
+                
+                // HEAD of a new repository is master
+                if(!Constants.MASTER.equals(branch)) {
+                    repository.updateRef(Constants.HEAD).link(branchRef);
+                }
+                
+                DirCacheCheckout checkout = new DirCacheCheckout(repository, repository.lockDirCache(), commit.getTree());
+                checkout.checkout();
+            }
+        }
+    }
+
     /**
      * Load a model from a local Git folder
      * @param localGitFolder
@@ -86,8 +202,23 @@ public class GraficoUtils {
      * @throws IOException
      */
     public static IArchimateModel loadModel(File localGitFolder, Shell shell) throws IOException {
+        // If the model's files are the same as in HEAD a snapshot of the model made for HEAD's tree can be used
+        boolean isClean = false;
+        String snapshotKey = null;
+        
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            isClean = isModelSameAsHead(git.getRepository());
+            if(isClean) {
+                snapshotKey = git.getRepository().resolve("HEAD^{tree}").getName(); //$NON-NLS-1$
+            }
+        }
+        
+        // The importer saves the snapshot from the model it has just built, before it is opened,
+        // so it is never made from a model that the UI thread can change.
+        // Diagram models and images are always loaded, as Archi looks at all of them to tell where elements are used,
+        // and saves the model and reads images from its IArchiveManager as they are.
         GraficoModelImporter importer = new GraficoModelImporter();
-        IArchimateModel model = importer.importLocalGitRepositoryAsModel(localGitFolder);
+        IArchimateModel model = importer.importLocalGitRepositoryAsModel(localGitFolder, snapshotKey);
         
         if(importer.getResolveStatus() != null) {
             ErrorDialog.openError(shell,
@@ -110,14 +241,82 @@ public class GraficoUtils {
                 IEditorModelManager.INSTANCE.closeModel(existingModel);
             }
             
+            // Record changes from now on so that commits only save what changed
+            GraficoChangeRecorder recorder = GraficoChangeRecorder.attach(model);
+            
+            // The model was loaded from files that differ from the last commit
+            if(!isClean) {
+                recorder.requireFullExport();
+            }
+            
             IEditorModelManager.INSTANCE.openModel(model); // Open it
         }
 
         return model;
     }
-
+    
     /**
-     * Commit a model with any changes to local repo
+     * Update an open model with the changes between the commit it is the same as and HEAD, for example after a pull.
+     * Only the files that changed are loaded, and the model is changed by one command on its CommandStack.
+     * @param model
+     * @param localGitFolder
+     * @param oldCommitId The commit that model was loaded from or last committed as
+     * @return True if the model was updated, false if it has uncommitted changes or has to be loaded again
+     * @throws IOException
+     */
+    public static boolean reloadModel(IArchimateModel model, File localGitFolder, ObjectId oldCommitId) throws IOException {
+        GraficoChangeRecorder recorder = GraficoChangeRecorder.getRecorder(model);
+        if(recorder == null || recorder.hasChanges() || oldCommitId == null) {
+            return false;
+        }
+        
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            ObjectId newCommitId = git.getRepository().resolve("HEAD"); //$NON-NLS-1$
+            if(newCommitId == null) {
+                return false;
+            }
+            
+            Command command = GraficoModelReloader.createReloadCommand(model, git.getRepository(), oldCommitId, newCommitId);
+            if(command == null) {
+                return false;
+            }
+            
+            if(command.canExecute()) {
+                CommandStack stack = (CommandStack)model.getAdapter(CommandStack.class);
+                if(stack != null) {
+                    boolean wasDirty = stack.isDirty();
+                    stack.execute(command);
+                    // The model is the same as HEAD so it is only dirty if it was before
+                    if(!wasDirty) {
+                        stack.markSaveLocation();
+                    }
+                }
+                else {
+                    command.execute();
+                }
+            }
+            
+            // The changes are committed
+            recorder.reset();
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @param localGitFolder
+     * @return The id of the HEAD commit, or null if there is none
+     * @throws IOException
+     */
+    public static ObjectId getHeadCommitId(File localGitFolder) throws IOException {
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            return git.getRepository().resolve("HEAD"); //$NON-NLS-1$
+        }
+    }
+    
+    /**
+     * Commit a model with any changes to local repo.
+     * If the model has a GraficoChangeRecorder only the files that it recorded as changed are exported and added to the index.
      * @param model
      * @param localGitFolder
      * @param personIdent
@@ -129,33 +328,563 @@ public class GraficoUtils {
     public static RevCommit commitModel(IArchimateModel model, File localGitFolder, PersonIdent personIdent,
             String commitMessage) throws GitAPIException, IOException {
         
+        GraficoChangeRecorder recorder = GraficoChangeRecorder.getRecorder(model);
+        
+        // Nothing changed since the last commit
+        if(recorder != null && !recorder.hasChanges()) {
+            return null;
+        }
+        
+        // Paths of the exported files and of the files and directories that were deleted, or null for all files
+        Set<String> paths = null;
+        
         GraficoModelExporter exporter = new GraficoModelExporter();
-        exporter.exportModelToLocalGitRepository(model, localGitFolder);
-            
-        try(Git git = Git.open(localGitFolder)) {
-            Status status = git.status().call();
+        if(recorder != null) {
+            paths = exporter.exportChangesToLocalGitRepository(model, localGitFolder, recorder);
+        }
+        
+        if(paths == null) {
+            exporter.exportModelToLocalGitRepository(model, localGitFolder);
+            paths = new HashSet<String>();
+            paths.add(IGraficoConstants.MODEL_FOLDER);
+            paths.add(IGraficoConstants.IMAGES_FOLDER);
+        }
             
-            // Nothing changed
-            if(status.isClean()) {
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            // Nothing changed, a merge is still committed
+            if(!updateIndex(git.getRepository(), paths) && git.getRepository().getRepositoryState() == RepositoryState.SAFE) {
+                if(recorder != null) {
+                    recorder.reset();
+                }
                 return null;
             }
             
-            // Add modified files to index
-            AddCommand addCommand = git.add();
-            addCommand.addFilepattern("."); //$NON-NLS-1$
-            addCommand.setUpdate(false);
-            addCommand.call();
-            
-            // Add missing files to index
-            for(String s : status.getMissing()) {
-                git.rm().addFilepattern(s).call();
-            }
-            
             // Commit
             CommitCommand commitCommand = git.commit();
             commitCommand.setAuthor(personIdent);
             commitCommand.setMessage(commitMessage);
-            return commitCommand.call();
+            RevCommit commit = commitCommand.call();
+            
+            if(recorder != null) {
+                recorder.reset();
+            }
+            
+            return commit;
+        }
+    }
+    
+    /**
+     * Commit a model with any changes to local repo without going through the working tree.
+     * The model's files are serialized straight into blobs, the tree and commit are created in the object database
+     * and HEAD is updated in one step. The working tree and index are then brought up to date from the new commit,
+     * which only touches the files that changed.
+     * If the model has a GraficoChangeRecorder only the files that it recorded as changed are serialized.
+     * The model is committed with {@link #commitModel(IArchimateModel, File, PersonIdent, String)} instead if a merge was stopped by conflicts,
+     * which makes it the merge commit, if files that the commit changes were changed on disk or in the index,
+     * or if checking out files would write other line endings than exporting them.
+     * 
+     * @param model
+     * @param localGitFolder
+     * @param personIdent
+     * @param commitMessage
+     * @return The new commit, or null if nothing changed
+     * @throws IOException
+     */
+    public static RevCommit commitModelToObjectDatabase(IArchimateModel model, File localGitFolder, PersonIdent personIdent,
+            String commitMessage) throws IOException {
+        
+        GraficoChangeRecorder recorder = GraficoChangeRecorder.getRecorder(model);
+        
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            Repository repository = git.getRepository();
+            
+            // A merge that was stopped by conflicts is committed by CommitCommand, which adds the merged commits as parents and clears the merge state.
+            // The whole model is exported as the working tree has the files of the merge. CommitCommand refuses to commit during a rebase, revert and so on.
+            if(repository.getRepositoryState() != RepositoryState.SAFE) {
+                if(recorder != null) {
+                    recorder.requireFullExport();
+                }
+                return commitModelThroughIndex(model, localGitFolder, personIdent, commitMessage);
+            }
+            
+            if(!isCheckoutSameAsExport(repository)) {
+                return commitModelThroughIndex(model, localGitFolder, personIdent, commitMessage);
+            }
+            
+            // Nothing changed since the last commit
+            if(recorder != null && !recorder.hasChanges()) {
+                return null;
+            }
+            
+            try(ObjectInserter inserter = repository.newObjectInserter(); RevWalk revWalk = new RevWalk(repository)) {
+                ObjectId headId = repository.resolve(Constants.HEAD);
+                RevCommit headCommit = headId != null ? revWalk.parseCommit(headId) : null;
+                
+                GraficoModelExporter exporter = new GraficoModelExporter();
+                Map<String, ObjectId> blobs;
+                
+                // Files and directories of HEAD that are replaced by the new blobs
+                Set<String> replacedPaths = new HashSet<String>();
+                
+                if(recorder != null && !recorder.isFullExportRequired() && headCommit != null) {
+                    blobs = exporter.exportChangesToObjectDatabase(model, repository, inserter, recorder);
+                    replacedPaths.addAll(recorder.getRemovedPaths());
+                    if(recorder.hasImageChanges()) {
+                        replacedPaths.add(IGraficoConstants.IMAGES_FOLDER);
+                    }
+                }
+                else {
+                    blobs = exporter.exportModelToObjectDatabase(model, repository, inserter);
+                    replacedPaths.add(IGraficoConstants.MODEL_FOLDER);
+                    replacedPaths.add(IGraficoConstants.IMAGES_FOLDER);
+                }
+                
+                // Build the new tree in memory: the new blobs plus what they don't replace in HEAD
+                DirCache index = DirCache.newInCore();
+                DirCacheBuilder builder = index.builder();
+                
+                if(headCommit != null) {
+                    try(TreeWalk treeWalk = new TreeWalk(repository)) {
+                        treeWalk.addTree(headCommit.getTree());
+                        treeWalk.setRecursive(true);
+                        while(treeWalk.next()) {
+                            String path = treeWalk.getPathString();
+                            if(!blobs.containsKey(path) && !isInPaths(path, replacedPaths)) {
+                                DirCacheEntry entry = new DirCacheEntry(path);
+                                entry.setFileMode(treeWalk.getFileMode(0));
+                                entry.setObjectId(treeWalk.getObjectId(0));
+                                builder.add(entry);
+                            }
+                        }
+                    }
+                }
+                
+                for(Entry<String, ObjectId> blob : blobs.entrySet()) {
+                    DirCacheEntry entry = new DirCacheEntry(blob.getKey());
+                    entry.setFileMode(FileMode.REGULAR_FILE);
+                    entry.setObjectId(blob.getValue());
+                    builder.add(entry);
+                }
+                
+                builder.finish();
+                ObjectId treeId = index.writeTree(inserter);
+                
+                // Nothing changed
+                if(headCommit != null && treeId.equals(headCommit.getTree())) {
+                    if(recorder != null) {
+                        recorder.reset();
+                    }
+                    return null;
+                }
+                
+                // Checking out the new tree would overwrite changes made on disk, which committing through the index leaves alone
+                // unless the model saves the same files
+                if(hasLocalChanges(repository, headCommit != null ? headCommit.getTree() : null, index)) {
+                    return commitModelThroughIndex(model, localGitFolder, personIdent, commitMessage);
+                }
+                
+                CommitBuilder commitBuilder = new CommitBuilder();
+                commitBuilder.setAuthor(personIdent);
+                commitBuilder.setCommitter(personIdent);
+                commitBuilder.setMessage(commitMessage);
+                commitBuilder.setTreeId(treeId);
+                if(headCommit != null) {
+                    commitBuilder.setParentId(headCommit);
+                }
+                
+                ObjectId commitId = inserter.insert(commitBuilder);
+                inserter.flush();
+                
+                RevCommit commit = revWalk.parseCommit(commitId);
+                
+                RefUpdate refUpdate = repository.updateRef(Constants.HEAD);
+                refUpdate.setNewObjectId(commitId);
+                refUpdate.setExpectedOldObjectId(headId != null ? headId : ObjectId.zeroId());
+                refUpdate.setRefLogMessage("commit: " + commit.getShortMessage(), false); //$NON-NLS-1$
+                
+                RefUpdate.Result result = refUpdate.update(revWalk);
+                if(result != RefUpdate.Result.NEW && result != RefUpdate.Result.FAST_FORWARD) {
+                    throw new IOException("Could not update HEAD: " + result); //$NON-NLS-1$
+                }
+                
+                // Sync the working tree and index with the new commit
+                checkoutChanges(repository, headCommit != null ? headCommit.getTree() : null, commit.getTree());
+                
+                if(recorder != null) {
+                    recorder.reset();
+                }
+                
+                return commit;
+            }
+        }
+    }
+    
+    /**
+     * Commit a model with {@link #commitModel(IArchimateModel, File, PersonIdent, String)}
+     */
+    private static RevCommit commitModelThroughIndex(IArchimateModel model, File localGitFolder, PersonIdent personIdent,
+            String commitMessage) throws IOException {
+        try {
+            return commitModel(model, localGitFolder, personIdent, commitMessage);
+        }
+        catch(GitAPIException ex) {
+            throw new IOException(ex);
+        }
+    }
+    
+    /**
+     * Files are exported with the system's line separator, and checked out with the line endings core.autocrlf asks for
+     * 
+     * @param repository
+     * @return True if checking out the model's files writes the same line endings as exporting them
+     */
+    private static boolean isCheckoutSameAsExport(Repository repository) {
+        AutoCRLF autoCRLF = repository.getConfig().get(WorkingTreeOptions.KEY).getAutoCRLF();
+        boolean isCRLF = "\r\n".equals(System.getProperty("line.separator")); //$NON-NLS-1$ //$NON-NLS-2$
+        return autoCRLF == AutoCRLF.FALSE || (autoCRLF == AutoCRLF.TRUE) == isCRLF;
+    }
+    
+    /**
+     * Check whether any file that differs between two trees was changed in the working tree or the index since oldTree was checked out,
+     * as DirCacheCheckout does before overwriting files. The rest of the working tree is not looked at.
+     * 
+     * @param repository
+     * @param oldTree The tree the working tree and index should be up to date with, or null if there is none
+     * @param newTree
+     * @return True if checking out the differences would overwrite or delete a change, or a file that is not in oldTree
+     * @throws IOException
+     */
+    static boolean hasLocalChanges(Repository repository, RevTree oldTree, DirCache newTree) throws IOException {
+        Path workTree = repository.getWorkTree().toPath();
+        boolean normalizeLineEndings = repository.getConfig().get(WorkingTreeOptions.KEY).getAutoCRLF() != AutoCRLF.FALSE;
+        
+        DirCache index = repository.readDirCache();
+        long indexTime = repository.getIndexFile().lastModified();
+        
+        try(TreeWalk treeWalk = new TreeWalk(repository)) {
+            if(oldTree != null) {
+                treeWalk.addTree(oldTree);
+            }
+            else {
+                treeWalk.addTree(new EmptyTreeIterator());
+            }
+            treeWalk.addTree(new DirCacheIterator(newTree));
+            treeWalk.addTree(new DirCacheIterator(index));
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            treeWalk.setRecursive(true);
+            
+            while(treeWalk.next()) {
+                // Only differs in the index, and is not checked out
+                if(treeWalk.getFileMode(0) == treeWalk.getFileMode(1) && treeWalk.idEqual(0, 1)) {
+                    continue;
+                }
+                
+                DirCacheIterator indexIterator = treeWalk.getTree(2, DirCacheIterator.class);
+                DirCacheEntry entry = indexIterator != null ? indexIterator.getDirCacheEntry() : null;
+                Path file = workTree.resolve(treeWalk.getPathString());
+                
+                // A new file must not replace one that is already there
+                if(treeWalk.getFileMode(0) == FileMode.MISSING) {
+                    if(entry != null || Files.exists(file)) {
+                        return true;
+                    }
+                    continue;
+                }
+                
+                // Added, deleted, changed or conflicting in the index
+                if(entry == null || entry.getStage() != DirCacheEntry.STAGE_0 || !treeWalk.idEqual(0, 2)) {
+                    return true;
+                }
+                
+                // Deleted on disk, unless the new tree deletes it too
+                if(!Files.isRegularFile(file)) {
+                    if(Files.exists(file) || treeWalk.getFileMode(1) != FileMode.MISSING) {
+                        return true;
+                    }
+                    continue;
+                }
+                
+                if(!isFileSameAsEntry(file, Files.readAttributes(file, BasicFileAttributes.class), entry, indexTime, normalizeLineEndings)) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Files with the same size and time stamp as their entry are not read, unless they were changed just before the index was written.
+     * Entries that Git smudged, as it does for files changed just before it wrote the index, always have their file read.
+     * 
+     * @param file
+     * @param attrs The file's attributes
+     * @param entry The file's entry in the index
+     * @param indexTime When the index was written
+     * @param normalizeLineEndings Whether core.autocrlf is set
+     * @return True if file has the contents of entry
+     * @throws IOException
+     */
+    private static boolean isFileSameAsEntry(Path file, BasicFileAttributes attrs, DirCacheEntry entry, long indexTime,
+            boolean normalizeLineEndings) throws IOException {
+        if(!entry.isSmudged()) {
+            if(attrs.size() != entry.getLength()) {
+                return false;
+            }
+            
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            if(lastModified == entry.getLastModified() && lastModified < indexTime) {
+                return true;
+            }
+        }
+        
+        byte[] bytes = Files.readAllBytes(file);
+        if(normalizeLineEndings) {
+            bytes = GraficoModelExporter.toLF(bytes);
+        }
+        try(ObjectInserter.Formatter formatter = new ObjectInserter.Formatter()) {
+            return formatter.idFor(Constants.OBJ_BLOB, bytes).equals(entry.getObjectId());
+        }
+    }
+    
+    /**
+     * Update the index with the files under paths in one go, without looking at the rest of the working tree.
+     * Entries under paths whose file no longer exists are removed.
+     * Files with the same size and time stamp as their entry are not read again, unless they were changed just before the index was written.
+     * 
+     * @param repository
+     * @param paths Paths, relative to the working tree, of files and directories
+     * @return True if the index is now different from HEAD
+     * @throws IOException
+     */
+    private static boolean updateIndex(Repository repository, Set<String> paths) throws IOException {
+        Path workTree = repository.getWorkTree().toPath();
+        boolean normalizeLineEndings = repository.getConfig().get(WorkingTreeOptions.KEY).getAutoCRLF() != AutoCRLF.FALSE;
+        Map<String, BasicFileAttributes> files = listFiles(repository, paths);
+        
+        DirCache index = repository.lockDirCache();
+        long indexTime = repository.getIndexFile().lastModified();
+        
+        try(ObjectInserter inserter = repository.newObjectInserter()) {
+            DirCacheBuilder builder = index.builder();
+            Map<String, DirCacheEntry> oldEntries = new HashMap<String, DirCacheEntry>();
+            
+            for(int i = 0; i < index.getEntryCount(); i++) {
+                DirCacheEntry entry = index.getEntry(i);
+                if(isInPaths(entry.getPathString(), paths)) {
+                    oldEntries.put(entry.getPathString(), entry);
+                }
+                else {
+                    builder.add(entry);
+                }
+            }
+            
+            for(Entry<String, BasicFileAttributes> file : files.entrySet()) {
+                long length = file.getValue().size();
+                long lastModified = file.getValue().lastModifiedTime().toMillis();
+                
+                DirCacheEntry entry = new DirCacheEntry(file.getKey());
+                entry.setFileMode(FileMode.REGULAR_FILE);
+                entry.setLength(length);
+                entry.setLastModified(lastModified);
+                
+                DirCacheEntry oldEntry = oldEntries.get(file.getKey());
+                if(oldEntry != null && oldEntry.getFileMode() == FileMode.REGULAR_FILE && oldEntry.getLength() == length
+                        && oldEntry.getLastModified() == lastModified && lastModified < indexTime) {
+                    entry.setObjectId(oldEntry.getObjectId());
+                }
+                else {
+                    byte[] bytes = Files.readAllBytes(workTree.resolve(file.getKey()));
+                    if(normalizeLineEndings) {
+                        bytes = GraficoModelExporter.toLF(bytes);
+                    }
+                    entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, bytes));
+                }
+                
+                builder.add(entry);
+            }
+            
+            builder.finish();
+            ObjectId treeId = index.writeTree(inserter);
+            inserter.flush();
+            
+            index.write();
+            if(!index.commit()) {
+                throw new IOException("Could not write the index"); //$NON-NLS-1$
+            }
+            
+            return !treeId.equals(repository.resolve("HEAD^{tree}")); //$NON-NLS-1$
+        }
+        finally {
+            index.unlock();
+        }
+    }
+    
+    /**
+     * Check that the model's files and images in the working tree are the same as in HEAD, without looking at the rest of the working tree.
+     * The index is compared with HEAD's tree, and the files with their entries in the index.
+     * 
+     * @param repository
+     * @return True if the model and images folders have the same files as HEAD
+     * @throws IOException
+     */
+    static boolean isModelSameAsHead(Repository repository) throws IOException {
+        ObjectId treeId = repository.resolve("HEAD^{tree}"); //$NON-NLS-1$
+        if(treeId == null) {
+            return false;
+        }
+        
+        Set<String> paths = new HashSet<String>();
+        paths.add(IGraficoConstants.MODEL_FOLDER);
+        paths.add(IGraficoConstants.IMAGES_FOLDER);
+        
+        Path workTree = repository.getWorkTree().toPath();
+        boolean normalizeLineEndings = repository.getConfig().get(WorkingTreeOptions.KEY).getAutoCRLF() != AutoCRLF.FALSE;
+        Map<String, BasicFileAttributes> files = listFiles(repository, paths);
+        
+        DirCache index = repository.readDirCache();
+        long indexTime = repository.getIndexFile().lastModified();
+        int count = 0;
+        
+        try(TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(treeId);
+            treeWalk.addTree(new DirCacheIterator(index));
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+            treeWalk.setRecursive(true);
+            
+            while(treeWalk.next()) {
+                DirCacheIterator indexIterator = treeWalk.getTree(1, DirCacheIterator.class);
+                DirCacheEntry entry = indexIterator != null ? indexIterator.getDirCacheEntry() : null;
+                
+                // Added, deleted, changed or conflicting in the index
+                if(entry == null || entry.getStage() != DirCacheEntry.STAGE_0 || !treeWalk.idEqual(0, 1)) {
+                    return false;
+                }
+                
+                BasicFileAttributes attrs = files.get(entry.getPathString());
+                if(attrs == null || !isFileSameAsEntry(workTree.resolve(entry.getPathString()), attrs, entry, indexTime, normalizeLineEndings)) {
+                    return false;
+                }
+                
+                count++;
+            }
+        }
+        
+        // Files that are not in the index
+        return count == files.size();
+    }
+    
+    /**
+     * @param repository
+     * @param paths Paths, relative to the working tree, of files and directories
+     * @return Path -> attributes of the files under paths in the working tree, with the paths relative to the working tree
+     * @throws IOException
+     */
+    private static Map<String, BasicFileAttributes> listFiles(Repository repository, Set<String> paths) throws IOException {
+        final Path workTree = repository.getWorkTree().toPath();
+        final Map<String, BasicFileAttributes> files = new TreeMap<String, BasicFileAttributes>();
+        
+        for(String path : paths) {
+            Path start = workTree.resolve(path);
+            if(Files.exists(start)) {
+                Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if(attrs.isRegularFile()) {
+                            files.put(workTree.relativize(file).toString().replace(File.separatorChar, '/'), attrs);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        }
+        
+        return files;
+    }
+    
+    /**
+     * @param path
+     * @param paths
+     * @return True if path or one of its parent directories is in paths
+     */
+    private static boolean isInPaths(String path, Set<String> paths) {
+        for(int index = path.length(); index > 0; index = path.lastIndexOf('/', index - 1)) {
+            if(paths.contains(path.substring(0, index))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Check out the files that differ between two trees and update their entries in the index in one go,
+     * without looking at the rest of the working tree and index. Files that were changed in the working tree are overwritten,
+     * which {@link #hasLocalChanges(Repository, RevTree, DirCache)} checks for.
+     * 
+     * @param repository
+     * @param oldTree The tree the working tree and index are up to date with, or null if there is none
+     * @param newTree
+     * @throws IOException
+     */
+    static void checkoutChanges(Repository repository, RevTree oldTree, RevTree newTree) throws IOException {
+        // Path -> new entry, or null if the file was deleted
+        Map<String, DirCacheEntry> changes = new HashMap<String, DirCacheEntry>();
+        DirCache index = repository.lockDirCache();
+        
+        try(ObjectReader reader = repository.newObjectReader(); TreeWalk treeWalk = new TreeWalk(reader)) {
+            if(oldTree != null) {
+                treeWalk.addTree(oldTree);
+            }
+            else {
+                treeWalk.addTree(new EmptyTreeIterator());
+            }
+            treeWalk.addTree(newTree);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            treeWalk.setRecursive(true);
+            
+            while(treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                
+                if(treeWalk.getFileMode(1) == FileMode.MISSING) {
+                    File file = new File(repository.getWorkTree(), path);
+                    file.delete();
+                    
+                    // Remove the directories left empty
+                    File parent = file.getParentFile();
+                    while(!parent.equals(repository.getWorkTree()) && parent.delete()) {
+                        parent = parent.getParentFile();
+                    }
+                    
+                    changes.put(path, null);
+                }
+                else {
+                    DirCacheEntry entry = new DirCacheEntry(path);
+                    entry.setFileMode(treeWalk.getFileMode(1));
+                    entry.setObjectId(treeWalk.getObjectId(1));
+                    DirCacheCheckout.checkoutEntry(repository, entry, reader);
+                    changes.put(path, entry);
+                }
+            }
+            
+            DirCacheBuilder builder = index.builder();
+            
+            for(int i = 0; i < index.getEntryCount(); i++) {
+                DirCacheEntry entry = index.getEntry(i);
+                if(!changes.containsKey(entry.getPathString())) {
+                    builder.add(entry);
+                }
+            }
+            
+            for(DirCacheEntry entry : changes.values()) {
+                if(entry != null) {
+                    builder.add(entry);
+                }
+            }
+            
+            builder.commit();
+        }
+        finally {
+            index.unlock();
         }
     }
     
@@ -169,7 +898,7 @@ public class GraficoUtils {
      * @throws GitAPIException
      */
     public static Iterable<PushResult> pushToRemote(File localGitFolder, String userName, String userPassword, ProgressMonitor monitor) throws IOException, GitAPIException {
-        try(Git git = Git.open(localGitFolder)) {
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
             PushCommand pushCommand = git.push();
             pushCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
             pushCommand.setProgressMonitor(monitor);
@@ -187,7 +916,7 @@ public class GraficoUtils {
      * @throws GitAPIException
      */
     public static PullResult pullFromRemote(File localGitFolder, String userName, String userPassword, ProgressMonitor monitor) throws IOException, GitAPIException {
-        try(Git git = Git.open(localGitFolder)) {
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
             PullCommand pullCommand = git.pull();
             pullCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
             pullCommand.setRebase(false); // Merge, not rebase
@@ -205,7 +934,7 @@ public class GraficoUtils {
      * @throws GitAPIException
      */
     public static FetchResult fetchFromRemote(File localGitFolder, String userName, String userPassword, ProgressMonitor monitor) throws IOException, GitAPIException {
-        try(Git git = Git.open(localGitFolder)) {
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
             FetchCommand fetchCommand = git.fetch();
             fetchCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
             fetchCommand.setProgressMonitor(monitor);
@@ -213,6 +942,95 @@ public class GraficoUtils {
         }
     }
 
+    /**
+     * Check whether the remote master has commits that are not merged into the current branch,
+     * reading only the refs that the remote advertises, as ls-remote does. Nothing is fetched.
+     * @param localGitFolder
+     * @param userName
+     * @param userPassword
+     * @return True if a pull is needed before a push
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    public static boolean isRemoteChanged(File localGitFolder, String userName, String userPassword) throws IOException, GitAPIException {
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            LsRemoteCommand lsRemoteCommand = git.lsRemote();
+            lsRemoteCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
+            lsRemoteCommand.setHeads(true);
+            Ref remoteRef = lsRemoteCommand.callAsMap().get(Constants.R_HEADS + Constants.MASTER);
+            
+            // Nothing published yet
+            if(remoteRef == null) {
+                return false;
+            }
+            
+            Repository repository = git.getRepository();
+            ObjectId headId = repository.resolve(Constants.HEAD);
+            ObjectId remoteId = remoteRef.getObjectId();
+            
+            // Not fetched yet
+            if(headId == null || !repository.hasObject(remoteId)) {
+                return true;
+            }
+            
+            try(RevWalk revWalk = new RevWalk(repository)) {
+                return !revWalk.isMergedInto(revWalk.parseCommit(remoteId), revWalk.parseCommit(headId));
+            }
+        }
+    }
+
+    /**
+     * Merge the remote tracking branch, as fetched last, into the current branch.
+     * This is the merge part of a pull, without going to the remote.
+     * @param localGitFolder
+     * @return The result of the merge, or null if the remote branch has not been fetched
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    public static MergeResult mergeFromRemote(File localGitFolder) throws IOException, GitAPIException {
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            Ref remoteRef = git.getRepository().exactRef(REMOTE_MASTER_REF);
+            if(remoteRef == null) {
+                return null;
+            }
+            return git.merge().include(remoteRef).call();
+        }
+    }
+    
+    /**
+     * Count the commits that HEAD and the remote tracking branch, as fetched last, do not have in common
+     * @param localGitFolder
+     * @return The number of commits to publish and the number of commits to refresh, or null if there is no HEAD or remote branch
+     * @throws IOException
+     */
+    public static int[] getAheadBehindCounts(File localGitFolder) throws IOException {
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            Repository repository = git.getRepository();
+            ObjectId localId = repository.resolve(Constants.HEAD);
+            ObjectId remoteId = repository.resolve(REMOTE_MASTER_REF);
+            if(localId == null || remoteId == null) {
+                return null;
+            }
+            
+            try(RevWalk revWalk = new RevWalk(repository)) {
+                RevCommit localCommit = revWalk.parseCommit(localId);
+                RevCommit remoteCommit = revWalk.parseCommit(remoteId);
+                
+                revWalk.setRevFilter(RevFilter.MERGE_BASE);
+                revWalk.markStart(localCommit);
+                revWalk.markStart(remoteCommit);
+                RevCommit mergeBase = revWalk.next();
+                
+                revWalk.reset();
+                revWalk.setRevFilter(RevFilter.ALL);
+                int ahead = RevWalkUtils.count(revWalk, localCommit, mergeBase);
+                int behind = RevWalkUtils.count(revWalk, remoteCommit, mergeBase);
+                
+                return new int[] { ahead, behind };
+            }
+        }
+    }
+
     /**
      * Get a local git folder name based on the repo's URL
      * @param repoURL
@@ -240,16 +1058,36 @@ public class GraficoUtils {
      * @return
      */
     public static boolean isGitRepository(File folder) {
-        if(folder == null || !folder.exists() || !folder.isDirectory()) {
+        if(folder == null) {
             return false;
         }
         
-        // Name of the Git folder
-        String GIT_FOLDER = ".git"; //$NON-NLS-1$
+        // A Git folder can only be found in a folder, so one look up is enough
+        return Files.isDirectory(folder.toPath().resolve(Constants.DOT_GIT));
+    }
+    
+    /**
+     * List the Git repositories that are directly in a folder.
+     * The folder is read in one pass and each entry is checked with a single look up of its Git folder.
+     * 
+     * @param folder
+     * @return The repository folders, empty if the folder can't be read
+     */
+    public static File[] getGitRepositories(File folder) {
+        List<File> repositories = new ArrayList<File>();
         
-        File gitFolder = new File(folder, GIT_FOLDER);
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(folder.toPath())) {
+            for(Path path : stream) {
+                if(Files.isDirectory(path.resolve(Constants.DOT_GIT))) {
+                    repositories.add(path.toFile());
+                }
+            }
+        }
+        catch(IOException | DirectoryIteratorException ex) {
+            // Not there or not readable, nothing to show
+        }
         
-        return gitFolder.exists() && gitFolder.isDirectory();
+        return repositories.toArray(new File[repositories.size()]);
     }
     
     /**
@@ -320,7 +1158,7 @@ public class GraficoUtils {
      * @throws IOException
      */
     public static String getRepositoryURL(File localGitFolder) throws IOException {
-        try(Git git = Git.open(localGitFolder)) {
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
             return git.getRepository().getConfig().getString("remote", "origin", "url"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
         }
     }
@@ -337,7 +1175,8 @@ public class GraficoUtils {
     public static String getFileContents(File localGitFolder, String path, String ref) throws IOException {
         String str = ""; //$NON-NLS-1$
         
-        try(Repository repository = Git.open(localGitFolder).getRepository()) {
+        try(Git git = GraficoRepositoryRegistry.open(localGitFolder)) {
+            Repository repository = git.getRepository();
             ObjectId lastCommitId = repository.resolve(ref);
 
             try(RevWalk revWalk = new RevWalk(repository)) {
@@ -377,12 +1216,10 @@ public class GraficoUtils {
     public static String getWorkingTreeFileContents(File localGitFolder, String path) throws IOException {
         String str = ""; //$NON-NLS-1$
         
-        try(Git git = Git.open(localGitFolder)) {
-            try(BufferedReader in = new BufferedReader(new FileReader(new File(localGitFolder, path)))) {
-                String line;
-                while((line = in.readLine()) != null) {
-                    str += line + "\n"; //$NON-NLS-1$
-                }
+        try(BufferedReader in = new BufferedReader(new FileReader(new File(localGitFolder, path)))) {
+            String line;
+            while((line = in.readLine()) != null) {
+                str += line + "\n"; //$NON-NLS-1$
             }
         }
         
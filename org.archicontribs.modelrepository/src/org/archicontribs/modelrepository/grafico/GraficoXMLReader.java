@@ -0,0 +1,369 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.FeatureMap;
+import org.eclipse.emf.ecore.util.InternalEList;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+
+
+/**
+ * Streaming reader for one Grafico file, driven by the EClass metadata of the objects it creates.
+ *
+ * The objects are the same as those of an XMLResource loaded with the importer's options,
+ * but there is no Resource, option map, XMLLoad or XMLHelper to set up for each file, and the objects are not left in a Resource.
+ * References to objects in other files are created as proxies with the same URIs as an XMLResource would give them.
+ * A reader is not thread safe, use one per thread.
+ * <p>
+ * Content that this reader does not handle (feature maps, nil values, unknown features, mixed content, malformed XML...)
+ * makes {@link #read(InputStream, URI)} return null. Such a file should be loaded with an XMLResource instead,
+ * which also reports errors in malformed files.
+ */
+class GraficoXMLReader {
+
+    private static final String XSI_TYPE = "type"; //$NON-NLS-1$
+    private static final String HREF = "href"; //$NON-NLS-1$
+
+    /**
+     * Thrown when the content can't be read by this reader
+     */
+    @SuppressWarnings("serial")
+    private static class UnsupportedContentException extends Exception {
+    }
+
+    /**
+     * A reference to an object of the same file, set once the whole file is read
+     */
+    private static class ForwardReference {
+        final EObject eObject;
+        final EReference reference;
+        final String id;
+
+        ForwardReference(EObject eObject, EReference reference, String id) {
+            this.eObject = eObject;
+            this.reference = reference;
+            this.id = id;
+        }
+    }
+
+    private final XMLInputFactory fFactory;
+    private final Map<String, EObject> fIDs = new HashMap<String, EObject>();
+    private final List<ForwardReference> fForwardReferences = new ArrayList<ForwardReference>();
+
+    private URI fURI;
+
+    GraficoXMLReader() {
+        fFactory = XMLInputFactory.newInstance();
+        fFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        fFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        fFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        fFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    /**
+     * Read the root object of a Grafico file
+     *
+     * @param in The UTF-8 contents of the file. It is not closed.
+     * @param uri URI of the file, used to resolve hrefs to other files
+     * @return The root object, or null if the file holds content that this reader does not handle
+     */
+    EObject read(InputStream in, URI uri) {
+        fURI = uri;
+        XMLStreamReader reader = null;
+
+        try {
+            reader = fFactory.createXMLStreamReader(in, "UTF-8"); //$NON-NLS-1$
+            reader.nextTag();
+
+            EObject root = createObject(getEClass(reader.getNamespaceURI(), reader.getLocalName()));
+            readObject(reader, root);
+
+            // Nothing but comments and white space after the root element
+            while(reader.hasNext()) {
+                int event = reader.next();
+                if(event != XMLStreamConstants.COMMENT && event != XMLStreamConstants.SPACE && event != XMLStreamConstants.END_DOCUMENT
+                        && !(event == XMLStreamConstants.CHARACTERS && reader.isWhiteSpace())) {
+                    throw new UnsupportedContentException();
+                }
+            }
+
+            resolveForwardReferences();
+
+            return root;
+        }
+        catch(XMLStreamException | UnsupportedContentException | RuntimeException ex) {
+            return null;
+        }
+        finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                }
+                catch(XMLStreamException ex) {
+                    // Nothing to release
+                }
+            }
+            fIDs.clear();
+            fForwardReferences.clear();
+            fURI = null;
+        }
+    }
+
+    /**
+     * Read only the root object of a Grafico file and its attributes, without the rest of the file
+     *
+     * @param in The UTF-8 contents of the file. It is not closed.
+     * @param uri URI of the file
+     * @return The root object, or null if its attributes hold content that this reader does not handle or refer to other objects
+     */
+    EObject readRoot(InputStream in, URI uri) {
+        fURI = uri;
+        XMLStreamReader reader = null;
+
+        try {
+            reader = fFactory.createXMLStreamReader(in, "UTF-8"); //$NON-NLS-1$
+            reader.nextTag();
+
+            EObject root = createObject(getEClass(reader.getNamespaceURI(), reader.getLocalName()));
+            readAttributes(reader, root);
+
+            // Objects of the rest of the file are not read
+            return fForwardReferences.isEmpty() ? root : null;
+        }
+        catch(XMLStreamException | UnsupportedContentException | RuntimeException ex) {
+            return null;
+        }
+        finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                }
+                catch(XMLStreamException ex) {
+                    // Nothing to release
+                }
+            }
+            fIDs.clear();
+            fForwardReferences.clear();
+            fURI = null;
+        }
+    }
+
+    /**
+     * Read the attributes and child elements of the current element into eObject.
+     * The reader is left on the end of the element.
+     */
+    private void readObject(XMLStreamReader reader, EObject eObject) throws XMLStreamException, UnsupportedContentException {
+        readAttributes(reader, eObject);
+
+        while(reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            readElement(reader, eObject);
+        }
+    }
+
+    private void readAttributes(XMLStreamReader reader, EObject eObject) throws UnsupportedContentException {
+        for(int i = 0; i < reader.getAttributeCount(); i++) {
+            String namespace = reader.getAttributeNamespace(i);
+            if(namespace != null && namespace.length() > 0) {
+                // The type was used to create eObject
+                if(XMLResource.XSI_URI.equals(namespace) && XSI_TYPE.equals(reader.getAttributeLocalName(i))) {
+                    continue;
+                }
+                throw new UnsupportedContentException();
+            }
+            readAttribute(eObject, getFeature(eObject, reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+        }
+
+        String id = EcoreUtil.getID(eObject);
+        if(id != null) {
+            fIDs.put(id, eObject);
+        }
+    }
+
+    private void readAttribute(EObject eObject, EStructuralFeature f, String value) throws UnsupportedContentException {
+        // Empty lists are written as an empty attribute, which only matters for unsettable lists
+        if(f.isMany() && value.length() == 0) {
+            if(f.isUnsettable()) {
+                throw new UnsupportedContentException();
+            }
+            return;
+        }
+
+        if(f instanceof EAttribute) {
+            if(f.isMany()) {
+                throw new UnsupportedContentException();
+            }
+            eObject.eSet(f, createFromString(f, value));
+            return;
+        }
+
+        EReference reference = (EReference)f;
+        if(reference.isContainment()) {
+            throw new UnsupportedContentException();
+        }
+
+        // Ids of objects in this file
+        for(String ref : value.split(" ")) { //$NON-NLS-1$
+            if(ref.length() > 0) {
+                fForwardReferences.add(new ForwardReference(eObject, reference, ref));
+            }
+        }
+    }
+
+    private void readElement(XMLStreamReader reader, EObject eObject) throws XMLStreamException, UnsupportedContentException {
+        String namespace = reader.getNamespaceURI();
+        if(namespace != null && namespace.length() > 0) {
+            throw new UnsupportedContentException();
+        }
+
+        EStructuralFeature f = getFeature(eObject, reader.getLocalName());
+
+        if(f instanceof EAttribute) {
+            // Values of a list of data types
+            if(!f.isMany() || reader.getAttributeCount() > 0) {
+                throw new UnsupportedContentException();
+            }
+            addValue(eObject, f, createFromString(f, reader.getElementText()));
+            return;
+        }
+
+        EReference reference = (EReference)f;
+        EClass eClass = getType(reader, reference);
+
+        if(reference.isContainment()) {
+            EObject child = createObject(eClass);
+            addValue(eObject, reference, child);
+            readObject(reader, child);
+            return;
+        }
+
+        // Reference to an object in another file
+        String href = null;
+        for(int i = 0; i < reader.getAttributeCount(); i++) {
+            String attributeNamespace = reader.getAttributeNamespace(i);
+            if(attributeNamespace == null || attributeNamespace.length() == 0) {
+                if(!HREF.equals(reader.getAttributeLocalName(i))) {
+                    throw new UnsupportedContentException();
+                }
+                href = reader.getAttributeValue(i);
+            }
+            else if(!XMLResource.XSI_URI.equals(attributeNamespace) || !XSI_TYPE.equals(reader.getAttributeLocalName(i))) {
+                throw new UnsupportedContentException();
+            }
+        }
+
+        if(href == null || reader.nextTag() != XMLStreamConstants.END_ELEMENT) {
+            throw new UnsupportedContentException();
+        }
+
+        InternalEObject proxy = (InternalEObject)createObject(eClass);
+        proxy.eSetProxyURI(resolve(URI.createURI(href)));
+        addValue(eObject, reference, proxy);
+    }
+
+    private void resolveForwardReferences() throws UnsupportedContentException {
+        for(ForwardReference forwardReference : fForwardReferences) {
+            EObject value = fIDs.get(forwardReference.id);
+            if(value == null || !forwardReference.reference.getEReferenceType().isInstance(value)) {
+                throw new UnsupportedContentException();
+            }
+            addValue(forwardReference.eObject, forwardReference.reference, value);
+        }
+    }
+
+    // ========================================= Meta data =========================================
+
+    private EStructuralFeature getFeature(EObject eObject, String name) throws UnsupportedContentException {
+        EStructuralFeature f = eObject.eClass().getEStructuralFeature(name);
+        if(f == null || !f.isChangeable() || f.isDerived()) {
+            throw new UnsupportedContentException();
+        }
+        if(f instanceof EAttribute && ((EDataType)f.getEType()).getInstanceClass() == FeatureMap.Entry.class) {
+            throw new UnsupportedContentException();
+        }
+        return f;
+    }
+
+    /**
+     * @return The EClass given by the element's xsi:type, or the type of the reference
+     */
+    private EClass getType(XMLStreamReader reader, EReference reference) throws UnsupportedContentException {
+        String qName = reader.getAttributeValue(XMLResource.XSI_URI, XSI_TYPE);
+        if(qName == null) {
+            return reference.getEReferenceType();
+        }
+
+        int index = qName.indexOf(':');
+        String prefix = index == -1 ? "" : qName.substring(0, index); //$NON-NLS-1$
+        EClass eClass = getEClass(reader.getNamespaceContext().getNamespaceURI(prefix), qName.substring(index + 1));
+
+        if(!reference.getEReferenceType().isSuperTypeOf(eClass)) {
+            throw new UnsupportedContentException();
+        }
+        return eClass;
+    }
+
+    private EClass getEClass(String namespace, String name) throws UnsupportedContentException {
+        EPackage ePackage = namespace == null ? null : EPackage.Registry.INSTANCE.getEPackage(namespace);
+        EClassifier eClassifier = ePackage == null ? null : ePackage.getEClassifier(name);
+        if(!(eClassifier instanceof EClass)) {
+            throw new UnsupportedContentException();
+        }
+        return (EClass)eClassifier;
+    }
+
+    private EObject createObject(EClass eClass) throws UnsupportedContentException {
+        if(eClass.isAbstract() || eClass.isInterface()) {
+            throw new UnsupportedContentException();
+        }
+        return eClass.getEPackage().getEFactoryInstance().create(eClass);
+    }
+
+    private Object createFromString(EStructuralFeature f, String value) {
+        return EcoreUtil.createFromString((EDataType)f.getEType(), value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addValue(EObject eObject, EStructuralFeature f, Object value) {
+        if(f.isMany()) {
+            ((InternalEList<Object>)eObject.eGet(f, false)).addUnique(value);
+        }
+        else {
+            eObject.eSet(f, value);
+        }
+    }
+
+    /**
+     * Resolve an href against the URI of the file, as XMLHelperImpl does
+     */
+    private URI resolve(URI uri) {
+        if(fURI != null && uri.isRelative() && uri.hasRelativePath() && fURI.isHierarchical() && !fURI.isRelative()) {
+            return uri.resolve(fURI);
+        }
+        return uri;
+    }
+}
@@ -0,0 +1,734 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.FeatureMap;
+import org.eclipse.emf.ecore.util.InternalEList;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+
+
+/**
+ * Streaming writer for one Grafico file, driven by the EClass metadata of the objects it writes.
+ *
+ * The XML is the same as the one written by {@link GraficoResource} with {@link GraficoResource#SAVE_OPTIONS},
+ * but there is no Resource, option map, XMLSave or XMLHelper to set up for each file and the buffers are kept between files.
+ * A writer is not thread safe, use one per thread.
+ * <p>
+ * Content that this writer does not handle (feature maps, nil values, references that can't be written as an id in the same file
+ * or as an href to an element file, invalid XML characters...) makes {@link #write(EObject)} return null.
+ * Such a file should be saved with {@link GraficoResource} instead.
+ */
+class GraficoXMLWriter {
+
+    // Kinds of features, as classified by XMLSaveImpl when there is no extended meta data or XML map
+    private static final int TRANSIENT = 0;
+    private static final int DATATYPE_SINGLE = 1;
+    private static final int DATATYPE_SINGLE_NILLABLE = 2;
+    private static final int DATATYPE_MANY = 3;
+    private static final int OBJECT_CONTAIN_SINGLE = 4;
+    private static final int OBJECT_CONTAIN_SINGLE_UNSETTABLE = 5;
+    private static final int OBJECT_CONTAIN_MANY = 6;
+    private static final int OBJECT_CONTAIN_MANY_UNSETTABLE = 7;
+    private static final int OBJECT_HREF_SINGLE = 8;
+    private static final int OBJECT_HREF_SINGLE_UNSETTABLE = 9;
+    private static final int OBJECT_HREF_MANY = 10;
+    private static final int OBJECT_HREF_MANY_UNSETTABLE = 11;
+    private static final int FEATURE_MAP = 12;
+
+    // Same as the line width in GraficoResource.SAVE_OPTIONS
+    private static final int LINE_WIDTH = 5;
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator"); //$NON-NLS-1$
+
+    private static final String XSI_TYPE = "xsi:type"; //$NON-NLS-1$
+    private static final String XSI_PREFIX = "xsi"; //$NON-NLS-1$
+    private static final String XMLNS = "xmlns:"; //$NON-NLS-1$
+    private static final String HREF = "href"; //$NON-NLS-1$
+
+    /**
+     * Features of each EClass in the order they are saved, shared by all writers
+     */
+    private static final Map<EClass, Feature[]> FEATURES = new ConcurrentHashMap<EClass, Feature[]>();
+
+    private static final Comparator<EPackage> PREFIX_COMPARATOR = new Comparator<EPackage>() {
+        @Override
+        public int compare(EPackage p1, EPackage p2) {
+            return p1.getNsPrefix().compareTo(p2.getNsPrefix());
+        }
+    };
+
+    /**
+     * A structural feature and how it is saved
+     */
+    private static class Feature {
+        final EStructuralFeature feature;
+        final int kind;
+
+        Feature(EStructuralFeature feature, int kind) {
+            this.feature = feature;
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * Thrown when the content can't be written by this writer
+     */
+    @SuppressWarnings("serial")
+    private static class UnsupportedContentException extends Exception {
+    }
+
+    private final StringBuilder fBuffer = new StringBuilder(2048);
+    private final StringBuilder fNamespaces = new StringBuilder(128);
+    private final List<String> fElementNames = new ArrayList<String>();
+    private final List<EPackage> fPackages = new ArrayList<EPackage>();
+    private final CharsetEncoder fEncoder = StandardCharsets.UTF_8.newEncoder();
+    private ByteBuffer fBytes = ByteBuffer.allocate(4096);
+
+    private EObject fRoot;
+    private int fDepth;
+    private int fLineWidth;
+    private boolean fStartTagOpen;
+    private boolean fDeclareXSI;
+    private int fMarkIndex;
+    private int fMarkLineWidth;
+
+    /**
+     * Write eObject as the root of a Grafico file
+     *
+     * @param eObject
+     * @return The UTF-8 contents of the file, or null if eObject holds content that this writer does not handle
+     */
+    byte[] write(EObject eObject) {
+        fBuffer.setLength(0);
+        fElementNames.clear();
+        fPackages.clear();
+        fDepth = 0;
+        fLineWidth = 0;
+        fStartTagOpen = false;
+        fDeclareXSI = false;
+        fRoot = eObject;
+
+        try {
+            writeRoot(eObject);
+            return encode();
+        }
+        catch(UnsupportedContentException ex) {
+            return null;
+        }
+        finally {
+            fRoot = null;
+        }
+    }
+
+    private void writeRoot(EObject root) throws UnsupportedContentException {
+        // XMLSaveImpl would write an href to the container
+        EReference containment = root.eContainmentFeature();
+        if(containment != null && containment.getEOpposite() != null && !containment.getEOpposite().isTransient()) {
+            throw new UnsupportedContentException();
+        }
+
+        startElement(getQName(root.eClass()));
+
+        // Namespace declarations are inserted here once all the packages are known
+        fMarkIndex = fBuffer.length();
+        fMarkLineWidth = fLineWidth;
+
+        writeFeatures(root);
+
+        insertNamespaceDeclarations();
+    }
+
+    private void writeFeatures(EObject eObject) throws UnsupportedContentException {
+        Feature[] features = getFeatures(eObject.eClass());
+        int[] elementFeatures = null;
+        int elementCount = 0;
+
+        // XML attributes
+        for(int i = 0; i < features.length; i++) {
+            int kind = features[i].kind;
+            EStructuralFeature f = features[i].feature;
+
+            if(kind == TRANSIENT || !shouldSaveFeature(eObject, f)) {
+                continue;
+            }
+
+            boolean isElement = false;
+
+            switch(kind) {
+                case DATATYPE_SINGLE:
+                    writeDataTypeAttribute(eObject, f);
+                    break;
+
+                case DATATYPE_SINGLE_NILLABLE:
+                    if(eObject.eGet(f, false) == null) {
+                        isElement = true;
+                    }
+                    else {
+                        writeDataTypeAttribute(eObject, f);
+                    }
+                    break;
+
+                case OBJECT_HREF_SINGLE_UNSETTABLE:
+                    if(eObject.eGet(f, false) == null) {
+                        isElement = true;
+                    }
+                    else {
+                        isElement = writeIDREF(eObject, f);
+                    }
+                    break;
+
+                case OBJECT_HREF_SINGLE:
+                    isElement = writeIDREF(eObject, f);
+                    break;
+
+                case OBJECT_HREF_MANY_UNSETTABLE:
+                    if(getList(eObject, f).isEmpty()) {
+                        addAttribute(f.getName(), ""); //$NON-NLS-1$
+                    }
+                    else {
+                        isElement = writeIDREFs(eObject, f);
+                    }
+                    break;
+
+                case OBJECT_HREF_MANY:
+                    isElement = writeIDREFs(eObject, f);
+                    break;
+
+                case DATATYPE_MANY:
+                case OBJECT_CONTAIN_MANY_UNSETTABLE:
+                    if(getList(eObject, f).isEmpty()) {
+                        addAttribute(f.getName(), ""); //$NON-NLS-1$
+                    }
+                    else {
+                        isElement = true;
+                    }
+                    break;
+
+                case OBJECT_CONTAIN_SINGLE:
+                case OBJECT_CONTAIN_SINGLE_UNSETTABLE:
+                case OBJECT_CONTAIN_MANY:
+                    isElement = true;
+                    break;
+
+                default:
+                    throw new UnsupportedContentException();
+            }
+
+            if(isElement) {
+                if(elementFeatures == null) {
+                    elementFeatures = new int[features.length];
+                }
+                elementFeatures[elementCount++] = i;
+            }
+        }
+
+        // XML elements
+        for(int i = 0; i < elementCount; i++) {
+            int kind = features[elementFeatures[i]].kind;
+            EStructuralFeature f = features[elementFeatures[i]].feature;
+
+            switch(kind) {
+                case DATATYPE_MANY:
+                    writeDataTypeElements(eObject, f);
+                    break;
+
+                case OBJECT_CONTAIN_SINGLE_UNSETTABLE:
+                case OBJECT_CONTAIN_SINGLE:
+                    EObject value = (EObject)eObject.eGet(f, false);
+                    if(value == null) {
+                        if(kind == OBJECT_CONTAIN_SINGLE_UNSETTABLE) {
+                            throw new UnsupportedContentException();
+                        }
+                    }
+                    else {
+                        writeContainedElement(value, f);
+                    }
+                    break;
+
+                case OBJECT_CONTAIN_MANY_UNSETTABLE:
+                case OBJECT_CONTAIN_MANY:
+                    for(Object child : ((InternalEList<?>)getList(eObject, f)).basicList()) {
+                        if(child != null) {
+                            writeContainedElement((EObject)child, f);
+                        }
+                    }
+                    break;
+
+                case OBJECT_HREF_SINGLE_UNSETTABLE:
+                case OBJECT_HREF_SINGLE:
+                    EObject remote = (EObject)eObject.eGet(f, false);
+                    if(remote == null) {
+                        throw new UnsupportedContentException();
+                    }
+                    writeHref(remote, f);
+                    break;
+
+                case OBJECT_HREF_MANY_UNSETTABLE:
+                case OBJECT_HREF_MANY:
+                    InternalEList<?> remotes = (InternalEList<?>)getList(eObject, f);
+                    for(int j = 0; j < remotes.size(); j++) {
+                        writeHref((EObject)remotes.basicGet(j), f);
+                    }
+                    break;
+
+                default:
+                    // Nil values
+                    throw new UnsupportedContentException();
+            }
+        }
+
+        endElement();
+    }
+
+    private void writeContainedElement(EObject eObject, EStructuralFeature f) throws UnsupportedContentException {
+        startElement(f.getName());
+
+        EClass eClass = eObject.eClass();
+        if(eClass != f.getEType()) {
+            writeTypeAttribute(eClass);
+        }
+
+        writeFeatures(eObject);
+    }
+
+    private void writeHref(EObject remote, EStructuralFeature f) throws UnsupportedContentException {
+        String href = getHREF(remote);
+        if(href == null) {
+            throw new UnsupportedContentException();
+        }
+
+        startElement(f.getName());
+
+        EClass eClass = remote.eClass();
+        EClass expectedType = (EClass)f.getEType();
+        if(eClass != expectedType && (expectedType.isAbstract() || f.getEGenericType().getETypeParameter() != null)) {
+            writeTypeAttribute(eClass);
+        }
+
+        addAttribute(HREF, href);
+        endElement();
+    }
+
+    private void writeTypeAttribute(EClass eClass) throws UnsupportedContentException {
+        fDeclareXSI = true;
+        addAttribute(XSI_TYPE, getQName(eClass));
+    }
+
+    private void writeDataTypeAttribute(EObject eObject, EStructuralFeature f) throws UnsupportedContentException {
+        Object value = eObject.eGet(f, false);
+        if(value == null) {
+            return;
+        }
+
+        String s = EcoreUtil.convertToString((EDataType)f.getEType(), value);
+        if(s == null) {
+            return;
+        }
+
+        startAttribute(f.getName());
+        appendEscaped(s, false);
+        endAttribute();
+    }
+
+    private void writeDataTypeElements(EObject eObject, EStructuralFeature f) throws UnsupportedContentException {
+        EDataType dataType = (EDataType)f.getEType();
+        String name = f.getName();
+
+        for(Object value : getList(eObject, f)) {
+            if(value == null) {
+                throw new UnsupportedContentException();
+            }
+
+            if(fStartTagOpen) {
+                closeStartElement();
+            }
+            fDepth++;
+            appendIndent(fDepth - 1);
+            append('<');
+            append(name);
+            append('>');
+            appendEscaped(EcoreUtil.convertToString(dataType, value), true);
+            append("</"); //$NON-NLS-1$
+            append(name);
+            append('>');
+            fDepth--;
+            appendLine();
+        }
+    }
+
+    /**
+     * Write the id of the object of a single reference as an attribute if it is in this file
+     *
+     * @return True if the reference should be written as an href element instead
+     */
+    private boolean writeIDREF(EObject eObject, EStructuralFeature f) throws UnsupportedContentException {
+        EObject value = (EObject)eObject.eGet(f, false);
+        if(value == null) {
+            return false;
+        }
+
+        if(!isInThisFile(value)) {
+            return true;
+        }
+
+        addAttribute(f.getName(), getIDREF(value));
+        return false;
+    }
+
+    /**
+     * Write the ids of all objects of a list of references as one attribute if they are all in this file
+     *
+     * @return True if the references should be written as hrefs elements instead
+     */
+    private boolean writeIDREFs(EObject eObject, EStructuralFeature f) throws UnsupportedContentException {
+        InternalEList<?> values = (InternalEList<?>)getList(eObject, f);
+        if(values.isEmpty()) {
+            return false;
+        }
+
+        for(int i = 0; i < values.size(); i++) {
+            if(!isInThisFile((EObject)values.basicGet(i))) {
+                return true;
+            }
+        }
+
+        startAttribute(f.getName());
+        for(int i = 0; i < values.size(); i++) {
+            if(i > 0) {
+                append(' ');
+            }
+            append(getIDREF((EObject)values.basicGet(i)));
+        }
+        endAttribute();
+
+        return false;
+    }
+
+    // ========================================= Grafico rules =========================================
+
+    private boolean shouldSaveFeature(EObject eObject, EStructuralFeature f) {
+        return !GraficoResource.isSavedInOwnFiles(f) && eObject.eIsSet(f);
+    }
+
+    private boolean isInThisFile(EObject value) {
+        return !value.eIsProxy() && GraficoResource.getFileRoot(value) == fRoot;
+    }
+
+    private String getHREF(EObject value) {
+        return GraficoResource.getElementHREF(value);
+    }
+
+    private String getIDREF(EObject value) throws UnsupportedContentException {
+        String id = EcoreUtil.getID(value);
+        if(id == null) {
+            throw new UnsupportedContentException();
+        }
+        return id;
+    }
+
+    // ========================================= Meta data =========================================
+
+    private static Feature[] getFeatures(EClass eClass) {
+        Feature[] features = FEATURES.get(eClass);
+
+        if(features == null) {
+            List<EStructuralFeature> list = eClass.getEAllStructuralFeatures();
+            features = new Feature[list.size()];
+            for(int i = 0; i < features.length; i++) {
+                features[i] = new Feature(list.get(i), getKind(list.get(i)));
+            }
+            FEATURES.put(eClass, features);
+        }
+
+        return features;
+    }
+
+    private static int getKind(EStructuralFeature f) {
+        if(f.isTransient()) {
+            return TRANSIENT;
+        }
+
+        boolean isMany = f.isMany();
+        boolean isUnsettable = f.isUnsettable();
+
+        if(f instanceof EReference) {
+            EReference reference = (EReference)f;
+
+            if(reference.isContainment()) {
+                return isMany ? (isUnsettable ? OBJECT_CONTAIN_MANY_UNSETTABLE : OBJECT_CONTAIN_MANY)
+                              : (isUnsettable ? OBJECT_CONTAIN_SINGLE_UNSETTABLE : OBJECT_CONTAIN_SINGLE);
+            }
+
+            if(reference.getEOpposite() != null && reference.getEOpposite().isContainment()) {
+                return TRANSIENT;
+            }
+
+            return isMany ? (isUnsettable ? OBJECT_HREF_MANY_UNSETTABLE : OBJECT_HREF_MANY)
+                          : (isUnsettable ? OBJECT_HREF_SINGLE_UNSETTABLE : OBJECT_HREF_SINGLE);
+        }
+
+        EDataType dataType = (EDataType)f.getEType();
+        if(!dataType.isSerializable() && dataType != EcorePackage.Literals.EFEATURE_MAP_ENTRY) {
+            return TRANSIENT;
+        }
+
+        if(dataType.getInstanceClass() == FeatureMap.Entry.class) {
+            return FEATURE_MAP;
+        }
+
+        if(isMany) {
+            return DATATYPE_MANY;
+        }
+
+        return isUnsettable ? DATATYPE_SINGLE_NILLABLE : DATATYPE_SINGLE;
+    }
+
+    private String getQName(EClass eClass) throws UnsupportedContentException {
+        EPackage ePackage = eClass.getEPackage();
+
+        if(!fPackages.contains(ePackage)) {
+            String prefix = ePackage.getNsPrefix();
+            if(prefix == null || prefix.length() == 0 || XSI_PREFIX.equals(prefix) || ePackage.getNsURI() == null) {
+                throw new UnsupportedContentException();
+            }
+            for(EPackage other : fPackages) {
+                if(prefix.equals(other.getNsPrefix())) {
+                    throw new UnsupportedContentException();
+                }
+            }
+            fPackages.add(ePackage);
+        }
+
+        return ePackage.getNsPrefix() + ":" + eClass.getName(); //$NON-NLS-1$
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> getList(EObject eObject, EStructuralFeature f) {
+        return (List<Object>)eObject.eGet(f, false);
+    }
+
+    // ========================================= Formatting =========================================
+    // This follows what XMLString does with a line width of 5: the root element is not indented, each level of elements
+    // is indented by two spaces and each attribute goes on its own line, indented by two more spaces than its element
+
+    private void startElement(String name) {
+        if(fStartTagOpen) {
+            closeStartElement();
+        }
+        fElementNames.add(name);
+        fDepth++;
+        appendIndent(fDepth - 1);
+        append('<');
+        append(name);
+        fStartTagOpen = true;
+    }
+
+    private void closeStartElement() {
+        append('>');
+        appendLine();
+        fStartTagOpen = false;
+    }
+
+    private void endElement() {
+        String name = fElementNames.remove(fElementNames.size() - 1);
+        fDepth--;
+
+        if(fStartTagOpen) {
+            append("/>"); //$NON-NLS-1$
+            fStartTagOpen = false;
+        }
+        else {
+            appendIndent(fDepth);
+            append("</"); //$NON-NLS-1$
+            append(name);
+            append('>');
+        }
+
+        appendLine();
+    }
+
+    private void addAttribute(String name, String value) {
+        startAttribute(name);
+        append(value);
+        endAttribute();
+    }
+
+    private void startAttribute(String name) {
+        if(fLineWidth > LINE_WIDTH) {
+            appendLine();
+            appendIndent(fDepth + 1);
+        }
+        else {
+            append(' ');
+        }
+        append(name);
+        append("=\""); //$NON-NLS-1$
+    }
+
+    private void endAttribute() {
+        append('"');
+    }
+
+    /**
+     * Insert the namespace declarations after the name of the root element, as XMLSaveImpl does once the document is complete
+     */
+    private void insertNamespaceDeclarations() {
+        fNamespaces.setLength(0);
+        int lineWidth = fMarkLineWidth;
+
+        if(fDeclareXSI) {
+            lineWidth = appendNamespace(XMLNS + XSI_PREFIX, XMLResource.XSI_URI, lineWidth);
+        }
+
+        if(fPackages.size() > 1) {
+            Collections.sort(fPackages, PREFIX_COMPARATOR);
+        }
+        for(EPackage ePackage : fPackages) {
+            lineWidth = appendNamespace(XMLNS + ePackage.getNsPrefix(), ePackage.getNsURI(), lineWidth);
+        }
+
+        // An attribute left on the first line is moved to the next one
+        if(lineWidth > LINE_WIDTH && fMarkIndex < fBuffer.length() && fBuffer.charAt(fMarkIndex) == ' ') {
+            fNamespaces.append(LINE_SEPARATOR).append("   "); //$NON-NLS-1$
+        }
+
+        fBuffer.insert(fMarkIndex, fNamespaces);
+    }
+
+    private int appendNamespace(String name, String uri, int lineWidth) {
+        if(lineWidth > LINE_WIDTH) {
+            // Indent of the attributes of the root element
+            fNamespaces.append(LINE_SEPARATOR).append("    "); //$NON-NLS-1$
+            lineWidth = 4;
+        }
+        else {
+            fNamespaces.append(' ');
+            lineWidth++;
+        }
+        fNamespaces.append(name).append("=\"").append(uri).append('"'); //$NON-NLS-1$
+        return lineWidth + name.length() + uri.length() + 3;
+    }
+
+    private void appendIndent(int level) {
+        for(int i = 0; i < level; i++) {
+            fBuffer.append("  "); //$NON-NLS-1$
+        }
+        fLineWidth += level * 2;
+    }
+
+    private void appendLine() {
+        fBuffer.append(LINE_SEPARATOR);
+        fLineWidth = 0;
+    }
+
+    private void append(String s) {
+        fBuffer.append(s);
+        fLineWidth += s.length();
+    }
+
+    private void append(char c) {
+        fBuffer.append(c);
+        fLineWidth++;
+    }
+
+    /**
+     * Append a value escaped as XMLSaveImpl.Escape does for UTF-8 and XML 1.0
+     *
+     * @param s The value
+     * @param isText True for element content, false for an attribute value
+     */
+    private void appendEscaped(String s, boolean isText) throws UnsupportedContentException {
+        int start = fBuffer.length();
+        int length = s.length();
+
+        for(int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+
+            switch(c) {
+                case '&':
+                    fBuffer.append("&amp;"); //$NON-NLS-1$
+                    break;
+
+                case '<':
+                    fBuffer.append("&lt;"); //$NON-NLS-1$
+                    break;
+
+                case '"':
+                    fBuffer.append("&quot;"); //$NON-NLS-1$
+                    break;
+
+                case '\n':
+                    fBuffer.append(isText ? LINE_SEPARATOR : "&#xA;"); //$NON-NLS-1$
+                    break;
+
+                case '\r':
+                    fBuffer.append("&#xD;"); //$NON-NLS-1$
+                    break;
+
+                case '\t':
+                    fBuffer.append(isText ? "\t" : "&#x9;"); //$NON-NLS-1$ //$NON-NLS-2$
+                    break;
+
+                case '>':
+                    fBuffer.append(isText && i >= 2 && s.charAt(i - 1) == ']' && s.charAt(i - 2) == ']' ? "&gt;" : ">"); //$NON-NLS-1$ //$NON-NLS-2$
+                    break;
+
+                default:
+                    if(c >= 0x20 && c < 0xD800 || c >= 0xE000 && c <= 0xFFFD) {
+                        fBuffer.append(c);
+                    }
+                    else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        fBuffer.append(c).append(s.charAt(++i));
+                    }
+                    else {
+                        // Control characters and unpaired surrogates are rejected by XMLSaveImpl
+                        throw new UnsupportedContentException();
+                    }
+                    break;
+            }
+        }
+
+        fLineWidth += fBuffer.length() - start;
+    }
+
+    /**
+     * @return The contents of the buffer encoded in UTF-8
+     */
+    private byte[] encode() {
+        // A char never takes more than 3 bytes in UTF-8
+        int maxLength = fBuffer.length() * 3;
+        if(fBytes.capacity() < maxLength) {
+            fBytes = ByteBuffer.allocate(maxLength);
+        }
+
+        fBytes.clear();
+        fEncoder.reset();
+        fEncoder.encode(CharBuffer.wrap(fBuffer), fBytes, true);
+        fEncoder.flush(fBytes);
+
+        return Arrays.copyOf(fBytes.array(), fBytes.position());
+    }
+}
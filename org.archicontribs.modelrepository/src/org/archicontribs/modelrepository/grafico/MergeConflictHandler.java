@@ -87,7 +87,7 @@ public class MergeConflictHandler {
     }
     
     public void mergeAndCommit() throws IOException, GitAPIException {
-        try(Git git = Git.open(fLocalGitFolder)) {
+        try(Git git = GraficoRepositoryRegistry.open(fLocalGitFolder)) {
             if(fOurs != null && !fOurs.isEmpty()) {
                 checkout(git, Stage.OURS, fOurs);
             }
@@ -132,7 +132,7 @@ public class MergeConflictHandler {
     
     private void resetToState(String ref) throws IOException, GitAPIException {
         // Reset HARD  which will lose all changes
-        try(Git git = Git.open(fLocalGitFolder)) {
+        try(Git git = GraficoRepositoryRegistry.open(fLocalGitFolder)) {
             ResetCommand resetCommand = git.reset();
             resetCommand.setRef(ref);
             resetCommand.setMode(ResetType.HARD);
@@ -6,13 +6,54 @@ public class Messages extends NLS {
 
     private static final String BUNDLE_NAME = "org.archicontribs.modelrepository.grafico.messages"; //$NON-NLS-1$
 
+    public static String GraficoLazyDiagram_0;
+
     public static String GraficoModelImporter_0;
 
+    public static String GraficoModelReloader_0;
+
     public static String GraficoUtils_0;
 
     public static String GraficoUtils_1;
 
     public static String GraficoUtils_2;
+
+
+    public static String GraficoFetchJob_0;
+
+    public static String GraficoMaintenanceJob_0;
+
+    public static String GraficoSyncJob_0;
+
+    public static String GraficoSyncJob_1;
+
+    public static String GraficoSyncJob_2;
+
+    public static String GraficoSyncJob_3;
+
+    public static String GraficoSyncJob_4;
+
+    public static String GraficoSyncJob_5;
+
+    public static String GraficoSyncJob_6;
+
+    public static String GraficoSyncJob_7;
+
+    public static String GraficoSyncJob_8;
+
+    public static String GraficoSyncJob_9;
+
+    public static String GraficoSyncJob_10;
+
+    public static String GraficoSyncJob_11;
+
+    public static String GraficoSyncJob_12;
+
+    public static String GraficoSyncJob_13;
+
+    public static String GraficoSyncJob_14;
+
+    public static String GraficoSyncJob_15;
     static {
         // initialize resource bundle
         NLS.initializeMessages(BUNDLE_NAME, Messages.class);
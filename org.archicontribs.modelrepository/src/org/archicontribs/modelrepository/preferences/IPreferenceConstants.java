@@ -19,4 +19,8 @@ public interface IPreferenceConstants {
     String PREFS_COMMIT_USER_EMAIL = "userEmail"; //$NON-NLS-1$
     String PREFS_REPOSITORY_FOLDER = "repoFolder"; //$NON-NLS-1$
     String PREFS_STORE_REPO_CREDENTIALS = "storeCredentials"; //$NON-NLS-1$
+    String PREFS_FETCH_INTERVAL = "fetchInterval"; //$NON-NLS-1$
+    String PREFS_FETCH_JITTER = "fetchJitter"; //$NON-NLS-1$
+    String PREFS_GC_LOOSE_OBJECTS = "gcLooseObjects"; //$NON-NLS-1$
+    String PREFS_GC_PACK_FILES = "gcPackFiles"; //$NON-NLS-1$
  }
@@ -21,6 +21,7 @@ import org.eclipse.swt.widgets.DirectoryDialog;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
@@ -49,6 +50,12 @@ implements IWorkbenchPreferencePage, IPreferenceConstants {
     
     private Button fStoreCredentialsButton;
     
+    private Spinner fFetchIntervalSpinner;
+    private Spinner fFetchJitterSpinner;
+    
+    private Spinner fGCLooseObjectsSpinner;
+    private Spinner fGCPackFilesSpinner;
+    
 	public ModelRepositoryPreferencePage() {
 		setPreferenceStore(ModelRepositoryPlugin.INSTANCE.getPreferenceStore());
 	}
@@ -111,6 +118,58 @@ implements IWorkbenchPreferencePage, IPreferenceConstants {
             }
         });
         
+        // Background fetch
+        Group fetchGroup = new Group(client, SWT.NULL);
+        fetchGroup.setText("Remote Changes");
+        fetchGroup.setLayout(new GridLayout(2, false));
+        fetchGroup.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+        
+        label = new Label(fetchGroup, SWT.NULL);
+        label.setText("Check for remote changes every (minutes, 0 = never):");
+        
+        fFetchIntervalSpinner = new Spinner(fetchGroup, SWT.BORDER);
+        fFetchIntervalSpinner.setMinimum(0);
+        fFetchIntervalSpinner.setMaximum(1440);
+        
+        label = new Label(fetchGroup, SWT.NULL);
+        label.setText("Vary the time of each check by up to (% of the interval):");
+        
+        fFetchJitterSpinner = new Spinner(fetchGroup, SWT.BORDER);
+        fFetchJitterSpinner.setMinimum(0);
+        fFetchJitterSpinner.setMaximum(100);
+        
+        label = new Label(fetchGroup, SWT.NULL);
+        label.setText("Only repositories whose user name and password are stored are checked.");
+        gd = new GridData(GridData.FILL_HORIZONTAL);
+        gd.horizontalSpan = 2;
+        label.setLayoutData(gd);
+        
+        // Maintenance
+        Group gcGroup = new Group(client, SWT.NULL);
+        gcGroup.setText("Maintenance");
+        gcGroup.setLayout(new GridLayout(2, false));
+        gcGroup.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+        
+        label = new Label(gcGroup, SWT.NULL);
+        label.setText("Pack a repository when it has more loose objects than (0 = never):");
+        
+        fGCLooseObjectsSpinner = new Spinner(gcGroup, SWT.BORDER);
+        fGCLooseObjectsSpinner.setMinimum(0);
+        fGCLooseObjectsSpinner.setMaximum(1000000);
+        
+        label = new Label(gcGroup, SWT.NULL);
+        label.setText("Or when it has more pack files than (0 = never):");
+        
+        fGCPackFilesSpinner = new Spinner(gcGroup, SWT.BORDER);
+        fGCPackFilesSpinner.setMinimum(0);
+        fGCPackFilesSpinner.setMaximum(1000);
+        
+        label = new Label(gcGroup, SWT.NULL);
+        label.setText("Repositories are checked in the background while they are not in use.");
+        gd = new GridData(GridData.FILL_HORIZONTAL);
+        gd.horizontalSpan = 2;
+        label.setLayoutData(gd);
+        
         Group otherGroup = new Group(client, SWT.NULL);
         otherGroup.setText("Testing");
         otherGroup.setLayout(new GridLayout(3, false));
@@ -150,6 +209,10 @@ implements IWorkbenchPreferencePage, IPreferenceConstants {
         fUserEmailTextField.setText(getPreferenceStore().getString(PREFS_COMMIT_USER_EMAIL));
         fUserRepoFolderTextField.setText(getPreferenceStore().getString(PREFS_REPOSITORY_FOLDER));
         fStoreCredentialsButton.setSelection(getPreferenceStore().getBoolean(PREFS_STORE_REPO_CREDENTIALS));
+        fFetchIntervalSpinner.setSelection(getPreferenceStore().getInt(PREFS_FETCH_INTERVAL));
+        fFetchJitterSpinner.setSelection(getPreferenceStore().getInt(PREFS_FETCH_JITTER));
+        fGCLooseObjectsSpinner.setSelection(getPreferenceStore().getInt(PREFS_GC_LOOSE_OBJECTS));
+        fGCPackFilesSpinner.setSelection(getPreferenceStore().getInt(PREFS_GC_PACK_FILES));
     }
     
     @Override
@@ -158,6 +221,10 @@ implements IWorkbenchPreferencePage, IPreferenceConstants {
         getPreferenceStore().setValue(PREFS_COMMIT_USER_EMAIL, fUserEmailTextField.getText());
         getPreferenceStore().setValue(PREFS_REPOSITORY_FOLDER, fUserRepoFolderTextField.getText());
         getPreferenceStore().setValue(PREFS_STORE_REPO_CREDENTIALS, fStoreCredentialsButton.getSelection());
+        getPreferenceStore().setValue(PREFS_FETCH_INTERVAL, fFetchIntervalSpinner.getSelection());
+        getPreferenceStore().setValue(PREFS_FETCH_JITTER, fFetchJitterSpinner.getSelection());
+        getPreferenceStore().setValue(PREFS_GC_LOOSE_OBJECTS, fGCLooseObjectsSpinner.getSelection());
+        getPreferenceStore().setValue(PREFS_GC_PACK_FILES, fGCPackFilesSpinner.getSelection());
         
         return true;
     }
@@ -168,6 +235,10 @@ implements IWorkbenchPreferencePage, IPreferenceConstants {
         fUserEmailTextField.setText(getPreferenceStore().getDefaultString(PREFS_COMMIT_USER_EMAIL));
         fUserRepoFolderTextField.setText(getPreferenceStore().getDefaultString(PREFS_REPOSITORY_FOLDER));
         fStoreCredentialsButton.setSelection(getPreferenceStore().getDefaultBoolean(PREFS_STORE_REPO_CREDENTIALS));
+        fFetchIntervalSpinner.setSelection(getPreferenceStore().getDefaultInt(PREFS_FETCH_INTERVAL));
+        fFetchJitterSpinner.setSelection(getPreferenceStore().getDefaultInt(PREFS_FETCH_JITTER));
+        fGCLooseObjectsSpinner.setSelection(getPreferenceStore().getDefaultInt(PREFS_GC_LOOSE_OBJECTS));
+        fGCPackFilesSpinner.setSelection(getPreferenceStore().getDefaultInt(PREFS_GC_PACK_FILES));
     }
     
     public void init(IWorkbench workbench) {
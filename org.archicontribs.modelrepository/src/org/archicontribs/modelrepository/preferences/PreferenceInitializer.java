@@ -31,5 +31,9 @@ implements IPreferenceConstants {
 		store.setDefault(PREFS_COMMIT_USER_EMAIL, ""); //$NON-NLS-1$
 		store.setDefault(PREFS_REPOSITORY_FOLDER, new File(ArchiPlugin.INSTANCE.getUserDataFolder(), "model-repository").getAbsolutePath()); //$NON-NLS-1$
 		store.setDefault(PREFS_STORE_REPO_CREDENTIALS, false);
+		store.setDefault(PREFS_FETCH_INTERVAL, 10); // minutes
+		store.setDefault(PREFS_FETCH_JITTER, 20); // percent of the interval
+		store.setDefault(PREFS_GC_LOOSE_OBJECTS, 6700); // as git gc --auto
+		store.setDefault(PREFS_GC_PACK_FILES, 50); // as git gc --auto
     }
 }
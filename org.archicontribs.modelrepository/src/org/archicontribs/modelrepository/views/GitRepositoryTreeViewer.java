@@ -6,9 +6,9 @@
 package org.archicontribs.modelrepository.views;
 
 import java.io.File;
-import java.io.FileFilter;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
+import org.archicontribs.modelrepository.grafico.GraficoFetchJob;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.eclipse.jface.viewers.ITreeContentProvider;
 import org.eclipse.jface.viewers.LabelProvider;
@@ -152,11 +152,7 @@ public class GitRepositoryTreeViewer extends TreeViewer {
         public Object [] getChildren(Object parent) {
         	// Only show top level folders that are git repos
             if(parent instanceof File) {
-                return ((File)parent).listFiles(new FileFilter() {
-                    public boolean accept(File child) {
-                        return GraficoUtils.isGitRepository(child);
-                    }
-                });
+                return GraficoUtils.getGitRepositories((File)parent);
             }
             return new Object[0];
         }
@@ -176,6 +172,13 @@ public class GitRepositoryTreeViewer extends TreeViewer {
         public String getText(Object obj) {
         	if(obj instanceof File) {
         	    File f = (File)obj;
+        	    
+        	    // Commits to publish and to refresh, as of the last background fetch
+        	    GraficoFetchJob.TrackingStatus status = GraficoFetchJob.getTrackingStatus(f);
+        	    if(status != null && (status.getAhead() > 0 || status.getBehind() > 0)) {
+        	        return f.getName() + " [" + status.getAhead() + " to publish, " + status.getBehind() + " to refresh]";
+        	    }
+        	    
         	    return f.getName();
         	}
         	else {
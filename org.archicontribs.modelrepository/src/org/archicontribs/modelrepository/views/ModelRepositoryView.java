@@ -14,7 +14,9 @@ import org.archicontribs.modelrepository.actions.CommitModelAction;
 import org.archicontribs.modelrepository.actions.DeleteModelAction;
 import org.archicontribs.modelrepository.actions.OpenModelAction;
 import org.archicontribs.modelrepository.actions.PropertiesAction;
+import org.archicontribs.modelrepository.actions.PublishAllModelsAction;
 import org.archicontribs.modelrepository.actions.PushModelAction;
+import org.archicontribs.modelrepository.actions.RefreshAllModelsAction;
 import org.archicontribs.modelrepository.actions.RefreshModelAction;
 import org.archicontribs.modelrepository.actions.SaveModelAction;
 import org.eclipse.help.HelpSystem;
@@ -72,6 +74,9 @@ implements IContextProvider, ITabbedPropertySheetPageContributor {
     protected AbstractModelAction fActionCommit;
     protected AbstractModelAction fActionPush;
     
+    protected AbstractModelAction fActionRefreshAll;
+    protected AbstractModelAction fActionPushAll;
+    
     protected AbstractModelAction fActionProperties;
     
 
@@ -135,6 +140,9 @@ implements IContextProvider, ITabbedPropertySheetPageContributor {
         fActionPush = new PushModelAction(getViewSite().getWorkbenchWindow());
         fActionPush.setEnabled(false);
         
+        fActionRefreshAll = new RefreshAllModelsAction(getViewSite().getWorkbenchWindow());
+        fActionPushAll = new PublishAllModelsAction(getViewSite().getWorkbenchWindow());
+        
         fActionProperties = new PropertiesAction();
         fActionProperties.setEnabled(false);
         
@@ -206,6 +214,9 @@ implements IContextProvider, ITabbedPropertySheetPageContributor {
         manager.add(fActionSave);
         manager.add(fActionCommit);
         manager.add(fActionPush);
+        manager.add(new Separator());
+        manager.add(fActionRefreshAll);
+        manager.add(fActionPushAll);
     }
     
     /**
@@ -233,6 +244,8 @@ implements IContextProvider, ITabbedPropertySheetPageContributor {
         boolean isEmpty = getViewer().getSelection().isEmpty();
 
         manager.add(fActionClone);
+        manager.add(fActionRefreshAll);
+        manager.add(fActionPushAll);
 
         if(!isEmpty) {
             manager.add(new Separator());